@@ -0,0 +1,404 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.api.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Variant of {@link XYZMap} that can be read from any thread while it is being modified.
+ * <p>
+ * Lookups and iteration never block. Writes are serialized on the map itself, which is cheap as long as there is one
+ * writer (the server thread) and other threads only read. Removed elements leave a marker in the table instead of being
+ * moved around, so a concurrent lookup can never miss an element that is in the map. The table is rebuilt into a new array
+ * when it gets too full, and readers that still see the old array get a consistent snapshot of it.
+ * <p>
+ * Iterators are weakly consistent: they never throw {@link java.util.ConcurrentModificationException} and may or may not
+ * see changes made after they were created.
+ *
+ * @param <T> class of the objects to be contained in this map
+ *
+ * @see XYZAddressable
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class ConcurrentXYZMap<T extends XYZAddressable> implements Iterable<T> {
+
+    /**
+     * A larger prime number used as seed for hash calculation.
+     */
+    private static final int HASH_SEED = 1183822147;
+
+    /**
+     * Marker left in a bucket when its element is removed, so that probing for elements further along continues past it.
+     */
+    private static final Object REMOVED = new Object();
+
+    /**
+     * Backing array, replaced as a whole when the map is resized or cleared.
+     */
+    private volatile AtomicReferenceArray<Object> buckets;
+
+    /**
+     * the current number of elements in this map
+     */
+    private volatile int size = 0;
+
+    /**
+     * number of buckets that are not {@code null}, including removed markers. Only accessed by writers.
+     */
+    private int usedBuckets = 0;
+
+    /**
+     * the maximum permissible load of the backing array, after reaching it the array will be rebuilt
+     */
+    private final float loadFactor;
+
+    /**
+     * the load threshold of the backing array, after reaching it the array will be rebuilt
+     */
+    private int loadThreshold;
+
+    /**
+     * Creates a new ConcurrentXYZMap with the given load factor and initial capacity. The map will automatically grow if
+     * the specified load is surpassed.
+     *
+     * @param loadFactor the load factor
+     * @param capacity the initial capacity
+     */
+    public ConcurrentXYZMap(float loadFactor, int capacity) {
+
+        if (loadFactor > 1.0) {
+            throw new IllegalArgumentException("You really dont want to be using a " + loadFactor + " load loadFactor with this hash table!");
+        }
+
+        this.loadFactor = loadFactor;
+
+        // the smallest table that can hold an element and still keep a null bucket
+        int tCapacity = 4;
+        while (tCapacity < capacity) {
+            tCapacity <<= 1;
+        }
+        this.setBuckets(new AtomicReferenceArray<>(tCapacity));
+    }
+
+    /**
+     * Returns the number of elements in this map
+     *
+     * @return the number of elements in this map
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Computes a 32b hash based on the given coordinates.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return a 32b hash based on the given coordinates
+     */
+    private static int hash(int x, int y, int z) {
+        int hash = HASH_SEED;
+        hash += x;
+        hash *= HASH_SEED;
+        hash += y;
+        hash *= HASH_SEED;
+        hash += z;
+        hash *= HASH_SEED;
+        return hash;
+    }
+
+    private static boolean isAt(Object bucket, int x, int y, int z) {
+        XYZAddressable element = (XYZAddressable) bucket;
+        return element.getX() == x && element.getY() == y && element.getZ() == z;
+    }
+
+    /**
+     * Removes all elements from the map.
+     */
+    public synchronized void clear() {
+        this.setBuckets(new AtomicReferenceArray<>(this.buckets.length()));
+        this.size = 0;
+    }
+
+    /**
+     * Associates the given value with its xyz-coordinates. If the map previously contained a mapping for these coordinates,
+     * the old value is replaced.
+     *
+     * @param value value to be associated with its coordinates
+     *
+     * @return the previous value associated with the given value's coordinates or null if no such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public synchronized T put(T value) {
+        int x = value.getX();
+        int y = value.getY();
+        int z = value.getZ();
+
+        AtomicReferenceArray<Object> buckets = this.buckets;
+        int mask = buckets.length() - 1;
+        int index = hash(x, y, z) & mask;
+        int removedIndex = -1;
+
+        // look for an existing element at these coordinates, remembering the first removed bucket on the way
+        Object bucket;
+        while ((bucket = buckets.get(index)) != null) {
+            if (bucket == REMOVED) {
+                if (removedIndex < 0) {
+                    removedIndex = index;
+                }
+            } else if (isAt(bucket, x, y, z)) {
+                buckets.set(index, value);
+                return (T) bucket;
+            }
+            index = (index + 1) & mask;
+        }
+
+        // reuse the removed bucket if there was one, it comes before the free one in the probe sequence
+        if (removedIndex >= 0) {
+            buckets.set(removedIndex, value);
+            this.size++;
+        } else {
+            buckets.set(index, value);
+            this.size++;
+            if (++this.usedBuckets > this.loadThreshold) {
+                this.rebuild();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the entry associated with the given coordinates.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public synchronized T remove(int x, int y, int z) {
+        AtomicReferenceArray<Object> buckets = this.buckets;
+        int mask = buckets.length() - 1;
+        int index = hash(x, y, z) & mask;
+
+        Object bucket;
+        while ((bucket = buckets.get(index)) != null) {
+            if (bucket != REMOVED && isAt(bucket, x, y, z)) {
+                buckets.set(index, REMOVED);
+                this.size--;
+                return (T) bucket;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Removes the given value from the map and returns it if present.
+     *
+     * @param value the value to be removed
+     *
+     * @return the entry associated with the specified coordinates or null if no such value exists
+     */
+    @Nullable
+    public T remove(T value) {
+        return this.remove(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Returns the value associated with the given coordinates or null if no such value exists. Does not block.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(int x, int y, int z) {
+        AtomicReferenceArray<Object> buckets = this.buckets;
+        int mask = buckets.length() - 1;
+        int index = hash(x, y, z) & mask;
+
+        Object bucket;
+        while ((bucket = buckets.get(index)) != null) {
+            if (bucket != REMOVED && isAt(bucket, x, y, z)) {
+                return (T) bucket;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if there exists an entry associated with the given xyz-coordinates in this map. Does not block.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return true if there exists an entry associated with the given coordinates in this map
+     */
+    public boolean contains(int x, int y, int z) {
+        return this.get(x, y, z) != null;
+    }
+
+    /**
+     * Returns true if the given value is contained within this map
+     *
+     * @param value the value to look for
+     *
+     * @return true if the given value is contained within this map
+     */
+    public boolean contains(T value) {
+        return this.contains(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Copies all elements into a new backing array without the removed markers, doubling the capacity if the elements
+     * alone would use more than half of the load threshold.
+     */
+    private void rebuild() {
+        AtomicReferenceArray<Object> oldBuckets = this.buckets;
+        int capacity = oldBuckets.length();
+        if (this.size > this.loadThreshold / 2) {
+            capacity <<= 1;
+        }
+        int mask = capacity - 1;
+
+        // fill a plain array first, publishing it through the volatile field makes the contents visible to readers
+        Object[] newBuckets = new Object[capacity];
+        for (int i = 0; i < oldBuckets.length(); i++) {
+            Object bucket = oldBuckets.get(i);
+            if (bucket == null || bucket == REMOVED) {
+                continue;
+            }
+            XYZAddressable element = (XYZAddressable) bucket;
+            int index = hash(element.getX(), element.getY(), element.getZ()) & mask;
+            while (newBuckets[index] != null) {
+                index = (index + 1) & mask;
+            }
+            newBuckets[index] = bucket;
+        }
+        this.setBuckets(new AtomicReferenceArray<>(newBuckets));
+        this.usedBuckets = this.size;
+    }
+
+    private void setBuckets(AtomicReferenceArray<Object> buckets) {
+        // a put may go one bucket over the threshold before rebuilding, and lookups need a null bucket to stop at
+        this.loadThreshold = Math.min((int) (buckets.length() * this.loadFactor), buckets.length() - 2);
+        this.usedBuckets = 0;
+        this.buckets = buckets;
+    }
+
+    // Interface: Iterable<T>
+    // ------------------------------------------------------------------------------------------
+
+    public Iterator<T> iterator() {
+        return new BucketIterator(0);
+    }
+
+    /**
+     * Return iterator over elements started from random position defined by
+     * seed
+     *
+     * @param seed defines start position
+     * @return An iterator that starts at randomized position based on seed
+     **/
+    public Iterator<T> randomWrappedIterator(int seed) {
+        return new BucketIterator(seed);
+    }
+
+    /**
+     * Iterates over a snapshot of the backing array, starting at the given bucket and wrapping around at the end.
+     */
+    private class BucketIterator implements Iterator<T> {
+
+        private final AtomicReferenceArray<Object> buckets = ConcurrentXYZMap.this.buckets;
+        private int index;
+        private int remaining = buckets.length();
+        @Nullable private T next;
+        @Nullable private T last;
+
+        BucketIterator(int start) {
+            this.index = start & (buckets.length() - 1);
+            this.advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            this.next = null;
+            int mask = buckets.length() - 1;
+            while (this.remaining > 0) {
+                Object bucket = buckets.get(this.index);
+                this.index = (this.index + 1) & mask;
+                this.remaining--;
+                if (bucket != null && bucket != REMOVED) {
+                    this.next = (T) bucket;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public T next() {
+            T next = this.next;
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            this.last = next;
+            this.advance();
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            if (this.last == null) {
+                throw new IllegalStateException();
+            }
+            ConcurrentXYZMap.this.remove(this.last);
+            this.last = null;
+        }
+    }
+}
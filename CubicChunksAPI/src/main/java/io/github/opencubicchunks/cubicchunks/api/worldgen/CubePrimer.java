@@ -29,6 +29,9 @@ import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 import net.minecraft.world.biome.Biome;
+import net.minecraft.world.chunk.ChunkPrimer;
+
+import java.util.Arrays;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -144,6 +147,159 @@ public class CubePrimer {
         }
     }
 
+    /**
+     * Set all blocks in this cube to the given block state
+     *
+     * @param state the block state
+     */
+    public void fill(IBlockState state) {
+        fill(0, 0, 0, 15, 15, 15, state);
+    }
+
+    /**
+     * Set all blocks in a box to the given block state. The block state ID is only looked up once.
+     *
+     * @param minX  lowest cube local x
+     * @param minY  lowest cube local y
+     * @param minZ  lowest cube local z
+     * @param maxX  highest cube local x, inclusive
+     * @param maxY  highest cube local y, inclusive
+     * @param maxZ  highest cube local z, inclusive
+     * @param state the block state
+     */
+    public void fill(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, IBlockState state) {
+        @SuppressWarnings("deprecation")
+        int value = Block.BLOCK_STATE_IDS.get(state);
+        if (value > 0xFFFF && extData == null) {
+            extData = new byte[4096];
+        }
+        char lsb = (char) value;
+        byte msb = (byte) (value >>> 16);
+        for (int y = minY; y <= maxY; y++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                int from = getBlockIndex(minX, y, z);
+                int to = getBlockIndex(maxX, y, z) + 1;
+                Arrays.fill(data, from, to, lsb);
+                if (extData != null) {
+                    Arrays.fill(extData, from, to, msb);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace all occurrences of a block state in this cube with another block state
+     *
+     * @param from the block state to replace
+     * @param to   the new block state
+     */
+    public void replace(IBlockState from, IBlockState to) {
+        replace(0, 0, 0, 15, 15, 15, from, to);
+    }
+
+    /**
+     * Replace all occurrences of a block state in a box with another block state. Block states are compared by ID, without
+     * looking up the state of each block.
+     *
+     * @param minX lowest cube local x
+     * @param minY lowest cube local y
+     * @param minZ lowest cube local z
+     * @param maxX highest cube local x, inclusive
+     * @param maxY highest cube local y, inclusive
+     * @param maxZ highest cube local z, inclusive
+     * @param from the block state to replace
+     * @param to   the new block state
+     */
+    public void replace(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, IBlockState from, IBlockState to) {
+        @SuppressWarnings("deprecation")
+        int fromValue = Block.BLOCK_STATE_IDS.get(from);
+        @SuppressWarnings("deprecation")
+        int toValue = Block.BLOCK_STATE_IDS.get(to);
+        if (fromValue == toValue) {
+            return;
+        }
+        if (fromValue > 0xFFFF && extData == null) {
+            return; // no block can have this ID
+        }
+        if (toValue > 0xFFFF && extData == null) {
+            extData = new byte[4096];
+        }
+        for (int y = minY; y <= maxY; y++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int x = minX; x <= maxX; x++) {
+                    int idx = getBlockIndex(x, y, z);
+                    if (data[idx] == (char) fromValue && (extData == null || extData[idx] == (byte) (fromValue >>> 16))) {
+                        data[idx] = (char) toValue;
+                        if (extData != null) {
+                            extData[idx] = (byte) (toValue >>> 16);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy one cube high slice of a vanilla chunk primer into this cube
+     *
+     * @param chunkPrimer the chunk primer
+     * @param cubeY       Y coordinate of the cube within the chunk primer, 0 for blocks 0-15
+     */
+    public void copyFrom(ChunkPrimer chunkPrimer, int cubeY) {
+        int minBlockY = cubeY << 4;
+        // neighboring blocks are usually the same, so only look up the ID when the state changes
+        IBlockState lastState = null;
+        int lastValue = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    IBlockState state = chunkPrimer.getBlockState(x, minBlockY + y, z);
+                    if (state != lastState) {
+                        lastState = state;
+                        //noinspection deprecation
+                        lastValue = Block.BLOCK_STATE_IDS.get(state);
+                    }
+                    int idx = getBlockIndex(x, y, z);
+                    data[idx] = (char) lastValue;
+                    if (lastValue > 0xFFFF || extData != null) {
+                        if (extData == null) {
+                            extData = new byte[4096];
+                        }
+                        extData[idx] = (byte) (lastValue >>> 16);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the block state of all blocks in this cube if they are all the same, for example in empty cubes above the surface or
+     * solid cubes deep underground.
+     * <p>
+     * This reads the primer's block array directly, so it doesn't see blocks of subclasses that override
+     * {@link #getBlockState(int, int, int)} to store them elsewhere.
+     *
+     * @return the block state of all blocks, or null if there is more than one block state in this cube
+     */
+    @Nullable
+    public IBlockState getUniformState() {
+        char first = data[0];
+        for (int i = 1; i < data.length; i++) {
+            if (data[i] != first) {
+                return null;
+            }
+        }
+        if (extData != null) {
+            byte firstExt = extData[0];
+            for (int i = 1; i < extData.length; i++) {
+                if (extData[i] != firstExt) {
+                    return null;
+                }
+            }
+        }
+        return getBlockState(0, 0, 0);
+    }
+
     /**
      * Map cube local coordinates to an array index in the range [0, 4095].
      *
@@ -32,6 +32,7 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.chunk.Chunk;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -67,6 +68,36 @@ public interface ICubeGenerator {
      */
     CubePrimer generateCube(int cubeX, int cubeY, int cubeZ);
 
+    /**
+     * Generate a vertical stack of new cubes. Generators that share work between cubes of the same column can override this
+     * to do that work only once. The default implementation generates them one by one.
+     *
+     * @param cubeX the cubes' X coordinate
+     * @param cubeZ the cubes' Z coordinate
+     * @param minCubeY the Y coordinate of the lowest cube
+     * @param maxCubeY the Y coordinate of the highest cube, inclusive
+     *
+     * @return An ICubePrimer for each cube, from minCubeY to maxCubeY
+     */
+    default List<CubePrimer> generateCubes(int cubeX, int cubeZ, int minCubeY, int maxCubeY) {
+        List<CubePrimer> primers = new ArrayList<>(maxCubeY - minCubeY + 1);
+        for (int cubeY = minCubeY; cubeY <= maxCubeY; cubeY++) {
+            primers.add(generateCube(cubeX, cubeY, cubeZ));
+        }
+        return primers;
+    }
+
+    /**
+     * Whether {@link #generateCube(int, int, int)} can be called from multiple threads at the same time. If it returns true,
+     * generateCube may be called on worker threads, before the cube is requested on the server thread. All other methods are
+     * still only called on the server thread.
+     *
+     * @return true if generateCube is thread safe
+     */
+    default boolean isGenerateCubeThreadSafe() {
+        return false;
+    }
+
     /**
      * Generate column-global information such as biome data
      *
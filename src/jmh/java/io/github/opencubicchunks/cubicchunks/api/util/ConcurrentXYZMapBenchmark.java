@@ -0,0 +1,175 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.api.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * One writer thread loads and unloads a layer of cubes next to the loaded area while three reader threads look up cubes in it,
+ * the way the server thread and off-thread lookups share CubeProviderServer.cubeMap. {@code locked*} is the current XYZMap
+ * with every access synchronized, since it can't be read while it is modified. {@code concurrent*} is ConcurrentXYZMap.
+ * The {@code singleThread*} benchmarks compare plain lookups without any other threads.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConcurrentXYZMapBenchmark {
+
+    private static final int LOADED_RADIUS = 10;
+    private static final int LOADED_DIAMETER = LOADED_RADIUS * 2 + 1;
+
+    private final XYZMap<TestCube> lockedMap = new XYZMap<>(0.7f, 8000);
+    private final ConcurrentXYZMap<TestCube> concurrentMap = new ConcurrentXYZMap<>(0.7f, 8000);
+
+    // only used by the writer thread, the first half of the cycle loads the edge layer and the second half unloads it
+    private int writeIndex = 0;
+
+    @Setup
+    public void setup() {
+        for (int x = -LOADED_RADIUS; x <= LOADED_RADIUS; x++) {
+            for (int y = -LOADED_RADIUS; y <= LOADED_RADIUS; y++) {
+                for (int z = -LOADED_RADIUS; z <= LOADED_RADIUS; z++) {
+                    lockedMap.put(new TestCube(x, y, z));
+                    concurrentMap.put(new TestCube(x, y, z));
+                }
+            }
+        }
+    }
+
+    private static TestCube edgeCube(int index) {
+        int i = index % (LOADED_DIAMETER * LOADED_DIAMETER);
+        return new TestCube(i % LOADED_DIAMETER - LOADED_RADIUS, i / LOADED_DIAMETER - LOADED_RADIUS, LOADED_RADIUS + 1);
+    }
+
+    private int nextWriteIndex() {
+        int index = writeIndex;
+        writeIndex = (index + 1) % (LOADED_DIAMETER * LOADED_DIAMETER * 2);
+        return index;
+    }
+
+    private static boolean isLoad(int index) {
+        return index < LOADED_DIAMETER * LOADED_DIAMETER;
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public Object lockedWriter() {
+        int index = nextWriteIndex();
+        TestCube cube = edgeCube(index);
+        synchronized (lockedMap) {
+            return isLoad(index) ? lockedMap.put(cube) : lockedMap.remove(cube);
+        }
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(3)
+    public Object lockedReader() {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        int x = rand.nextInt(LOADED_DIAMETER) - LOADED_RADIUS;
+        int y = rand.nextInt(LOADED_DIAMETER) - LOADED_RADIUS;
+        int z = rand.nextInt(LOADED_DIAMETER) - LOADED_RADIUS;
+        synchronized (lockedMap) {
+            return lockedMap.get(x, y, z);
+        }
+    }
+
+    @Benchmark
+    @Group("concurrent")
+    @GroupThreads(1)
+    public Object concurrentWriter() {
+        int index = nextWriteIndex();
+        TestCube cube = edgeCube(index);
+        return isLoad(index) ? concurrentMap.put(cube) : concurrentMap.remove(cube);
+    }
+
+    @Benchmark
+    @Group("concurrent")
+    @GroupThreads(3)
+    public Object concurrentReader() {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        return concurrentMap.get(rand.nextInt(LOADED_DIAMETER) - LOADED_RADIUS,
+                rand.nextInt(LOADED_DIAMETER) - LOADED_RADIUS,
+                rand.nextInt(LOADED_DIAMETER) - LOADED_RADIUS);
+    }
+
+    @Benchmark
+    @Group("singleThreadXYZMap")
+    public Object singleThreadXYZMap() {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        return lockedMap.get(rand.nextInt(LOADED_DIAMETER) - LOADED_RADIUS,
+                rand.nextInt(LOADED_DIAMETER) - LOADED_RADIUS,
+                rand.nextInt(LOADED_DIAMETER) - LOADED_RADIUS);
+    }
+
+    @Benchmark
+    @Group("singleThreadConcurrentXYZMap")
+    public Object singleThreadConcurrentXYZMap() {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        return concurrentMap.get(rand.nextInt(LOADED_DIAMETER) - LOADED_RADIUS,
+                rand.nextInt(LOADED_DIAMETER) - LOADED_RADIUS,
+                rand.nextInt(LOADED_DIAMETER) - LOADED_RADIUS);
+    }
+
+    private static final class TestCube implements XYZAddressable {
+
+        private final int x, y, z;
+
+        TestCube(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Lights a 64x64x64 volume with a torch every 8 blocks. {@code oldPropagator} is the BlockPos based propagation loop
+ * LightPropagator used before it switched to int coordinates, kept here as a baseline. Run with {@code -prof gc} to see
+ * the allocation difference.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LightPropagatorBenchmark {
+
+    private static final int SIZE = 64;
+    private static final int TORCH_SPACING = 8;
+    private static final int TORCH_LIGHT = 14;
+
+    private final LightPropagator propagator = new LightPropagator();
+    private final LightUpdateQueue oldQueue = new LightUpdateQueue();
+    private final BlockPos center = new BlockPos(SIZE / 2, SIZE / 2, SIZE / 2);
+    private final List<BlockPos> torches = new ArrayList<>();
+    private final Consumer<BlockPos> callback = pos -> {};
+    private ArrayLightAccess blocks;
+
+    @Setup
+    public void setup() {
+        blocks = new ArrayLightAccess();
+        for (int x = TORCH_SPACING / 2; x < SIZE; x += TORCH_SPACING) {
+            for (int y = TORCH_SPACING / 2; y < SIZE; y += TORCH_SPACING) {
+                for (int z = TORCH_SPACING / 2; z < SIZE; z += TORCH_SPACING) {
+                    blocks.emitted[ArrayLightAccess.index(x, y, z)] = TORCH_LIGHT;
+                    torches.add(new BlockPos(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] newPropagator() {
+        Arrays.fill(blocks.light, (byte) 0);
+        propagator.propagateLight(center, torches, blocks, EnumSkyBlock.BLOCK, callback);
+        return blocks.light;
+    }
+
+    @Benchmark
+    public byte[] oldPropagator() {
+        Arrays.fill(blocks.light, (byte) 0);
+        oldPropagateLight(center, torches, blocks, EnumSkyBlock.BLOCK, callback);
+        return blocks.light;
+    }
+
+    private void oldPropagateLight(BlockPos centerPos, Iterable<BlockPos> coords, ILightBlockAccess blocks, EnumSkyBlock type,
+            Consumer<BlockPos> setLightCallback) {
+        oldQueue.begin(centerPos);
+        try {
+            coords.forEach(pos -> {
+                int emitted = blocks.getEmittedLight(pos, type);
+                if (blocks.getLightFor(type, pos) > emitted) {
+                    oldQueue.put(pos, emitted, LightUpdateQueue.MAX_DISTANCE);
+                }
+            });
+            while (oldQueue.next()) {
+                BlockPos pos = new BlockPos(oldQueue.getX(), oldQueue.getY(), oldQueue.getZ());
+                int distance = oldQueue.getDistance();
+                int currentValue = blocks.getLightFor(type, pos);
+                int lightFromNeighbors = Math.max(blocks.getEmittedLight(pos, type), oldLightFromNeighbors(blocks, type, pos));
+                if (lightFromNeighbors <= currentValue - 1) {
+                    if (!blocks.setLightFor(type, pos, 0)) {
+                        continue;
+                    }
+                    setLightCallback.accept(pos);
+                    if (distance <= LightUpdateQueue.MIN_DISTANCE) {
+                        continue;
+                    }
+                    for (EnumFacing direction : EnumFacing.values()) {
+                        BlockPos offset = pos.offset(direction);
+                        oldQueue.put(offset, blocks.getEmittedLight(offset, type), distance - 1);
+                    }
+                }
+            }
+            oldQueue.resetIndex();
+            coords.forEach(pos -> {
+                int emitted = blocks.getEmittedLight(pos, type);
+                if (emitted > blocks.getLightFor(type, pos)) {
+                    oldQueue.put(pos, emitted, LightUpdateQueue.MAX_DISTANCE);
+                    if (blocks.setLightFor(type, pos, emitted)) {
+                        setLightCallback.accept(pos);
+                    }
+                }
+            });
+            while (oldQueue.next()) {
+                BlockPos pos = new BlockPos(oldQueue.getX(), oldQueue.getY(), oldQueue.getZ());
+                int distance = oldQueue.isBeforeReset() ? LightUpdateQueue.MAX_DISTANCE : oldQueue.getDistance();
+                for (EnumFacing direction : EnumFacing.values()) {
+                    BlockPos nextPos = pos.offset(direction);
+                    int newLight = Math.max(blocks.getEmittedLight(nextPos, type), oldLightFromNeighbors(blocks, type, nextPos));
+                    if (newLight <= blocks.getLightFor(type, nextPos)) {
+                        continue;
+                    }
+                    if (blocks.setLightFor(type, nextPos, newLight)) {
+                        setLightCallback.accept(nextPos);
+                    } else {
+                        continue;
+                    }
+                    if (distance - 1 <= LightUpdateQueue.MIN_DISTANCE) {
+                        continue;
+                    }
+                    oldQueue.put(nextPos, newLight, distance - 1);
+                }
+            }
+        } finally {
+            oldQueue.end();
+        }
+    }
+
+    private static int oldLightFromNeighbors(ILightBlockAccess blocks, EnumSkyBlock type, BlockPos pos) {
+        int max = 0;
+        for (EnumFacing direction : EnumFacing.VALUES) {
+            int light = blocks.getLightFor(type, pos.offset(direction));
+            if (light > max) {
+                max = light;
+            }
+        }
+        int decrease = Math.max(1, blocks.getBlockLightOpacity(pos));
+        return Math.max(0, max - decrease);
+    }
+
+    /**
+     * Transparent blocks with block light stored in a plain array, positions outside of it behave like unloaded cubes
+     */
+    private static final class ArrayLightAccess implements ILightBlockAccess {
+
+        final byte[] light = new byte[SIZE * SIZE * SIZE];
+        final byte[] emitted = new byte[SIZE * SIZE * SIZE];
+
+        static int index(int x, int y, int z) {
+            return (x * SIZE + y) * SIZE + z;
+        }
+
+        private static boolean isInside(int x, int y, int z) {
+            return x >= 0 && y >= 0 && z >= 0 && x < SIZE && y < SIZE && z < SIZE;
+        }
+
+        @Override public int getBlockLightOpacity(int blockX, int blockY, int blockZ) {
+            return 0;
+        }
+
+        @Override public int getLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ) {
+            return isInside(blockX, blockY, blockZ) ? light[index(blockX, blockY, blockZ)] : 0;
+        }
+
+        @Override public boolean setLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ, int val) {
+            if (!isInside(blockX, blockY, blockZ)) {
+                return false;
+            }
+            light[index(blockX, blockY, blockZ)] = (byte) val;
+            return true;
+        }
+
+        @Override public boolean canSeeSky(int blockX, int blockY, int blockZ) {
+            return false;
+        }
+
+        @Override public int getEmittedLight(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
+            return isInside(blockX, blockY, blockZ) ? emitted[index(blockX, blockY, blockZ)] : 0;
+        }
+
+        @Override public void markEdgeNeedLightUpdate(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
+        }
+    }
+}
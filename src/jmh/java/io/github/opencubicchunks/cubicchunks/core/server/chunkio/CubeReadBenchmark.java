@@ -0,0 +1,160 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.datafix.DataFixer;
+import net.minecraft.util.datafix.DataFixesManager;
+import net.minecraft.util.datafix.FixTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares reading a cube the way RegionCubeIO used to (copy the region buffer into an array, decompress, always run the data fixer)
+ * with the current read path. Run with {@code -prof gc} to see the per-cube allocation difference.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CubeReadBenchmark {
+
+    private DataFixer dataFixer;
+    private NBTTagCompound currentVersionData;
+    // region files are read into direct buffers when memory mapped, and into heap buffers otherwise
+    private ByteBuffer heapBuffer;
+    private ByteBuffer directBuffer;
+
+    @Setup
+    public void setup() throws IOException {
+        Bootstrap.register();
+        dataFixer = DataFixesManager.createFixer();
+        currentVersionData = new NBTTagCompound();
+        currentVersionData.setInteger("DataVersion", dataFixer.version);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressedStreamTools.writeCompressed(createCubeNbt(new Random(42)), out);
+        byte[] data = out.toByteArray();
+        heapBuffer = ByteBuffer.wrap(data);
+        directBuffer = ByteBuffer.allocateDirect(data.length);
+        directBuffer.put(data).flip();
+    }
+
+    private NBTTagCompound createCubeNbt(Random rand) {
+        NBTTagCompound cubeNbt = new NBTTagCompound();
+        NBTTagCompound level = new NBTTagCompound();
+        cubeNbt.setTag("Level", level);
+        cubeNbt.setInteger("DataVersion", dataFixer.version);
+
+        level.setByte("v", (byte) 1);
+        level.setInteger("x", 0);
+        level.setInteger("y", 4);
+        level.setInteger("z", 0);
+        level.setBoolean("populated", true);
+        level.setBoolean("fullyPopulated", true);
+        level.setBoolean("initLightDone", true);
+
+        NBTTagList sections = new NBTTagList();
+        NBTTagCompound section = new NBTTagCompound();
+        byte[] blocks = new byte[4096];
+        for (int i = 0; i < blocks.length; i++) {
+            // mostly stone with some ores and air, compresses like real underground terrain
+            int r = rand.nextInt(100);
+            blocks[i] = (byte) (r < 85 ? 1 : r < 95 ? 0 : 14 + rand.nextInt(3));
+        }
+        section.setByteArray("Blocks", blocks);
+        section.setByteArray("Data", new byte[2048]);
+        section.setByteArray("BlockLight", new byte[2048]);
+        section.setByteArray("SkyLight", new byte[2048]);
+        sections.appendTag(section);
+        level.setTag("Sections", sections);
+
+        level.setTag("Entities", new NBTTagList());
+        level.setTag("TileEntities", new NBTTagList());
+        level.setTag("TileTicks", new NBTTagList());
+        NBTTagCompound lightingInfo = new NBTTagCompound();
+        lightingInfo.setIntArray("LastHeightMap", new int[256]);
+        lightingInfo.setByte("EdgeNeedSkyLightUpdate", (byte) 0);
+        level.setTag("LightingInfo", lightingInfo);
+        level.setByteArray("Biomes", new byte[256]);
+        return cubeNbt;
+    }
+
+    private static byte[] copyToArray(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            return buf.array();
+        }
+        byte[] arr = new byte[buf.remaining()];
+        buf.duplicate().get(arr);
+        return arr;
+    }
+
+    @Benchmark
+    public NBTTagCompound oldHeap() throws IOException {
+        return dataFixer.process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(copyToArray(heapBuffer))));
+    }
+
+    @Benchmark
+    public NBTTagCompound oldDirect() throws IOException {
+        return dataFixer.process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(copyToArray(directBuffer))));
+    }
+
+    @Benchmark
+    public NBTTagCompound newHeap() throws IOException {
+        return read(heapBuffer.duplicate());
+    }
+
+    @Benchmark
+    public NBTTagCompound newDirect() throws IOException {
+        return read(directBuffer.duplicate());
+    }
+
+    private NBTTagCompound read(ByteBuffer buf) throws IOException {
+        NBTTagCompound nbt = IONbtReader.readNbtBytes(buf);
+        if (IONbtReader.isDataVersionCurrent(nbt, currentVersionData)) {
+            return nbt;
+        }
+        return dataFixer.process(FixTypes.CHUNK, nbt);
+    }
+}
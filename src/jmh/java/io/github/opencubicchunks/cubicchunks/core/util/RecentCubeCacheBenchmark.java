@@ -0,0 +1,157 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.util;
+
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import mcp.MethodsReturnNonnullByDefault;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Looks up the cubes of a block access trace like the ones AI, fluid and redstone code produce: short walks over neighboring
+ * blocks, with the occasional jump to another place in the loaded area. {@code mapOnly} is the plain hash map lookup
+ * CubeProviderServer.getLoadedCube did before, {@code recentCache} puts RecentCubeCache in front of it. The cache hit rate of
+ * the trace is printed during setup.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecentCubeCacheBenchmark {
+
+    private static final int LOADED_RADIUS = 10;
+    private static final int TRACE_LENGTH = 16 * 1024;
+
+    private final XYZMap<TestCube> cubes = new XYZMap<>(0.7f, 8000);
+    private final RecentCubeCache<TestCube> recentCubes = new RecentCubeCache<>();
+    // packed as block x, y, z
+    private final int[] trace = new int[TRACE_LENGTH * 3];
+
+    @Setup
+    public void setup() {
+        for (int x = -LOADED_RADIUS; x <= LOADED_RADIUS; x++) {
+            for (int y = -LOADED_RADIUS; y <= LOADED_RADIUS; y++) {
+                for (int z = -LOADED_RADIUS; z <= LOADED_RADIUS; z++) {
+                    cubes.put(new TestCube(x, y, z));
+                }
+            }
+        }
+        Random rand = new Random(42);
+        int range = LOADED_RADIUS * 16;
+        int x = 0, y = 0, z = 0;
+        for (int i = 0; i < trace.length; i += 3) {
+            if (rand.nextInt(64) == 0) {
+                x = rand.nextInt(range * 2) - range;
+                y = rand.nextInt(range * 2) - range;
+                z = rand.nextInt(range * 2) - range;
+            } else {
+                x = clamp(x + rand.nextInt(3) - 1, range);
+                y = clamp(y + rand.nextInt(3) - 1, range);
+                z = clamp(z + rand.nextInt(3) - 1, range);
+            }
+            trace[i] = x;
+            trace[i + 1] = y;
+            trace[i + 2] = z;
+        }
+
+        int hits = 0;
+        for (int i = 0; i < trace.length; i += 3) {
+            int cubeX = blockToCube(trace[i]), cubeY = blockToCube(trace[i + 1]), cubeZ = blockToCube(trace[i + 2]);
+            if (recentCubes.get(cubeX, cubeY, cubeZ) != null) {
+                hits++;
+            } else {
+                recentCubes.put(cubes.get(cubeX, cubeY, cubeZ));
+            }
+        }
+        System.out.printf("%nRecentCubeCache hit rate: %.1f%%%n", hits * 100.0 / TRACE_LENGTH);
+    }
+
+    private static int clamp(int value, int range) {
+        return Math.max(-range, Math.min(range - 1, value));
+    }
+
+    @Benchmark
+    public int mapOnly() {
+        int sum = 0;
+        int[] trace = this.trace;
+        for (int i = 0; i < trace.length; i += 3) {
+            sum += cubes.get(blockToCube(trace[i]), blockToCube(trace[i + 1]), blockToCube(trace[i + 2])).getX();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int recentCache() {
+        int sum = 0;
+        int[] trace = this.trace;
+        for (int i = 0; i < trace.length; i += 3) {
+            int cubeX = blockToCube(trace[i]), cubeY = blockToCube(trace[i + 1]), cubeZ = blockToCube(trace[i + 2]);
+            TestCube cube = recentCubes.get(cubeX, cubeY, cubeZ);
+            if (cube == null) {
+                cube = cubes.get(cubeX, cubeY, cubeZ);
+                recentCubes.put(cube);
+            }
+            sum += cube.getX();
+        }
+        return sum;
+    }
+
+    private static final class TestCube implements XYZAddressable {
+
+        private final int x, y, z;
+
+        TestCube(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
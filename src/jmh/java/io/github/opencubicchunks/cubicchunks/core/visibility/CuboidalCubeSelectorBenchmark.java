@@ -0,0 +1,151 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.visibility;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.ChunkPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Computes view changes along a flight path: mostly one cube per step horizontally, with climbs, dives and the occasional
+ * diagonal step, like a player flying with elytra. {@code oldFindChanged} is the set based implementation CuboidalCubeSelector
+ * used before, kept here as a baseline. Run with {@code -prof gc} to see the allocation difference.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CuboidalCubeSelectorBenchmark {
+
+    private static final int PATH_LENGTH = 256;
+
+    @Param({"8", "16"})
+    public int viewDistance;
+
+    private final CuboidalCubeSelector selector = new CuboidalCubeSelector();
+    private final List<CubePos> path = new ArrayList<>();
+    private int changed;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(42);
+        CubePos pos = new CubePos(0, 4, 0);
+        path.add(pos);
+        for (int i = 1; i < PATH_LENGTH; i++) {
+            int dy = rand.nextInt(8) == 0 ? rand.nextInt(3) - 1 : 0;
+            int dz = rand.nextInt(4) == 0 ? 1 : 0;
+            pos = pos.add(1, dy, dz);
+            path.add(pos);
+        }
+    }
+
+    @Benchmark
+    public int newFindChanged() {
+        changed = 0;
+        for (int i = 1; i < path.size(); i++) {
+            selector.findChanged(path.get(i - 1), path.get(i), viewDistance, viewDistance,
+                    (x, y, z) -> changed++, (x, y, z) -> changed++, (x, z) -> changed++, (x, z) -> changed++);
+        }
+        return changed;
+    }
+
+    @Benchmark
+    public int oldFindChanged() {
+        int count = 0;
+        for (int i = 1; i < path.size(); i++) {
+            Set<CubePos> cubesToRemove = new HashSet<>();
+            Set<CubePos> cubesToLoad = new HashSet<>();
+            Set<ChunkPos> columnsToRemove = new HashSet<>();
+            Set<ChunkPos> columnsToLoad = new HashSet<>();
+            oldFindChanged(path.get(i - 1), path.get(i), viewDistance, viewDistance, cubesToRemove, cubesToLoad, columnsToRemove, columnsToLoad);
+            count += cubesToRemove.size() + cubesToLoad.size() + columnsToRemove.size() + columnsToLoad.size();
+        }
+        return count;
+    }
+
+    private static void oldFindChanged(CubePos oldPos, CubePos newPos,
+            int horizontalViewDistance, int verticalViewDistance,
+            Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad,
+            Set<ChunkPos> columnsToRemove, Set<ChunkPos> columnsToLoad) {
+        int oldX = oldPos.getX();
+        int oldY = oldPos.getY();
+        int oldZ = oldPos.getZ();
+        int newX = newPos.getX();
+        int newY = newPos.getY();
+        int newZ = newPos.getZ();
+        int dx = newX - oldX;
+        int dy = newY - oldY;
+        int dz = newZ - oldZ;
+
+        for (int currentX = newX - horizontalViewDistance; currentX <= newX + horizontalViewDistance; ++currentX) {
+            for (int currentZ = newZ - horizontalViewDistance; currentZ <= newZ + horizontalViewDistance; ++currentZ) {
+                if (!isPointWithinCubeVolume(oldX, 0, oldZ, currentX, 0, currentZ, horizontalViewDistance, verticalViewDistance)) {
+                    columnsToLoad.add(new ChunkPos(currentX, currentZ));
+                }
+                if (!isPointWithinCubeVolume(newX, 0, newZ, currentX - dx, 0, currentZ - dz, horizontalViewDistance, verticalViewDistance)) {
+                    columnsToRemove.add(new ChunkPos(currentX - dx, currentZ - dz));
+                }
+                for (int currentY = newY - verticalViewDistance; currentY <= newY + verticalViewDistance; ++currentY) {
+                    if (!isPointWithinCubeVolume(oldX, oldY, oldZ, currentX, currentY, currentZ,
+                            horizontalViewDistance, verticalViewDistance)) {
+                        cubesToLoad.add(new CubePos(currentX, currentY, currentZ));
+                    }
+                    if (!isPointWithinCubeVolume(newX, newY, newZ, currentX - dx, currentY - dy, currentZ - dz,
+                            horizontalViewDistance, verticalViewDistance)) {
+                        cubesToRemove.add(new CubePos(currentX - dx, currentY - dy, currentZ - dz));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isPointWithinCubeVolume(int cubeX, int cubeY, int cubeZ, int pointX, int pointY, int pointZ, int horizontal,
+            int vertical) {
+        int dx = cubeX - pointX;
+        int dy = cubeY - pointY;
+        int dz = cubeZ - pointZ;
+        return dx >= -horizontal && dx <= horizontal
+                && dy >= -vertical && dy <= vertical
+                && dz >= -horizontal && dz <= horizontal;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world;
+
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMaxBlock;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Gathers collision boxes for many mob sized entities flying around a large open cave: a 128x64x128 block room with a
+ * stone floor and ceiling. {@code perBlock} looks up the cube for every block like the cubic chunks collision check used
+ * to. {@code perCube} resolves each cube once and skips all air cubes, like MixinWorld_SlowCollisionCheck does now.
+ * Worlds can't be created here, so both loops work on a map of block storages.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CollisionBoxesBenchmark {
+
+    private static final int CAVE_CUBES_XZ = 8;
+    private static final int CAVE_CUBES_Y = 4;
+    private static final int ENTITIES = 512;
+
+    private final Map<CubePos, ExtendedBlockStorage> cubes = new HashMap<>();
+    private final List<AxisAlignedBB> entityBoxes = new ArrayList<>();
+    private final List<AxisAlignedBB> collisionBoxes = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        Bootstrap.register();
+        IBlockState stone = Blocks.STONE.getDefaultState();
+        for (int cubeX = 0; cubeX < CAVE_CUBES_XZ; cubeX++) {
+            for (int cubeZ = 0; cubeZ < CAVE_CUBES_XZ; cubeZ++) {
+                // floor and ceiling are solid, everything in between is air
+                for (int cubeY = -1; cubeY <= CAVE_CUBES_Y; cubeY++) {
+                    ExtendedBlockStorage storage = new ExtendedBlockStorage(cubeToMinBlock(cubeY), true);
+                    if (cubeY == -1 || cubeY == CAVE_CUBES_Y) {
+                        for (int i = 0; i < 4096; i++) {
+                            storage.set(i & 15, i >> 8, (i >> 4) & 15, stone);
+                        }
+                    }
+                    cubes.put(new CubePos(cubeX, cubeY, cubeZ), storage);
+                }
+            }
+        }
+        Random rand = new Random(42);
+        int size = CAVE_CUBES_XZ * 16;
+        int height = CAVE_CUBES_Y * 16;
+        for (int i = 0; i < ENTITIES; i++) {
+            double x = 1 + rand.nextDouble() * (size - 2);
+            double y = rand.nextDouble() * (height - 2);
+            double z = 1 + rand.nextDouble() * (size - 2);
+            // a mob box moved by its velocity, like the box passed in from Entity.move
+            entityBoxes.add(new AxisAlignedBB(x, y, z, x + 0.6, y + 1.8, z + 0.6).expand(0.1, -0.08, 0.1));
+        }
+    }
+
+    @Benchmark
+    public int perBlock() {
+        int count = 0;
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (AxisAlignedBB aabb : entityBoxes) {
+            collisionBoxes.clear();
+            int minX = MathHelper.floor(aabb.minX) - 1;
+            int maxX = MathHelper.ceil(aabb.maxX) + 1;
+            int minY = MathHelper.floor(aabb.minY) - 1;
+            int maxY = MathHelper.ceil(aabb.maxY) + 1;
+            int minZ = MathHelper.floor(aabb.minZ) - 1;
+            int maxZ = MathHelper.ceil(aabb.maxZ) + 1;
+            for (int x = minX; x < maxX; ++x) {
+                for (int z = minZ; z < maxZ; ++z) {
+                    boolean isXboundary = x == minX || x == maxX - 1;
+                    boolean isZBoundary = z == minZ || z == maxZ - 1;
+                    if (isXboundary && isZBoundary) {
+                        continue;
+                    }
+                    for (int y = minY; y < maxY; ++y) {
+                        if ((isXboundary || isZBoundary) && y == maxY - 1) {
+                            continue;
+                        }
+                        // isBlockLoaded and getBlockState both look up the cube
+                        if (getStorage(x, y, z) == null) {
+                            continue;
+                        }
+                        IBlockState state = getStorage(x, y, z).get(blockToLocal(x), blockToLocal(y), blockToLocal(z));
+                        addCollisionBox(state, pos.setPos(x, y, z), aabb);
+                    }
+                }
+            }
+            count += collisionBoxes.size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int perCube() {
+        int count = 0;
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (AxisAlignedBB aabb : entityBoxes) {
+            collisionBoxes.clear();
+            int minX = MathHelper.floor(aabb.minX) - 1;
+            int maxX = MathHelper.ceil(aabb.maxX) + 1;
+            int minY = MathHelper.floor(aabb.minY) - 1;
+            int maxY = MathHelper.ceil(aabb.maxY) + 1;
+            int minZ = MathHelper.floor(aabb.minZ) - 1;
+            int maxZ = MathHelper.ceil(aabb.maxZ) + 1;
+            for (int cubeX = blockToCube(minX); cubeX <= blockToCube(maxX - 1); cubeX++) {
+                for (int cubeZ = blockToCube(minZ); cubeZ <= blockToCube(maxZ - 1); cubeZ++) {
+                    for (int cubeY = blockToCube(minY); cubeY <= blockToCube(maxY - 1); cubeY++) {
+                        ExtendedBlockStorage storage = cubes.get(new CubePos(cubeX, cubeY, cubeZ));
+                        if (storage == null || storage.isEmpty()) {
+                            continue;
+                        }
+                        int x0 = Math.max(minX, cubeToMinBlock(cubeX));
+                        int x1 = Math.min(maxX - 1, cubeToMaxBlock(cubeX));
+                        int y0 = Math.max(minY, cubeToMinBlock(cubeY));
+                        int y1 = Math.min(maxY - 1, cubeToMaxBlock(cubeY));
+                        int z0 = Math.max(minZ, cubeToMinBlock(cubeZ));
+                        int z1 = Math.min(maxZ - 1, cubeToMaxBlock(cubeZ));
+                        for (int x = x0; x <= x1; ++x) {
+                            boolean isXboundary = x == minX || x == maxX - 1;
+                            for (int z = z0; z <= z1; ++z) {
+                                boolean isZBoundary = z == minZ || z == maxZ - 1;
+                                if (isXboundary && isZBoundary) {
+                                    continue;
+                                }
+                                for (int y = y0; y <= y1; ++y) {
+                                    if ((isXboundary || isZBoundary) && y == maxY - 1) {
+                                        continue;
+                                    }
+                                    IBlockState state = storage.get(blockToLocal(x), blockToLocal(y), blockToLocal(z));
+                                    if (state.getBlock() != Blocks.AIR) {
+                                        addCollisionBox(state, pos.setPos(x, y, z), aabb);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            count += collisionBoxes.size();
+        }
+        return count;
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    private ExtendedBlockStorage getStorage(int blockX, int blockY, int blockZ) {
+        return cubes.get(CubePos.fromBlockCoords(blockX, blockY, blockZ));
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    private void addCollisionBox(IBlockState state, BlockPos pos, AxisAlignedBB aabb) {
+        // stone and air don't need the world to get their bounding box
+        state.addCollisionBoxToList(null, pos, aabb, collisionBoxes, null, false);
+    }
+}
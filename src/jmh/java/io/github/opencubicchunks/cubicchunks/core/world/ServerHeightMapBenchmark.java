@@ -0,0 +1,107 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world;
+
+import mcp.MethodsReturnNonnullByDefault;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Replays block change traces on a column with terrain up to y=63. "mine" digs and refills tunnels below the surface,
+ * "build" places and breaks blocks of structures above it. Both split block columns into segments and merge them again.
+ * Run with {@code -prof gc} to see the allocation rate.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ServerHeightMapBenchmark {
+
+    private static final int SURFACE_Y = 63;
+    private static final int TRACE_LENGTH = 8192;
+
+    @Param({"mine", "build"})
+    public String trace;
+
+    // packed as x, y, z, opacity
+    private int[] changes;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(42);
+        changes = new int[TRACE_LENGTH * 4];
+        int i = 0;
+        while (i < changes.length) {
+            int length = 4 + rand.nextInt(12);
+            int x = rand.nextInt(16);
+            int z = rand.nextInt(16);
+            boolean alongX = rand.nextBoolean();
+            int y = trace.equals("mine") ? 8 + rand.nextInt(SURFACE_Y - 16) : SURFACE_Y + 1 + rand.nextInt(32);
+            // mining removes blocks and sometimes fills the tunnel back, building places blocks and sometimes breaks them again
+            int opacity = trace.equals("mine") ? 0 : 255;
+            for (int pass = 0; pass < 2 && i < changes.length; pass++) {
+                for (int j = 0; j < length && i < changes.length; j++) {
+                    changes[i++] = alongX ? (x + j) & 15 : x;
+                    changes[i++] = y;
+                    changes[i++] = alongX ? z : (z + j) & 15;
+                    changes[i++] = opacity;
+                }
+                if (rand.nextInt(3) != 0) {
+                    break;
+                }
+                opacity = 255 - opacity;
+            }
+        }
+    }
+
+    @Benchmark
+    public int replayTrace() {
+        ServerHeightMap heightMap = new ServerHeightMap(new int[16 * 16]);
+        for (int y = 0; y <= SURFACE_Y; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    heightMap.onOpacityChange(x, y, z, 255);
+                }
+            }
+        }
+        int[] changes = this.changes;
+        for (int i = 0; i < changes.length; i += 4) {
+            heightMap.onOpacityChange(changes[i], changes[i + 1], changes[i + 2], changes[i + 3]);
+        }
+        return heightMap.getLowestTopBlockY() + heightMap.getTopBlockYBelow(7, 7, SURFACE_Y);
+    }
+}
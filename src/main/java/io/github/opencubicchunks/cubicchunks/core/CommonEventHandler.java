@@ -32,6 +32,7 @@ import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldSettings;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubicWorldData;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
+import io.github.opencubicchunks.cubicchunks.core.server.CubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.server.SpawnCubes;
 import io.github.opencubicchunks.cubicchunks.core.util.ReflectionUtil;
 import io.github.opencubicchunks.cubicchunks.core.world.WorldSavedCubicChunksData;
@@ -130,6 +131,14 @@ public class CommonEventHandler {
         }
     }
 
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload evt) {
+        // don't keep worker threads busy generating cubes of a world that is gone
+        if (!evt.getWorld().isRemote && evt.getWorld().getChunkProvider() instanceof CubeProviderServer) {
+            ((CubeProviderServer) evt.getWorld().getChunkProvider()).cancelQueuedCubeGeneration();
+        }
+    }
+
     @SubscribeEvent
     public void onPlayerJoinWorld(EntityJoinWorldEvent evt) {
         if (evt.getEntity() instanceof EntityPlayerMP && ((ICubicWorld) evt.getWorld()).isCubicWorld()) {
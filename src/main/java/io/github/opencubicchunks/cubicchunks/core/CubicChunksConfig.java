@@ -70,6 +70,17 @@ public class CubicChunksConfig {
     @Config.Comment("The maximum number of cubic chunks to generate per tick.")
     public static int maxGeneratedCubesPerTick = 49 * 16;
 
+    @Config.LangKey("cubicchunks.config.max_cubes_sent_per_player_per_tick")
+    @Config.Comment("The maximum number of cubes sent to each player per tick. Less cubes are sent to players whose connection can't keep up.")
+    @Config.RangeInt(min = 8)
+    public static int maxCubesSentPerPlayerPerTick = 81 * 8;
+
+    @Config.LangKey("cubicchunks.config.cube_update_budget_micros")
+    @Config.Comment("The time in microseconds the server spends per tick on queued light updates and tile entity creation in cubes. Cubes "
+            + "closest to players are updated first, the remaining work is done in later ticks.")
+    @Config.RangeInt(min = 1000)
+    public static int cubeUpdateBudgetMicros = 40 * 1000;
+
     @Config.LangKey("cubicchunks.config.use_vanilla_world_generators")
     @Config.Comment("Enabling this option will force cubic chunks to use world generators designed for two dimensional chunks, which are often used "
             + "for custom ore generators added by mods. To do so cubic chunks will pregenerate cubes in a range of height from 0 to 255. This is "
@@ -148,6 +159,47 @@ public class CubicChunksConfig {
     @Config.RequiresWorldRestart
     public static int spawnLoadDistanceY = 8;
 
+    @Config.LangKey("cubicchunks.config.first_light_threads")
+    @Config.Comment("The amount of threads used to calculate initial skylight of newly generated cubes. Cubes far enough apart from each"
+            + " other are lit in parallel while the server thread waits. 0 calculates all initial light on the server thread."
+            + " Blocks only see the nearby cubes and their existing tile entities when their light is calculated, so mod blocks"
+            + " whose light depends on tile entities that weren't created yet may be lit incorrectly.")
+    @Config.RangeInt(min = 0)
+    @Config.RequiresMcRestart
+    public static int firstLightThreads = 0;
+
+    @Config.LangKey("cubicchunks.config.cube_generation_threads")
+    @Config.Comment("The amount of threads used to generate blocks of new cubes ahead of time, for world generators that support it."
+            + " Population and lighting still happen on the server thread. 0 generates everything on the server thread.")
+    @Config.RangeInt(min = 0)
+    @Config.RequiresMcRestart
+    public static int cubeGenerationThreads = 0;
+
+    @Config.LangKey("cubicchunks.config.save_compression_threads")
+    @Config.Comment("The amount of threads used to compress cubes and columns before writing them to disk. 0 uses half of the available "
+            + "processors.")
+    @Config.RangeInt(min = 0)
+    @Config.RequiresMcRestart
+    public static int saveCompressionThreads = 0;
+
+    @Config.LangKey("cubicchunks.config.max_pending_cube_saves")
+    @Config.Comment("The maximum amount of cubes waiting to be written to disk per dimension. When this limit is reached, the server thread "
+            + "will help writing cubes to disk instead of queueing more of them, which slows down the server but avoids running out of memory.")
+    @Config.RangeInt(min = 256)
+    public static int maxPendingCubeSaves = 64 * 1024;
+
+    @Config.LangKey("cubicchunks.config.save_compression_level")
+    @Config.Comment("Compression level used when saving cubes and columns, from 1 (fastest) to 9 (smallest files).")
+    @Config.RangeInt(min = 1, max = 9)
+    public static int saveCompressionLevel = 6;
+
+    @Config.LangKey("cubicchunks.config.compact_cube_storage")
+    @Config.Comment("Save blocks and light of cubes in a compact binary format instead of vanilla-like NBT sections. This is faster to save and"
+            + " load and uses less disk space. Cubes made of only one block with uniform light, like air in the sky or stone deep underground, are"
+            + " stored as a few bytes. Cubes saved this way can't be loaded by versions of cubic chunks without this option. Already"
+            + " saved cubes can be converted using CubeStorageConverter.")
+    public static boolean compactCubeStorage = false;
+
     public static int defaultMaxCubesPerChunkloadingTicket = 25 * 16;
     public static Map<String, Integer> modMaxCubesPerChunkloadingTicket = new HashMap<>();
 
@@ -39,8 +39,7 @@ import io.github.opencubicchunks.cubicchunks.core.lighting.ILightingManager;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.server.CubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.server.SpawnCubes;
-import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickList;
-import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickSet;
+import io.github.opencubicchunks.cubicchunks.core.util.world.ScheduledTickStore;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
@@ -127,9 +126,9 @@ public interface ICubicWorldInternal extends ICubicWorld {
 
         XZMap<IColumn> getForcedColumns();
 
-        CubeSplitTickSet getScheduledTicks();
+        ScheduledTickStore getScheduledTicks();
 
-        CubeSplitTickList getThisTickScheduledTicks();
+        ScheduledTickStore getThisTickScheduledTicks();
 
         SpawnCubes getSpawnArea();
 
@@ -36,6 +36,7 @@ import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
 import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
@@ -54,6 +55,7 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.ChunkPrimer;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
@@ -222,6 +224,13 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
         return compatGenerationPrimer;
     }
 
+    @Override
+    public void markStoragesToTickDirty() {
+        if (cubeMap != null) {
+            cubeMap.markStoragesToTickDirty();
+        }
+    }
+
     // private ExtendedBlockStorage getLastExtendedBlockStorage() - shouldn't be used by anyone
 
     // this method can't be saved by just redirecting EBS access
@@ -556,6 +565,13 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
         return true; // ignored
     }
 
+    @Inject(method = "addEntity", at = @At("RETURN"))
+    private void addEntity_updateTrackerIndex(Entity entity, CallbackInfo ci) {
+        if (isColumn && world instanceof WorldServer) {
+            ((ICubicEntityTracker) ((WorldServer) world).getEntityTracker()).onEntityCubeChanged(entity);
+        }
+    }
+
     // ==============================================
     //             removeEntityAtIndex
     // ==============================================
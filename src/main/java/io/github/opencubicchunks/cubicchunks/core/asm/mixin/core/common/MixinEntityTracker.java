@@ -25,6 +25,7 @@
 package io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common;
 
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.core.entity.EntityTrackerCubeIndex;
 import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.server.ICubicPlayerList;
 import net.minecraft.entity.Entity;
@@ -34,6 +35,7 @@ import net.minecraft.entity.EntityTrackerEntry;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.network.play.server.SPacketEntityAttach;
 import net.minecraft.network.play.server.SPacketSetPassengers;
+import net.minecraft.util.IntHashMap;
 import net.minecraft.world.WorldServer;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
@@ -49,7 +51,9 @@ import java.util.Set;
 public class MixinEntityTracker implements ICubicEntityTracker {
 
     @Shadow @Final private Set<EntityTrackerEntry> entries;
+    @Shadow @Final private IntHashMap<EntityTrackerEntry> trackedEntityHashTable;
     private int maxVertTrackingDistanceThreshold;
+    private final EntityTrackerCubeIndex cubeIndex = new EntityTrackerCubeIndex();
 
     @Inject(method = "<init>", at = @At("RETURN"))
     private void onConstruct(WorldServer world, CallbackInfo ci) {
@@ -65,14 +69,31 @@ public class MixinEntityTracker implements ICubicEntityTracker {
         return e;
     }
 
+    @Inject(method = "track(Lnet/minecraft/entity/Entity;IIZ)V", at = @At("RETURN"))
+    private void onTrack(Entity entity, int trackingRange, int updateFrequency, boolean sendVelocityUpdates, CallbackInfo ci) {
+        onEntityCubeChanged(entity);
+    }
+
+    @Inject(method = "untrack", at = @At("HEAD"))
+    private void onUntrack(Entity entity, CallbackInfo ci) {
+        EntityTrackerEntry entry = this.trackedEntityHashTable.lookup(entity.getEntityId());
+        if (entry != null) {
+            this.cubeIndex.remove(entry);
+        }
+    }
+
+    @Override public void onEntityCubeChanged(Entity entity) {
+        EntityTrackerEntry entry = this.trackedEntityHashTable.lookup(entity.getEntityId());
+        if (entry != null) {
+            this.cubeIndex.update(entry);
+        }
+    }
+
     // Previous version of this function contain code which force Minecraft to send all SPacketEntityAttach before any SPacketSetPassengers
     @Override public void sendLeashedEntitiesInCube(EntityPlayerMP player, ICube cubeIn) {
-        for (EntityTrackerEntry entitytrackerentry : this.entries) {
+        for (EntityTrackerEntry entitytrackerentry : this.cubeIndex.getEntries(cubeIn.getX(), cubeIn.getY(), cubeIn.getZ())) {
             Entity entity = entitytrackerentry.getTrackedEntity();
-            if (entity != player &&
-                    entity.chunkCoordX == cubeIn.getX() &&
-                    entity.chunkCoordZ == cubeIn.getZ() &&
-                    entity.chunkCoordY == cubeIn.getY()) {
+            if (entity != player) {
 
                 entitytrackerentry.updatePlayerEntity(player);
                 //noinspection ConstantConditions
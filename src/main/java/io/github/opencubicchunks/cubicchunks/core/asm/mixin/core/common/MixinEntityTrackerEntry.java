@@ -29,23 +29,34 @@ import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityTrackerEntry;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.world.WorldServer;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
+import java.util.List;
+import java.util.Set;
+
 @Mixin(EntityTrackerEntry.class)
-public class MixinEntityTrackerEntry implements ICubicEntityTracker.Entry {
+public abstract class MixinEntityTrackerEntry implements ICubicEntityTracker.Entry {
 
     @Shadow @Final private int range;
     @Shadow private long encodedPosY;
 
     @Shadow @Final private Entity trackedEntity;
+    @Shadow @Final public Set<EntityPlayerMP> trackingPlayers;
     private int maxVertRange;
 
+    @Shadow public abstract void updatePlayerEntity(EntityPlayerMP playerMP);
+
+    @Shadow public abstract void updatePlayerEntities(List<EntityPlayer> players);
+
     @Inject(method = "isVisibleTo", cancellable = true, at = @At("RETURN"))
     private void isVisibleToCubic(EntityPlayerMP player, CallbackInfoReturnable<Boolean> cir) {
         boolean ret = cir.getReturnValue();
@@ -69,6 +80,33 @@ public class MixinEntityTrackerEntry implements ICubicEntityTracker.Entry {
         }
     }
 
+    /**
+     * When the entity has moved far enough, vanilla checks every player in the world. In cubic worlds only the players
+     * already tracking the entity can stop tracking it, and only the players watching its cube can start, so check just those.
+     */
+    @Redirect(method = "updatePlayerList", at = @At(value = "INVOKE",
+            target = "Lnet/minecraft/entity/EntityTrackerEntry;updatePlayerEntities(Ljava/util/List;)V"))
+    private void updatePlayerEntitiesCubic(EntityTrackerEntry entry, List<EntityPlayer> players) {
+        if (!((ICubicWorld) this.trackedEntity.world).isCubicWorld() || this.trackedEntity.forceSpawn) {
+            this.updatePlayerEntities(players);
+            return;
+        }
+        if (!this.trackingPlayers.isEmpty()) {
+            for (EntityPlayerMP player : this.trackingPlayers.toArray(new EntityPlayerMP[0])) {
+                this.updatePlayerEntity(player);
+            }
+        }
+        PlayerCubeMap playerCubeMap = (PlayerCubeMap) ((WorldServer) this.trackedEntity.world).getPlayerChunkMap();
+        List<EntityPlayerMP> watchingPlayers = playerCubeMap.getPlayersWatchingCube(
+                this.trackedEntity.chunkCoordX, this.trackedEntity.chunkCoordY, this.trackedEntity.chunkCoordZ);
+        for (int i = 0, size = watchingPlayers.size(); i < size; i++) {
+            EntityPlayerMP player = watchingPlayers.get(i);
+            if (!this.trackingPlayers.contains(player)) {
+                this.updatePlayerEntity(player);
+            }
+        }
+    }
+
     @Override public void setMaxVertRange(int maxVertTrackingDistanceThreshold) {
         this.maxVertRange = maxVertTrackingDistanceThreshold;
     }
@@ -46,8 +46,7 @@ import io.github.opencubicchunks.cubicchunks.core.server.ChunkGc;
 import io.github.opencubicchunks.cubicchunks.core.server.CubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.core.server.SpawnCubes;
-import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickList;
-import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickSet;
+import io.github.opencubicchunks.cubicchunks.core.util.world.ScheduledTickStore;
 import io.github.opencubicchunks.cubicchunks.core.world.CubeWorldEntitySpawner;
 import io.github.opencubicchunks.cubicchunks.core.world.IWorldEntitySpawner;
 import io.github.opencubicchunks.cubicchunks.core.world.chunkloader.CubicChunkManager;
@@ -89,6 +88,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -121,12 +121,16 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
     @Shadow public abstract boolean addWeatherEffect(Entity entityIn);
 
     @Shadow @Mutable @Final private Set<NextTickListEntry> pendingTickListEntriesHashSet;
+    @Shadow @Mutable @Final private TreeSet<NextTickListEntry> pendingTickListEntriesTreeSet;
     @Shadow @Mutable @Final private List<NextTickListEntry> pendingTickListEntriesThisTick;
 
     @Shadow public abstract PlayerChunkMap getPlayerChunkMap();
 
     @Nullable private FirstLightProcessor firstLightProcessor;
 
+    private ScheduledTickStore scheduledTicks;
+    private ScheduledTickStore thisTickScheduledTicks;
+
     @Override public void initCubicWorldServer(IntRange heightRange, IntRange generationRange) {
         super.initCubicWorld(heightRange, generationRange);
         this.isCubicWorld = true;
@@ -145,8 +149,11 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         this.forcedCubes = new XYZMap<>(0.75f, 64*1024);
         this.forcedColumns = new XZMap<>(0.75f, 2048);
 
-        this.pendingTickListEntriesHashSet = new CubeSplitTickSet();
-        this.pendingTickListEntriesThisTick = new CubeSplitTickList();
+        this.scheduledTicks = new ScheduledTickStore();
+        this.thisTickScheduledTicks = new ScheduledTickStore();
+        this.pendingTickListEntriesHashSet = scheduledTicks.asSet();
+        this.pendingTickListEntriesTreeSet = scheduledTicks.asTreeSet();
+        this.pendingTickListEntriesThisTick = thisTickScheduledTicks.asList();
         this.worldChunkGc = new ChunkGc(getCubeCache());
     }
 
@@ -158,12 +165,12 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         return spawnArea;
     }
 
-    @Override public CubeSplitTickSet getScheduledTicks() {
-        return (CubeSplitTickSet) pendingTickListEntriesHashSet;
+    @Override public ScheduledTickStore getScheduledTicks() {
+        return scheduledTicks;
     }
 
-    @Override public CubeSplitTickList getThisTickScheduledTicks() {
-        return (CubeSplitTickList) pendingTickListEntriesThisTick;
+    @Override public ScheduledTickStore getThisTickScheduledTicks() {
+        return thisTickScheduledTicks;
     }
 
     @Override public void tickCubicWorld() {
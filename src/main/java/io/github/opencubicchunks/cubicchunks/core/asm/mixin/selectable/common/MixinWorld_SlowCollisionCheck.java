@@ -32,6 +32,13 @@ import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Overwrite;
 import org.spongepowered.asm.mixin.Shadow;
 
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMaxBlock;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
+
+import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubeProvider;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
@@ -41,6 +48,7 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.World;
 import net.minecraft.world.border.WorldBorder;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
 @Mixin(World.class)
 public abstract class MixinWorld_SlowCollisionCheck implements ICubicWorld {
@@ -59,6 +67,104 @@ public abstract class MixinWorld_SlowCollisionCheck implements ICubicWorld {
      **/
     @Overwrite(constraints = "MC_FORGE(23)")
     private boolean getCollisionBoxes(@Nullable Entity entity, AxisAlignedBB aabb, boolean flagArg, @Nullable List<AxisAlignedBB> aabbList) {
+        if (!this.isCubicWorld()) {
+            return getCollisionBoxesColumns(entity, aabb, flagArg, aabbList);
+        }
+        int minX = MathHelper.floor(aabb.minX) - 1;
+        int maxX = MathHelper.ceil(aabb.maxX) + 1;
+        int minY = MathHelper.floor(aabb.minY) - 1;
+        int maxY = MathHelper.ceil(aabb.maxY) + 1;
+        int minZ = MathHelper.floor(aabb.minZ) - 1;
+        int maxZ = MathHelper.ceil(aabb.maxZ) + 1;
+        WorldBorder worldborder = this.getWorldBorder();
+        boolean entityOutsideOfBorder = entity != null && entity.isOutsideBorder();
+        boolean entityInsideOfBorder = entity != null && this.isInsideWorldBorder(entity);
+        IBlockState iblockstate = Blocks.STONE.getDefaultState();
+        ICubeProvider cubeCache = this.getCubeCache();
+        BlockPos.PooledMutableBlockPos pos = BlockPos.PooledMutableBlockPos.retain();
+
+        // CubicChunks: resolve each cube once and skip cubes that are only air, instead of looking up every block
+        try {
+            for (int cubeX = blockToCube(minX); cubeX <= blockToCube(maxX - 1); cubeX++) {
+                for (int cubeZ = blockToCube(minZ); cubeZ <= blockToCube(maxZ - 1); cubeZ++) {
+                    for (int cubeY = blockToCube(minY); cubeY <= blockToCube(maxY - 1); cubeY++) {
+                        ICube cube = cubeCache.getLoadedCube(cubeX, cubeY, cubeZ);
+                        if (cube == null) {
+                            continue;
+                        }
+                        int x0 = Math.max(minX, cubeToMinBlock(cubeX));
+                        int x1 = Math.min(maxX - 1, cubeToMaxBlock(cubeX));
+                        int y0 = Math.max(minY, cubeToMinBlock(cubeY));
+                        int y1 = Math.min(maxY - 1, cubeToMaxBlock(cubeY));
+                        int z0 = Math.max(minZ, cubeToMinBlock(cubeZ));
+                        int z1 = Math.min(maxZ - 1, cubeToMaxBlock(cubeZ));
+                        if (x0 == x1 && z0 == z1 && (x0 == minX || x0 == maxX - 1) && (z0 == minZ || z0 == maxZ - 1)) {
+                            continue; // only the corners of the box are in this cube, and they are never checked
+                        }
+
+                        if (!flagArg && entity != null && entityOutsideOfBorder == entityInsideOfBorder) {
+                            entity.setOutsideBorder(!entityInsideOfBorder);
+                        }
+                        boolean outsideWorldLimit = x0 < -30000000 || x1 >= 30000000 || z0 < -30000000 || z1 >= 30000000;
+                        boolean stoneOutsideBorder = !flagArg && entityInsideOfBorder
+                                && !(worldborder.contains(pos.setPos(x0, y0, z0)) && worldborder.contains(pos.setPos(x1, y1, z1)));
+                        ExtendedBlockStorage storage = cube.getStorage();
+                        boolean empty = storage == null || storage.isEmpty();
+                        if (empty && !stoneOutsideBorder && !(flagArg && outsideWorldLimit)) {
+                            continue;
+                        }
+
+                        for (int x = x0; x <= x1; ++x) {
+                            boolean isXboundary = x == minX || x == maxX - 1;
+                            for (int z = z0; z <= z1; ++z) {
+                                boolean isZBoundary = z == minZ || z == maxZ - 1;
+                                if (isXboundary && isZBoundary) {
+                                    continue;
+                                }
+                                for (int y = y0; y <= y1; ++y) {
+                                    if ((isXboundary || isZBoundary) && y == maxY - 1) {
+                                        continue;
+                                    }
+                                    if (flagArg && (x < -30000000 || x >= 30000000 || z < -30000000 || z >= 30000000)) {
+                                        return true;
+                                    }
+
+                                    pos.setPos(x, y, z);
+                                    IBlockState iblockstate1;
+
+                                    if (stoneOutsideBorder && !worldborder.contains(pos)) {
+                                        iblockstate1 = iblockstate;
+                                    } else if (empty) {
+                                        continue;
+                                    } else {
+                                        iblockstate1 = storage.get(blockToLocal(x), blockToLocal(y), blockToLocal(z));
+                                        if (iblockstate1.getBlock() == Blocks.AIR) {
+                                            continue;
+                                        }
+                                    }
+
+                                    iblockstate1.addCollisionBoxToList((World) (Object) this, pos, aabb, aabbList, entity, false);
+
+                                    if (flagArg && !aabbList.isEmpty()) {
+                                        return true;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            pos.release();
+        }
+
+        net.minecraftforge.common.MinecraftForge.EVENT_BUS
+                .post(new net.minecraftforge.event.world.GetCollisionBoxesEvent((World) (Object) this, null, aabb, aabbList));
+        return !aabbList.isEmpty();
+    }
+
+    private boolean getCollisionBoxesColumns(@Nullable Entity entity, AxisAlignedBB aabb, boolean flagArg,
+            @Nullable List<AxisAlignedBB> aabbList) {
         int minX = MathHelper.floor(aabb.minX) - 1;
         int maxX = MathHelper.ceil(aabb.maxX) + 1;
         int minY = MathHelper.floor(aabb.minY) - 1;
@@ -101,8 +207,6 @@ public abstract class MixinWorld_SlowCollisionCheck implements ICubicWorld {
 
                                 iblockstate1
                                         .addCollisionBoxToList((World) (Object) this, pos, aabb, aabbList, entity, false);
-                                net.minecraftforge.common.MinecraftForge.EVENT_BUS
-                                        .post(new net.minecraftforge.event.world.GetCollisionBoxesEvent((World) (Object) this, null, aabb, aabbList));
 
                                 if (flagArg && !aabbList.isEmpty()) {
                                     return true;
@@ -116,6 +220,8 @@ public abstract class MixinWorld_SlowCollisionCheck implements ICubicWorld {
             pos.release();
         }
 
+        net.minecraftforge.common.MinecraftForge.EVENT_BUS
+                .post(new net.minecraftforge.event.world.GetCollisionBoxesEvent((World) (Object) this, null, aabb, aabbList));
         return !aabbList.isEmpty();
     }
 }
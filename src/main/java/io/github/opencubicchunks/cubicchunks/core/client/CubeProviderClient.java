@@ -34,6 +34,8 @@ import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.CubeTickBudget;
+import io.github.opencubicchunks.cubicchunks.core.util.RecentCubeCache;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.client.multiplayer.ChunkProviderClient;
 import net.minecraft.util.math.ChunkPos;
@@ -51,9 +53,14 @@ import static net.minecraftforge.common.MinecraftForge.EVENT_BUS;
 @ParametersAreNonnullByDefault
 public class CubeProviderClient extends ChunkProviderClient implements ICubeProviderInternal {
 
+    private static final int CLIENT_CUBE_UPDATE_BUDGET_MICROS = 5 * 1000;
+
     @Nonnull private ICubicWorldInternal.Client world;
     @Nonnull private Cube blankCube;
     @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    // most block accesses are in the same cube as the one before, avoid the hash map lookup for them
+    @Nonnull private final RecentCubeCache<Cube> recentCubes = new RecentCubeCache<>();
+    @Nonnull private final CubeTickBudget cubeTickBudget = new CubeTickBudget();
 
     public CubeProviderClient(ICubicWorldInternal.Client world) {
         super((World) world);
@@ -97,9 +104,11 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
     @Override
     public boolean tick() {
         long i = System.currentTimeMillis();
+        cubeTickBudget.startTick(CLIENT_CUBE_UPDATE_BUDGET_MICROS);
         for (Cube cube : cubeMap) {
-            cube.tickCubeCommon(() -> System.currentTimeMillis() - i > 5L);
+            cube.tickCubeCommon(cubeTickBudget);
         }
+        cubeTickBudget.endTick();
 
         if (System.currentTimeMillis() - i > 100L) {
             CubicChunks.LOGGER.info("Warning: Clientside chunk ticking took {} ms", System.currentTimeMillis() - i);
@@ -150,6 +159,7 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
             return;
         }
         cube.onUnload();
+        recentCubes.remove(cube);
         cubeMap.remove(pos.getX(), pos.getY(), pos.getZ());
         cube.getColumn().removeCube(pos.getY());
     }
@@ -170,7 +180,14 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
 
     @Nullable @Override
     public Cube getLoadedCube(int cubeX, int cubeY, int cubeZ) {
-        return cubeMap.get(cubeX, cubeY, cubeZ);
+        Cube cube = recentCubes.get(cubeX, cubeY, cubeZ);
+        if (cube == null) {
+            cube = cubeMap.get(cubeX, cubeY, cubeZ);
+            if (cube != null) {
+                recentCubes.put(cube);
+            }
+        }
+        return cube;
     }
 
     @Nullable @Override
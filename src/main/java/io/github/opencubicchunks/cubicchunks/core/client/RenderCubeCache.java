@@ -28,6 +28,7 @@ import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal
 
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
@@ -40,6 +41,7 @@ import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
+import java.util.Collections;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
@@ -50,9 +52,16 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class RenderCubeCache extends ChunkCache {
 
+    /**
+     * Stands in for empty and unloaded cubes. It is never written to, so all render caches can share it.
+     */
+    private static final ExtendedBlockStorage EMPTY_STORAGE = new ExtendedBlockStorage(0, true);
+
     protected int cubeY;
-    @Nonnull private final ExtendedBlockStorage[][][] cubeArrays;
-    @Nonnull private final Map<BlockPos, TileEntity>[][][] tileEntities;
+    private final int sizeX, sizeY, sizeZ;
+    // flattened x, y, z arrays, one allocation each instead of one per x and per x, y
+    @Nonnull private final ExtendedBlockStorage[] cubeArrays;
+    @Nonnull private final Map<BlockPos, TileEntity>[] tileEntities;
 
     @Nonnull private final World world;
 
@@ -64,35 +73,47 @@ public class RenderCubeCache extends ChunkCache {
         int cubeYEnd = Coords.blockToCube(to.getY() + subtract);
         int cubeZEnd = Coords.blockToCube(to.getZ() + subtract);
 
-        cubeArrays = new ExtendedBlockStorage[cubeXEnd - this.chunkX + 1][cubeYEnd - this.cubeY + 1][cubeZEnd - this.chunkZ + 1];
+        this.sizeX = cubeXEnd - this.chunkX + 1;
+        this.sizeY = cubeYEnd - this.cubeY + 1;
+        this.sizeZ = cubeZEnd - this.chunkZ + 1;
+        cubeArrays = new ExtendedBlockStorage[sizeX * sizeY * sizeZ];
         // because java is stupid and won't allow generic array creation, and temporary local variable because it won't allow annotation on assignment
         @SuppressWarnings("unchecked")
-        Map<BlockPos, TileEntity>[][][] tileEntities = new Map[cubeXEnd - this.chunkX + 1][cubeYEnd - this.cubeY + 1][cubeZEnd - this.chunkZ + 1];
+        Map<BlockPos, TileEntity>[] tileEntities = new Map[sizeX * sizeY * sizeZ];
         this.tileEntities = tileEntities;
 
-        ExtendedBlockStorage nullStorage = new ExtendedBlockStorage(0, true);
-
+        ICubeProviderInternal cubeCache = ((ICubicWorldInternal) world).getCubeCache();
+        int i = 0;
         for (int currentCubeX = chunkX; currentCubeX <= cubeXEnd; currentCubeX++) {
             for (int currentCubeY = cubeY; currentCubeY <= cubeYEnd; currentCubeY++) {
                 for (int currentCubeZ = chunkZ; currentCubeZ <= cubeZEnd; currentCubeZ++) {
-                    ExtendedBlockStorage ebs;
-                    Map<BlockPos, TileEntity> teMap;
-
-                    Cube cube = ((ICubicWorldInternal) world).getCubeFromCubeCoords(currentCubeX, currentCubeY, currentCubeZ);
-                    ebs = cube.getStorage();
-
-                    teMap = cube.getTileEntityMap();
+                    // look up loaded cubes directly, a missing cube renders the same as the blank cube getCube would return
+                    Cube cube = cubeCache.getLoadedCube(currentCubeX, currentCubeY, currentCubeZ);
+                    ExtendedBlockStorage ebs = cube == null ? null : cube.getStorage();
 
-                    if (ebs == null) {
-                        ebs = nullStorage;
-                    }
-                    cubeArrays[currentCubeX - chunkX][currentCubeY - cubeY][currentCubeZ - chunkZ] = ebs;
-                    tileEntities[currentCubeX - chunkX][currentCubeY - cubeY][currentCubeZ - chunkZ] = teMap;
+                    cubeArrays[i] = ebs == null ? EMPTY_STORAGE : ebs;
+                    tileEntities[i] = cube == null ? Collections.emptyMap() : cube.getTileEntityMap();
+                    i++;
                 }
             }
         }
     }
 
+    /**
+     * Returns the index of the cube containing the given position in the cube arrays, or -1 if it isn't in this cache.
+     */
+    private int getArrayIndex(BlockPos pos) {
+        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
+        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
+        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
+        if (arrayX < 0 || arrayX >= this.sizeX ||
+                arrayY < 0 || arrayY >= this.sizeY ||
+                arrayZ < 0 || arrayZ >= this.sizeZ) {
+            return -1;
+        }
+        return (arrayX * this.sizeY + arrayY) * this.sizeZ + arrayZ;
+    }
+
     @Override
     public int getCombinedLight(BlockPos pos, int lightValue) {
         int blockLight = this.getLightForExt(EnumSkyBlock.SKY, pos);
@@ -107,15 +128,11 @@ public class RenderCubeCache extends ChunkCache {
 
     @Override
     @Nullable public TileEntity getTileEntity(BlockPos pos) {
-        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
-        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
-        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
-        if (arrayX < 0 || arrayX >= this.cubeArrays.length ||
-                arrayY < 0 || arrayY >= this.cubeArrays[arrayX].length ||
-                arrayZ < 0 || arrayZ >= this.cubeArrays[arrayX][arrayY].length) {
+        int index = getArrayIndex(pos);
+        if (index < 0) {
             return null;
         }
-        return this.tileEntities[arrayX][arrayY][arrayZ].get(pos);
+        return this.tileEntities[index].get(pos);
     }
 
     @Override
@@ -123,16 +140,11 @@ public class RenderCubeCache extends ChunkCache {
         if (world.isOutsideBuildHeight(pos)) {
             return Blocks.AIR.getDefaultState();
         }
-        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
-        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
-        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
-
-        if (arrayX < 0 || arrayX >= this.cubeArrays.length ||
-                arrayY < 0 || arrayY >= this.cubeArrays[arrayX].length ||
-                arrayZ < 0 || arrayZ >= this.cubeArrays[arrayX][arrayY].length) {
+        int index = getArrayIndex(pos);
+        if (index < 0) {
             return Blocks.AIR.getDefaultState();
         }
-        return this.cubeArrays[arrayX][arrayY][arrayZ].get(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()));
+        return this.cubeArrays[index].get(blockToLocal(pos.getX()), blockToLocal(pos.getY()), blockToLocal(pos.getZ()));
     }
 
     private int getLightForExt(EnumSkyBlock type, BlockPos pos) {
@@ -156,15 +168,11 @@ public class RenderCubeCache extends ChunkCache {
             }
             return max;
         }
-        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
-        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
-        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
-        if (arrayX < 0 || arrayX >= this.cubeArrays.length ||
-                arrayY < 0 || arrayY >= this.cubeArrays[arrayX].length ||
-                arrayZ < 0 || arrayZ >= this.cubeArrays[arrayX][arrayY].length) {
+        int index = getArrayIndex(pos);
+        if (index < 0) {
             return type.defaultLightValue;
         }
-        ExtendedBlockStorage cube = this.cubeArrays[arrayX][arrayY][arrayZ];
+        ExtendedBlockStorage cube = this.cubeArrays[index];
         return getRawLight(cube, type, pos);
     }
 
@@ -173,15 +181,11 @@ public class RenderCubeCache extends ChunkCache {
         if (world.isOutsideBuildHeight(pos)) {
             return type.defaultLightValue;
         }
-        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
-        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
-        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
-        if (arrayX < 0 || arrayX >= this.cubeArrays.length ||
-                arrayY < 0 || arrayY >= this.cubeArrays[arrayX].length ||
-                arrayZ < 0 || arrayZ >= this.cubeArrays[arrayX][arrayY].length) {
+        int index = getArrayIndex(pos);
+        if (index < 0) {
             return type.defaultLightValue;
         }
-        ExtendedBlockStorage cube = this.cubeArrays[arrayX][arrayY][arrayZ];
+        ExtendedBlockStorage cube = this.cubeArrays[index];
         return getRawLight(cube, type, pos);
     }
 
@@ -199,12 +203,8 @@ public class RenderCubeCache extends ChunkCache {
         if (world.isOutsideBuildHeight(pos)) {
             return defaultValue;
         }
-        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
-        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
-        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
-        if (arrayX < 0 || arrayX >= this.cubeArrays.length ||
-                arrayY < 0 || arrayY >= this.cubeArrays[arrayX].length ||
-                arrayZ < 0 || arrayZ >= this.cubeArrays[arrayX][arrayY].length) {
+        int index = getArrayIndex(pos);
+        if (index < 0) {
             return defaultValue;
         }
         IBlockState state = getBlockState(pos);
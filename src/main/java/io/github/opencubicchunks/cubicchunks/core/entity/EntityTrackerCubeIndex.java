@@ -0,0 +1,106 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.entity;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityTrackerEntry;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Index of the entity tracker entries by the cube their entity is in, so that sending a cube to a player only has to look
+ * at the entities in that cube instead of every tracked entity in the world.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class EntityTrackerCubeIndex {
+
+    private final Map<CubePos, Set<EntityTrackerEntry>> entriesByCube = new HashMap<>();
+    // the cube each entry is indexed in, the entity's coordinates have already changed by the time it has to be moved
+    private final Map<EntityTrackerEntry, CubePos> cubeByEntry = new IdentityHashMap<>();
+
+    /**
+     * Adds the entry to the cube its entity is in, or moves it there if it's already indexed.
+     *
+     * @param entry the tracker entry
+     */
+    public void update(EntityTrackerEntry entry) {
+        Entity entity = entry.getTrackedEntity();
+        CubePos oldPos = cubeByEntry.get(entry);
+        if (oldPos != null) {
+            if (oldPos.getX() == entity.chunkCoordX && oldPos.getY() == entity.chunkCoordY && oldPos.getZ() == entity.chunkCoordZ) {
+                return;
+            }
+            removeFromCube(oldPos, entry);
+        }
+        CubePos newPos = new CubePos(entity.chunkCoordX, entity.chunkCoordY, entity.chunkCoordZ);
+        cubeByEntry.put(entry, newPos);
+        entriesByCube.computeIfAbsent(newPos, pos -> new ObjectOpenHashSet<>()).add(entry);
+    }
+
+    /**
+     * Removes the entry from the index.
+     *
+     * @param entry the tracker entry
+     */
+    public void remove(EntityTrackerEntry entry) {
+        CubePos oldPos = cubeByEntry.remove(entry);
+        if (oldPos != null) {
+            removeFromCube(oldPos, entry);
+        }
+    }
+
+    private void removeFromCube(CubePos pos, EntityTrackerEntry entry) {
+        Set<EntityTrackerEntry> entries = entriesByCube.get(pos);
+        entries.remove(entry);
+        if (entries.isEmpty()) {
+            entriesByCube.remove(pos);
+        }
+    }
+
+    /**
+     * Returns the entries of the entities in the given cube. The returned collection must not be modified, and is only
+     * valid until the index changes.
+     *
+     * @param cubeX cube x coordinate
+     * @param cubeY cube y coordinate
+     * @param cubeZ cube z coordinate
+     * @return the tracker entries of entities in the cube
+     */
+    public Collection<EntityTrackerEntry> getEntries(int cubeX, int cubeY, int cubeZ) {
+        Set<EntityTrackerEntry> entries = entriesByCube.get(new CubePos(cubeX, cubeY, cubeZ));
+        return entries == null ? Collections.emptySet() : entries;
+    }
+}
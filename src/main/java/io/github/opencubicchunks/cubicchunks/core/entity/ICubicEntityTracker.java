@@ -25,6 +25,7 @@
 package io.github.opencubicchunks.cubicchunks.core.entity;
 
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.EntityPlayerMP;
 
 public interface ICubicEntityTracker {
@@ -32,6 +33,14 @@ public interface ICubicEntityTracker {
 
     void setVertViewDistance(int viewDistance);
 
+    /**
+     * Called after an entity has been added to a cube, to move its tracker entry to that cube in the index
+     * sendLeashedEntitiesInCube uses.
+     *
+     * @param entity the entity
+     */
+    void onEntityCubeChanged(Entity entity);
+
     interface Entry {
 
         void setMaxVertRange(int maxVertTrackingDistanceThreshold);
@@ -31,6 +31,7 @@ import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlo
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.getCubeCenter;
 
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.core.util.FastCubeBlockAccess;
@@ -38,11 +39,14 @@ import io.github.opencubicchunks.cubicchunks.api.util.MathUtil;
 import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
-import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenCustomHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntHash;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
@@ -54,8 +58,15 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -84,6 +95,20 @@ public class FirstLightProcessor {
 
     private static final int UPDATE_RADIUS = LIGHT_UPDATE_RADIUS + CUBE_RADIUS + UPDATE_BUFFER_RADIUS;
 
+    /**
+     * Radius in cubes of the area read and written when diffusing skylight in a cube
+     */
+    private static final int BLOCK_ACCESS_RADIUS = 2;
+
+    /**
+     * Minimum horizontal distance in cubes between cubes that can have their skylight diffused at the same time
+     */
+    private static final int INDEPENDENT_CUBE_DISTANCE = BLOCK_ACCESS_RADIUS * 2 + 1;
+
+    private static final ThreadLocal<LightPropagator> WORKER_PROPAGATOR = ThreadLocal.withInitial(LightPropagator::new);
+    private static final AtomicInteger workerThreadCounter = new AtomicInteger();
+    @Nullable private static ExecutorService executor;
+
     private static final IntHash.Strategy CUBE_Y_HASH = new IntHash.Strategy() {
 
         @Override
@@ -167,8 +192,88 @@ public class FirstLightProcessor {
             cube.setInitialLightingDone(true);
             return;
         }
-        ICubicWorldInternal world = cube.getWorld();
+        LightingManager lightingManager = cube.getWorld().getLightingManager();
+        diffuseSkylight(cube, this.propagator, this.mutablePos, tracker::onUpdate, lightingManager::markCubeBlockColumnForUpdate);
+        tracker.sendAll();
+        cube.setInitialLightingDone(true);
+    }
 
+    /**
+     * Diffuses skylight in all of the given cubes.
+     * <p>
+     * If {@link CubicChunksConfig#firstLightThreads} is positive, cubes far enough apart for their updates not to touch the same
+     * cubes are processed in parallel while the calling thread waits. Light values are written directly into the cubes, everything
+     * else that touches shared state (sending updates to players, queueing updates of cubes that can't be updated yet) is recorded
+     * and applied on the calling thread.
+     *
+     * @param cubes the cubes whose skylight is to be initialized
+     */
+    public void diffuseSkylight(Collection<Cube> cubes) {
+        if (LightingManager.NO_SUNLIGHT_PROPAGATION) {
+            return;
+        }
+        if (CubicChunksConfig.firstLightThreads <= 0 || cubes.size() < 2) {
+            cubes.forEach(this::diffuseSkylight);
+            return;
+        }
+        List<Cube> remaining = new ArrayList<>(cubes.size());
+        for (Cube cube : cubes) {
+            if (!cube.getWorld().provider.hasSkyLight()) {
+                cube.setInitialLightingDone(true);
+            } else {
+                remaining.add(cube);
+            }
+        }
+        ExecutorService executor = getExecutor();
+        while (!remaining.isEmpty()) {
+            List<Cube> independent = removeIndependentCubes(remaining);
+            if (independent.size() == 1) {
+                diffuseSkylight(independent.get(0));
+                continue;
+            }
+            List<CompletableFuture<DeferredUpdates>> futures = new ArrayList<>(independent.size());
+            for (Cube cube : independent) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    DeferredUpdates updates = new DeferredUpdates();
+                    diffuseSkylight(cube, WORKER_PROPAGATOR.get(), new MutableBlockPos(), updates::onLightUpdate, updates::markCubeBlockColumnForUpdate);
+                    return updates;
+                }, executor));
+            }
+            for (int i = 0; i < independent.size(); i++) {
+                Cube cube = independent.get(i);
+                futures.get(i).join().apply(cube.getWorld().getLightingManager(), tracker);
+                cube.setInitialLightingDone(true);
+            }
+        }
+        tracker.sendAll();
+    }
+
+    /**
+     * Removes and returns cubes from the list that are far enough apart from each other to be updated at the same time
+     */
+    private static List<Cube> removeIndependentCubes(List<Cube> cubes) {
+        List<Cube> independent = new ArrayList<>();
+        Iterator<Cube> it = cubes.iterator();
+        while (it.hasNext()) {
+            Cube cube = it.next();
+            boolean canAdd = true;
+            for (Cube other : independent) {
+                int distance = Math.max(Math.abs(cube.getX() - other.getX()), Math.abs(cube.getZ() - other.getZ()));
+                if (distance < INDEPENDENT_CUBE_DISTANCE) {
+                    canAdd = false;
+                    break;
+                }
+            }
+            if (canAdd) {
+                independent.add(cube);
+                it.remove();
+            }
+        }
+        return independent;
+    }
+
+    private void diffuseSkylight(Cube cube, LightPropagator propagator, MutableBlockPos mutablePos, Consumer<BlockPos> onLightUpdate,
+            ColumnUpdateMarker columnUpdates) {
         // Cache min/max Y, generating them may be expensive
         int[][] minBlockYArr = new int[Cube.SIZE][Cube.SIZE];
         int[][] maxBlockYArr = new int[Cube.SIZE][Cube.SIZE];
@@ -226,10 +331,10 @@ public class FirstLightProcessor {
                         continue;
                     }
 
-                    this.mutablePos.setPos(blockX, this.mutablePos.getY(), blockZ);
+                    mutablePos.setPos(blockX, mutablePos.getY(), blockZ);
                     int topBlockY = getOcclusionHeight(column, blockToLocal(blockX), blockToLocal(blockZ));
 
-                    if (otherCube != cube && canStopUpdating(cube, this.mutablePos, topBlockY)) {
+                    if (otherCube != cube && canStopUpdating(cube, mutablePos, topBlockY)) {
                         // mark this column so min > max
                         minBlockYArr[blockX - minBlockX][blockZ - minBlockZ] = 1;
                         maxBlockYArr[blockX - minBlockX][blockZ - minBlockZ] = 0;
@@ -239,26 +344,25 @@ public class FirstLightProcessor {
                     // Skip this cube if an update is not possible.
                     if (!canUpdateCube(otherCube)) {
                         // Queue the update to be processed once the cube is ready for it.
-                        world.getLightingManager().markCubeBlockColumnForUpdate(otherCube, this.mutablePos.getX(), this.mutablePos.getZ());
+                        columnUpdates.markCubeBlockColumnForUpdate(otherCube, mutablePos.getX(), mutablePos.getZ());
                         continue;
                     }
 
                     // Update the block column in this cube.
-                    if (!diffuseSkylightInBlockColumn(otherCube, this.mutablePos, minBlockY, maxBlockY, blockAccessMap, toUpdate)) {
-                        throw new IllegalStateException("Check light failed at " + this.mutablePos + "!");
+                    if (!diffuseSkylightInBlockColumn(otherCube, mutablePos, minBlockY, maxBlockY, blockAccessMap, toUpdate)) {
+                        throw new IllegalStateException("Check light failed at " + mutablePos + "!");
                     }
                 }
             }
             if (!toUpdate.isEmpty()) {
                 propagator.propagateLight(otherCube.getCoords().getCenterBlockPos(), toUpdate,
-                        blockAccessMap.get(otherCube.getY()), EnumSkyBlock.SKY, tracker::onUpdate);
+                        blockAccessMap.get(otherCube.getY()), EnumSkyBlock.SKY, onLightUpdate);
                 toUpdate.clear();
             }
         }
-        tracker.sendAll();
-        cube.setInitialLightingDone(true);
     }
 
+
     /**
      * Diffuses skylight inside of the given cube in the block column specified by the given MutableBlockPos. The
      * update is limited vertically by minBlockY and maxBlockY.
@@ -281,7 +385,7 @@ public class FirstLightProcessor {
         FastCubeBlockAccess blockAccess = blockAccessMap.get(cube.getY());
         if (blockAccess == null) {
             // this value will be reused later for LightPropagator, so use radius 2
-            blockAccess = new FastCubeBlockAccess(this.cache, cube, 2);
+            blockAccess = new FastCubeBlockAccess(this.cache, cube, BLOCK_ACCESS_RADIUS);
             blockAccessMap.put(cube.getY(), blockAccess);
         }
 
@@ -445,4 +549,50 @@ public class FirstLightProcessor {
         //noinspection SuspiciousNameCombination
         return new ImmutablePair<>(heightBelowCube, heightMax);
     }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(CubicChunksConfig.firstLightThreads, r -> {
+                Thread thread = new Thread(r, "Cube First Light Thread #" + workerThreadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    private interface ColumnUpdateMarker {
+
+        void markCubeBlockColumnForUpdate(ICube cube, int blockX, int blockZ);
+    }
+
+    /**
+     * Changes done by a diffuse skylight update on a worker thread that need to be applied on the server thread
+     */
+    private static class DeferredUpdates {
+
+        private final LongList lightUpdates = new LongArrayList();
+        private final List<ICube> columnUpdateCubes = new ArrayList<>();
+        private final IntList columnUpdateCoords = new IntArrayList();
+
+        void onLightUpdate(BlockPos pos) {
+            lightUpdates.add(pos.toLong());
+        }
+
+        void markCubeBlockColumnForUpdate(ICube cube, int blockX, int blockZ) {
+            columnUpdateCubes.add(cube);
+            columnUpdateCoords.add(blockX);
+            columnUpdateCoords.add(blockZ);
+        }
+
+        void apply(LightingManager lightingManager, LightUpdateTracker tracker) {
+            for (int i = 0; i < columnUpdateCubes.size(); i++) {
+                lightingManager.markCubeBlockColumnForUpdate(columnUpdateCubes.get(i), columnUpdateCoords.getInt(i * 2),
+                        columnUpdateCoords.getInt(i * 2 + 1));
+            }
+            for (int i = 0; i < lightUpdates.size(); i++) {
+                tracker.onUpdate(BlockPos.fromLong(lightUpdates.getLong(i)));
+            }
+        }
+    }
 }
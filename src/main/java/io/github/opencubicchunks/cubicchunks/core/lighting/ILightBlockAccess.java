@@ -31,21 +31,64 @@ import net.minecraft.world.EnumSkyBlock;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * Block and light access used by {@link LightPropagator}. All methods take plain int block coordinates so that light
+ * propagation doesn't need to allocate a BlockPos for each visited block. The BlockPos overloads are for convenience.
+ */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public interface ILightBlockAccess {
 
-    int getBlockLightOpacity(BlockPos pos);
+    /**
+     * x, y and z offsets of all neighbors, in {@link EnumFacing#VALUES} order
+     */
+    int[] NEIGHBOR_X = {0, 0, 0, 0, -1, 1};
+    int[] NEIGHBOR_Y = {-1, 1, 0, 0, 0, 0};
+    int[] NEIGHBOR_Z = {0, 0, -1, 1, 0, 0};
+
+    int getBlockLightOpacity(int blockX, int blockY, int blockZ);
 
-    int getLightFor(EnumSkyBlock lightType, BlockPos pos);
+    int getLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ);
 
     /**
      * @param lightType type pf light
-     * @param pos block position
+     * @param blockX block x position
+     * @param blockY block y position
+     * @param blockZ block z position
      * @param val light value to set (0-15 range_
      * @return success (if cube is loaded)
      */
-    boolean setLightFor(EnumSkyBlock lightType, BlockPos pos, int val);
+    boolean setLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ, int val);
+
+    boolean canSeeSky(int blockX, int blockY, int blockZ);
+
+    int getEmittedLight(int blockX, int blockY, int blockZ, EnumSkyBlock type);
+
+    void markEdgeNeedLightUpdate(int blockX, int blockY, int blockZ, EnumSkyBlock type);
+
+    default int getBlockLightOpacity(BlockPos pos) {
+        return getBlockLightOpacity(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    default int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
+        return getLightFor(lightType, pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    default boolean setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
+        return setLightFor(lightType, pos.getX(), pos.getY(), pos.getZ(), val);
+    }
+
+    default boolean canSeeSky(BlockPos pos) {
+        return canSeeSky(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    default int getEmittedLight(BlockPos pos, EnumSkyBlock type) {
+        return getEmittedLight(pos.getX(), pos.getY(), pos.getZ(), type);
+    }
+
+    default void markEdgeNeedLightUpdate(BlockPos pos, EnumSkyBlock type) {
+        markEdgeNeedLightUpdate(pos.getX(), pos.getY(), pos.getZ(), type);
+    }
 
     /**
      * Faster version of world.getRawLight that works for skylight
@@ -54,10 +97,13 @@ public interface ILightBlockAccess {
      * @return computed light value
      */
     default int computeLightValue(BlockPos pos) {
-        if (canSeeSky(pos)) {
+        int blockX = pos.getX();
+        int blockY = pos.getY();
+        int blockZ = pos.getZ();
+        if (canSeeSky(blockX, blockY, blockZ)) {
             return 15;
         }
-        int lightSubtract = getBlockLightOpacity(pos);
+        int lightSubtract = getBlockLightOpacity(blockX, blockY, blockZ);
 
         if (lightSubtract < 1) {
             lightSubtract = 1;
@@ -66,11 +112,10 @@ public interface ILightBlockAccess {
         if (lightSubtract >= 15) {
             return 0;
         }
-        BlockPos.PooledMutableBlockPos currentPos = BlockPos.PooledMutableBlockPos.retain();
         int maxValue = 0;
-        for (EnumFacing enumfacing : EnumFacing.VALUES) {
-            currentPos.setPos(pos).move(enumfacing);
-            int currentValue = this.getLightFor(EnumSkyBlock.SKY, currentPos) - lightSubtract;
+        for (int i = 0; i < 6; i++) {
+            int currentValue = this.getLightFor(EnumSkyBlock.SKY,
+                    blockX + NEIGHBOR_X[i], blockY + NEIGHBOR_Y[i], blockZ + NEIGHBOR_Z[i]) - lightSubtract;
 
             if (currentValue > maxValue) {
                 maxValue = currentValue;
@@ -80,27 +125,22 @@ public interface ILightBlockAccess {
                 return maxValue;
             }
         }
-
-        currentPos.release();
         return maxValue;
     }
 
-    boolean canSeeSky(BlockPos pos);
-
-    int getEmittedLight(BlockPos pos, EnumSkyBlock type);
-
-    default int getLightFromNeighbors(EnumSkyBlock type, BlockPos pos) {
-        //TODO: use MutableBlockPos?
+    default int getLightFromNeighbors(EnumSkyBlock type, int blockX, int blockY, int blockZ) {
         int max = 0;
-        for (EnumFacing direction : EnumFacing.VALUES) {
-            int light = getLightFor(type, pos.offset(direction));
+        for (int i = 0; i < 6; i++) {
+            int light = getLightFor(type, blockX + NEIGHBOR_X[i], blockY + NEIGHBOR_Y[i], blockZ + NEIGHBOR_Z[i]);
             if (light > max) {
                 max = light;
             }
         }
-        int decrease = Math.max(1, getBlockLightOpacity(pos));
+        int decrease = Math.max(1, getBlockLightOpacity(blockX, blockY, blockZ));
         return Math.max(0, max - decrease);
     }
 
-    void markEdgeNeedLightUpdate(BlockPos offset, EnumSkyBlock type);
+    default int getLightFromNeighbors(EnumSkyBlock type, BlockPos pos) {
+        return getLightFromNeighbors(type, pos.getX(), pos.getY(), pos.getZ());
+    }
 }
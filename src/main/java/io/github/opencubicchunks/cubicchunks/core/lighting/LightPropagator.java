@@ -24,6 +24,9 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.lighting;
 
+import static io.github.opencubicchunks.cubicchunks.core.lighting.ILightBlockAccess.NEIGHBOR_X;
+import static io.github.opencubicchunks.cubicchunks.core.lighting.ILightBlockAccess.NEIGHBOR_Y;
+import static io.github.opencubicchunks.cubicchunks.core.lighting.ILightBlockAccess.NEIGHBOR_Z;
 import static io.github.opencubicchunks.cubicchunks.core.lighting.LightUpdateQueue.MAX_DISTANCE;
 import static io.github.opencubicchunks.cubicchunks.core.lighting.LightUpdateQueue.MIN_DISTANCE;
 import static net.minecraft.crash.CrashReportCategory.getCoordinateInfo;
@@ -31,7 +34,6 @@ import static net.minecraft.crash.CrashReportCategory.getCoordinateInfo;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.crash.CrashReport;
 import net.minecraft.crash.CrashReportCategory;
-import net.minecraft.util.EnumFacing;
 import net.minecraft.util.ReportedException;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.EnumSkyBlock;
@@ -49,6 +51,7 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class LightPropagator {
 
     @Nonnull private LightUpdateQueue internalRelightQueue = new LightUpdateQueue();
+    @Nonnull private final BlockPos.MutableBlockPos callbackPos = new BlockPos.MutableBlockPos();
 
     /**
      * Updates light at all BlockPos in given iterable.
@@ -71,7 +74,8 @@ public class LightPropagator {
      * @param coords contains all coords that need updating
      * @param blocks block access object. Must contain all blocks within radius of 17 blocks from all coords
      * @param type light type to update
-     * @param setLightCallback this will be called for each position where light value is changed
+     * @param setLightCallback this will be called for each position where light value is changed. The position passed to it
+     * is reused for the next call, use {@link BlockPos#toImmutable()} if it needs to be stored.
      */
      public void propagateLight(BlockPos centerPos, Iterable<BlockPos> coords, ILightBlockAccess blocks, EnumSkyBlock type,
             Consumer<BlockPos> setLightCallback) {
@@ -91,12 +95,14 @@ public class LightPropagator {
             // follow decreasing light values until it stops decreasing,
             // setting each encountered value to 0 for easy spreading
             while (internalRelightQueue.next()) {
-                BlockPos pos = internalRelightQueue.getPos();
+                int x = internalRelightQueue.getX();
+                int y = internalRelightQueue.getY();
+                int z = internalRelightQueue.getZ();
                 int distance = internalRelightQueue.getDistance();
 
-                int currentValue = blocks.getLightFor(type, pos);
+                int currentValue = blocks.getLightFor(type, x, y, z);
                 // note: min value is 0
-                int lightFromNeighbors = getExpectedLight(blocks, type, pos);
+                int lightFromNeighbors = getExpectedLight(blocks, type, x, y, z);
                 // if this is true, this blocks currently spreads light out, and has no light coming in from neighbors
                 // lightFromNeighbors == currentValue-1 means that some neighbor has the same light value, or that
                 // currentValue == 1 and all surrounding blocks have light 0
@@ -105,11 +111,11 @@ public class LightPropagator {
                 // this would mean that the current block is in the light area from other block, no need to update that
                 if (lightFromNeighbors <= currentValue - 1) {
                     // set it to 0 and add neighbors to the queue
-                    if (!blocks.setLightFor(type, pos, 0)) {
-                        this.markNeighborEdgeNeedLightUpdate(pos, blocks, type);
+                    if (!blocks.setLightFor(type, x, y, z, 0)) {
+                        this.markNeighborEdgeNeedLightUpdate(x, y, z, blocks, type);
                         continue;
                     }
-                    setLightCallback.accept(pos);
+                    setLightCallback.accept(callbackPos.setPos(x, y, z));
                     // if no distance left - stop spreading, so that it won't run into problems when updating too much
                     if (distance <= LightUpdateQueue.MIN_DISTANCE) {
                         continue;
@@ -117,10 +123,12 @@ public class LightPropagator {
                     // add all neighbors even those already checked - the check above will fail for them
                     // because currentValue-1 == -1 (already checked are set to 0)
                     // and min. possible lightFromNeighbors is 0
-                    for (EnumFacing direction : EnumFacing.values()) {
-                        BlockPos offset = pos.offset(direction);
+                    for (int i = 0; i < 6; i++) {
+                        int nx = x + NEIGHBOR_X[i];
+                        int ny = y + NEIGHBOR_Y[i];
+                        int nz = z + NEIGHBOR_Z[i];
                         //add the emitted value even if it's not used here - it will be used when relighting that area
-                        internalRelightQueue.put(offset, blocks.getEmittedLight(offset, type), distance - 1);
+                        internalRelightQueue.put(nx, ny, nz, blocks.getEmittedLight(nx, ny, nz, type), distance - 1);
                     }
                 }
             }
@@ -140,27 +148,31 @@ public class LightPropagator {
                     if (blocks.setLightFor(type, pos, emitted)) {
                         setLightCallback.accept(pos);
                     } else {
-                        this.markNeighborEdgeNeedLightUpdate(pos, blocks, type);
+                        this.markNeighborEdgeNeedLightUpdate(pos.getX(), pos.getY(), pos.getZ(), blocks, type);
                     }
                 }
             });
             // spread out light values
             while (internalRelightQueue.next()) {
-                BlockPos pos = internalRelightQueue.getPos();
+                int x = internalRelightQueue.getX();
+                int y = internalRelightQueue.getY();
+                int z = internalRelightQueue.getZ();
                 int distance = internalRelightQueue.isBeforeReset() ? LightUpdateQueue.MAX_DISTANCE : internalRelightQueue.getDistance();
 
-                for (EnumFacing direction : EnumFacing.values()) {
-                    BlockPos nextPos = pos.offset(direction);
-                    int newLight = getExpectedLight(blocks, type, nextPos);
-                    if (newLight <= blocks.getLightFor(type, nextPos)) {
+                for (int i = 0; i < 6; i++) {
+                    int nx = x + NEIGHBOR_X[i];
+                    int ny = y + NEIGHBOR_Y[i];
+                    int nz = z + NEIGHBOR_Z[i];
+                    int newLight = getExpectedLight(blocks, type, nx, ny, nz);
+                    if (newLight <= blocks.getLightFor(type, nx, ny, nz)) {
                         // can't go further, the next block already has the same or higher light value
                         continue;
                     }
-                    if (blocks.setLightFor(type, nextPos, newLight)) {
-                        setLightCallback.accept(nextPos);
+                    if (blocks.setLightFor(type, nx, ny, nz, newLight)) {
+                        setLightCallback.accept(callbackPos.setPos(nx, ny, nz));
                     } else {
                         // If cube is not loaded we will notify neighbors so cube will update light when it loads.
-                        blocks.markEdgeNeedLightUpdate(pos, type);
+                        blocks.markEdgeNeedLightUpdate(x, y, z, type);
                         continue;
                     }
 
@@ -168,7 +180,7 @@ public class LightPropagator {
                     if (distance - 1 <= LightUpdateQueue.MIN_DISTANCE) {
                         continue;
                     }
-                    internalRelightQueue.put(nextPos, newLight, distance - 1);
+                    internalRelightQueue.put(nx, ny, nz, newLight, distance - 1);
                 }
             }
         } catch (Throwable t) {
@@ -186,15 +198,14 @@ public class LightPropagator {
         }
     }
 
-    private int getExpectedLight(ILightBlockAccess blocks, EnumSkyBlock type, BlockPos pos) {
-        return Math.max(blocks.getEmittedLight(pos, type), blocks.getLightFromNeighbors(type, pos));
+    private int getExpectedLight(ILightBlockAccess blocks, EnumSkyBlock type, int x, int y, int z) {
+        return Math.max(blocks.getEmittedLight(x, y, z, type), blocks.getLightFromNeighbors(type, x, y, z));
     }
     
-    private void markNeighborEdgeNeedLightUpdate(BlockPos pos, ILightBlockAccess blocks, EnumSkyBlock type) {
+    private void markNeighborEdgeNeedLightUpdate(int x, int y, int z, ILightBlockAccess blocks, EnumSkyBlock type) {
         // If cube is not loaded we will notify neighbors so cube will update light when it loads.
-        for (EnumFacing direction : EnumFacing.values()) {
-            BlockPos offset = pos.offset(direction);
-            blocks.markEdgeNeedLightUpdate(offset, type);
+        for (int i = 0; i < 6; i++) {
+            blocks.markEdgeNeedLightUpdate(x + NEIGHBOR_X[i], y + NEIGHBOR_Y[i], z + NEIGHBOR_Z[i], type);
         }
     }
 }
@@ -196,10 +196,6 @@ class LightUpdateQueue {
         return readZ;
     }
 
-    BlockPos getPos() {
-        return new BlockPos(readX, readY, readZ);
-    }
-
     boolean isBeforeReset() {
         return isBeforeReset;
     }
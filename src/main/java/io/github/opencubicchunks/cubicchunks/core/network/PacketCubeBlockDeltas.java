@@ -0,0 +1,354 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import gnu.trove.TShortCollection;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.client.CubeProviderClient;
+import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.github.opencubicchunks.cubicchunks.core.util.PacketUtils;
+import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.client.multiplayer.WorldClient;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.init.Blocks;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Sends any amount of block changes in one cube, as an alternative to resending the whole cube.
+ * <p>
+ * The changed blocks are encoded as sorted, delta encoded local addresses, indices into a palette of the new block states
+ * packed with the smallest possible amount of bits, and one byte of block and sky light for each changed block. The
+ * result is deflated.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PacketCubeBlockDeltas implements IMessage {
+
+    private CubePos cubePos;
+    private int uncompressedSize;
+    private byte[] data;
+    private int fullCubeSize;
+
+    public PacketCubeBlockDeltas() {
+    }
+
+    public PacketCubeBlockDeltas(Cube cube, TShortCollection localAddresses) {
+        this(cube.getCoords(), collectDeltas(cube, localAddresses),
+                WorldEncoder.getEncodedSize(WorldEncoder.toCubeData(Collections.singletonList(cube))));
+    }
+
+    PacketCubeBlockDeltas(CubePos cubePos, Deltas deltas, int fullCubeSize) {
+        this.cubePos = cubePos;
+        byte[] encoded = encode(deltas);
+        this.uncompressedSize = encoded.length;
+        this.data = WorldEncoder.compress(encoded);
+        this.fullCubeSize = fullCubeSize;
+    }
+
+    private static Deltas collectDeltas(Cube cube, TShortCollection localAddresses) {
+        short[] sorted = localAddresses.toArray();
+        Arrays.sort(sorted);
+        int[] addresses = new int[sorted.length];
+        IBlockState[] states = new IBlockState[sorted.length];
+        byte[] light = new byte[sorted.length];
+
+        ExtendedBlockStorage ebs = cube.getStorage();
+        boolean hasSky = cube.getWorld().provider.hasSkyLight();
+        for (int i = 0; i < sorted.length; i++) {
+            addresses[i] = sorted[i];
+            int x = AddressTools.getLocalX(sorted[i]);
+            int y = AddressTools.getLocalY(sorted[i]);
+            int z = AddressTools.getLocalZ(sorted[i]);
+            states[i] = cube.getBlockState(x, y, z);
+            int blockLight = ebs == null ? 0 : ebs.getBlockLight(x, y, z);
+            int skyLight = !hasSky ? 0 : ebs == null ? 15 : ebs.getSkyLight(x, y, z);
+            light[i] = (byte) (blockLight << 4 | skyLight);
+        }
+
+        int[] topBlockY = new int[Cube.SIZE * Cube.SIZE];
+        boolean[] columns = getChangedColumns(addresses);
+        for (int xz = 0; xz < columns.length; xz++) {
+            if (columns[xz]) {
+                topBlockY[xz] = cube.getColumn().getOpacityIndex().getTopBlockY(
+                        AddressTools.getLocalX(xz), AddressTools.getLocalZ(xz));
+            }
+        }
+        return new Deltas(addresses, states, light, topBlockY);
+    }
+
+    @SuppressWarnings("deprecation")
+    static byte[] encode(Deltas deltas) {
+        int[] addresses = deltas.addresses;
+        ByteBuf out = Unpooled.buffer(addresses.length * 3 + 64);
+        ByteBufUtils.writeVarInt(out, addresses.length, 5);
+
+        // palette
+        Reference2IntMap<IBlockState> palette = new Reference2IntOpenHashMap<>();
+        palette.defaultReturnValue(-1);
+        List<IBlockState> paletteStates = new ArrayList<>();
+        int[] indices = new int[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            IBlockState state = deltas.states[i];
+            int index = palette.getInt(state);
+            if (index < 0) {
+                index = paletteStates.size();
+                palette.put(state, index);
+                paletteStates.add(state);
+            }
+            indices[i] = index;
+        }
+        ByteBufUtils.writeVarInt(out, paletteStates.size(), 5);
+        for (IBlockState state : paletteStates) {
+            ByteBufUtils.writeVarInt(out, Block.BLOCK_STATE_IDS.get(state), 5);
+        }
+
+        // addresses, as deltas from the previous one
+        int prev = 0;
+        for (int address : addresses) {
+            ByteBufUtils.writeVarInt(out, address - prev, 3);
+            prev = address;
+        }
+
+        // palette indices
+        int bits = bitsFor(paletteStates.size());
+        long buffer = 0;
+        int bufferedBits = 0;
+        for (int index : indices) {
+            buffer |= (long) index << bufferedBits;
+            bufferedBits += bits;
+            while (bufferedBits >= 8) {
+                out.writeByte((int) buffer);
+                buffer >>>= 8;
+                bufferedBits -= 8;
+            }
+        }
+        if (bufferedBits > 0) {
+            out.writeByte((int) buffer);
+        }
+
+        // light
+        out.writeBytes(deltas.light);
+
+        // height map of the changed columns
+        boolean[] columns = getChangedColumns(addresses);
+        int columnCount = 0;
+        for (boolean changed : columns) {
+            if (changed) {
+                columnCount++;
+            }
+        }
+        ByteBufUtils.writeVarInt(out, columnCount, 2);
+        for (int xz = 0; xz < columns.length; xz++) {
+            if (columns[xz]) {
+                out.writeByte(xz);
+                PacketUtils.writeSignedVarInt(out, deltas.topBlockY[xz]);
+            }
+        }
+        return Arrays.copyOf(out.array(), out.writerIndex());
+    }
+
+    @SuppressWarnings("deprecation")
+    static Deltas decode(ByteBuf in) {
+        int count = ByteBufUtils.readVarInt(in, 5);
+        IBlockState[] palette = new IBlockState[ByteBufUtils.readVarInt(in, 5)];
+        for (int i = 0; i < palette.length; i++) {
+            IBlockState state = Block.BLOCK_STATE_IDS.getByValue(ByteBufUtils.readVarInt(in, 5));
+            palette[i] = state == null ? Blocks.AIR.getDefaultState() : state;
+        }
+
+        int[] addresses = new int[count];
+        int prev = 0;
+        for (int i = 0; i < count; i++) {
+            prev += ByteBufUtils.readVarInt(in, 3);
+            addresses[i] = prev;
+        }
+
+        int bits = bitsFor(palette.length);
+        int mask = (1 << bits) - 1;
+        long buffer = 0;
+        int bufferedBits = 0;
+        IBlockState[] states = new IBlockState[count];
+        for (int i = 0; i < count; i++) {
+            while (bufferedBits < bits) {
+                buffer |= (long) in.readUnsignedByte() << bufferedBits;
+                bufferedBits += 8;
+            }
+            states[i] = palette[(int) (buffer & mask)];
+            buffer >>>= bits;
+            bufferedBits -= bits;
+        }
+
+        byte[] light = new byte[count];
+        in.readBytes(light);
+
+        int[] topBlockY = new int[Cube.SIZE * Cube.SIZE];
+        int columnCount = ByteBufUtils.readVarInt(in, 2);
+        for (int i = 0; i < columnCount; i++) {
+            int xz = in.readUnsignedByte();
+            topBlockY[xz] = PacketUtils.readSignedVarInt(in);
+        }
+        return new Deltas(addresses, states, light, topBlockY);
+    }
+
+    /**
+     * Returns which columns of the cube, by local xz address, have a changed block
+     */
+    static boolean[] getChangedColumns(int[] addresses) {
+        boolean[] columns = new boolean[Cube.SIZE * Cube.SIZE];
+        for (int address : addresses) {
+            columns[AddressTools.getLocalAddress(AddressTools.getLocalX(address), AddressTools.getLocalZ(address))] = true;
+        }
+        return columns;
+    }
+
+    private static int bitsFor(int paletteSize) {
+        return paletteSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+    }
+
+    /**
+     * Returns true if this packet is smaller than sending the whole cube again with {@link PacketCubes}
+     */
+    public boolean isSmallerThanFullCube() {
+        return this.data.length < this.fullCubeSize;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf in) {
+        this.cubePos = PacketUtils.readCubePos(in);
+        this.uncompressedSize = ByteBufUtils.readVarInt(in, 5);
+        this.data = new byte[ByteBufUtils.readVarInt(in, 5)];
+        in.readBytes(this.data);
+    }
+
+    @Override
+    public void toBytes(ByteBuf out) {
+        PacketUtils.write(out, cubePos);
+        ByteBufUtils.writeVarInt(out, this.uncompressedSize, 5);
+        ByteBufUtils.writeVarInt(out, this.data.length, 5);
+        out.writeBytes(this.data);
+    }
+
+    Deltas getDeltas() throws DataFormatException {
+        return decode(Unpooled.wrappedBuffer(WorldEncoder.decompress(this.data, this.uncompressedSize)));
+    }
+
+    public static class Handler extends AbstractClientMessageHandler<PacketCubeBlockDeltas> {
+
+        @Override
+        public void handleClientMessage(World world, EntityPlayer player, PacketCubeBlockDeltas packet, MessageContext ctx) {
+            WorldClient worldClient = (WorldClient) world;
+            CubeProviderClient cubeCache = (CubeProviderClient) worldClient.getChunkProvider();
+
+            Cube cube = cubeCache.getCube(packet.cubePos);
+            if (cube instanceof BlankCube) {
+                CubicChunks.LOGGER.error("Ignored block update to blank cube {}", packet.cubePos);
+                return;
+            }
+
+            Deltas deltas;
+            try {
+                deltas = packet.getDeltas();
+            } catch (DataFormatException e) {
+                CubicChunks.LOGGER.error("Ignored corrupted block update to cube {}", packet.cubePos, e);
+                return;
+            }
+            int[] addresses = deltas.addresses;
+
+            ClientHeightMap index = (ClientHeightMap) cube.getColumn().getOpacityIndex();
+            boolean[] columns = getChangedColumns(addresses);
+            for (int xz = 0; xz < columns.length; xz++) {
+                if (columns[xz]) {
+                    index.setHeight(AddressTools.getLocalX(xz), AddressTools.getLocalZ(xz), deltas.topBlockY[xz]);
+                }
+            }
+
+            boolean hasSky = worldClient.provider.hasSkyLight();
+            for (int i = 0; i < addresses.length; i++) {
+                BlockPos pos = cube.localAddressToBlockPos(addresses[i]);
+                worldClient.invalidateBlockReceiveRegion(pos.getX(), pos.getY(), pos.getZ(), pos.getX(), pos.getY(), pos.getZ());
+                worldClient.setBlockState(pos, deltas.states[i], 3);
+            }
+            // set light after all blocks, so that client side light updates caused by the new blocks don't override it
+            ExtendedBlockStorage ebs = cube.getStorage();
+            if (ebs != null) {
+                for (int i = 0; i < addresses.length; i++) {
+                    int x = AddressTools.getLocalX(addresses[i]);
+                    int y = AddressTools.getLocalY(addresses[i]);
+                    int z = AddressTools.getLocalZ(addresses[i]);
+                    ebs.setBlockLight(x, y, z, deltas.light[i] >> 4 & 0xF);
+                    if (hasSky) {
+                        ebs.setSkyLight(x, y, z, deltas.light[i] & 0xF);
+                    }
+                }
+            }
+            cube.markForRenderUpdate();
+            cube.getTileEntityMap().values().forEach(TileEntity::updateContainingBlockInfo);
+        }
+    }
+
+    /**
+     * The changed blocks of one cube, sorted by their local address
+     */
+    static final class Deltas {
+
+        final int[] addresses;
+        final IBlockState[] states;
+        // block light in the high 4 bits, sky light in the low 4 bits
+        final byte[] light;
+        // by local xz address, only set for the columns that have changed blocks
+        final int[] topBlockY;
+
+        Deltas(int[] addresses, IBlockState[] states, byte[] light, int[] topBlockY) {
+            this.addresses = addresses;
+            this.states = states;
+            this.light = light;
+            this.topBlockY = topBlockY;
+        }
+    }
+}
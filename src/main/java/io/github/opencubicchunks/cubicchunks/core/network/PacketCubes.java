@@ -34,18 +34,22 @@ import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.client.multiplayer.WorldClient;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.network.PacketBuffer;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
+import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -55,6 +59,8 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class PacketCubes implements IMessage {
 
     private CubePos[] cubePos;
+    // -1 if data isn't compressed
+    private int uncompressedSize;
     private byte[] data;
     private List<List<NBTTagCompound>> tileEntityTags;
 
@@ -62,20 +68,36 @@ public class PacketCubes implements IMessage {
     }
 
     public PacketCubes(List<Cube> cubes) {
-        this.cubePos = new CubePos[cubes.size()];
-        for (int i = 0; i < cubes.size(); i++) {
-            cubePos[i] = cubes.get(i).getCoords();
+        this(cubes.stream().map(Cube::getCoords).toArray(CubePos[]::new), encode(WorldEncoder.toCubeData(cubes)),
+                isNetworkCompressionDisabled(),
+                cubes.stream().map(cube ->
+                        cube.getTileEntityMap().values().stream().map(TileEntity::getUpdateTag).collect(Collectors.toList())
+                ).collect(Collectors.toList()));
+    }
+
+    PacketCubes(CubePos[] cubePos, byte[] encoded, boolean compress, List<List<NBTTagCompound>> tileEntityTags) {
+        this.cubePos = cubePos;
+        if (compress) {
+            this.uncompressedSize = encoded.length;
+            this.data = WorldEncoder.compress(encoded);
+        } else {
+            this.uncompressedSize = -1;
+            this.data = encoded;
         }
-        this.data = new byte[WorldEncoder.getEncodedSize(cubes)];
-        PacketBuffer out = new PacketBuffer(WorldEncoder.createByteBufForWrite(this.data));
+        this.tileEntityTags = tileEntityTags;
+    }
 
+    private static byte[] encode(List<WorldEncoder.CubeData> cubes) {
+        byte[] encoded = new byte[WorldEncoder.getEncodedSize(cubes)];
+        PacketBuffer out = new PacketBuffer(WorldEncoder.createByteBufForWrite(encoded));
         WorldEncoder.encodeCubes(out, cubes);
+        return encoded;
+    }
 
-        this.tileEntityTags = new ArrayList<>();
-
-        cubes.forEach(cube ->
-                tileEntityTags.add(cube.getTileEntityMap().values().stream().map(TileEntity::getUpdateTag).collect(Collectors.toList()))
-        );
+    // the connection is already compressed unless the server disabled network compression
+    private static boolean isNetworkCompressionDisabled() {
+        MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
+        return server != null && server.getNetworkCompressionThreshold() < 0;
     }
 
     @Override
@@ -86,6 +108,7 @@ public class PacketCubes implements IMessage {
             cubePos[i] = PacketUtils.readCubePos(buf);
         }
 
+        this.uncompressedSize = buf.readInt();
         this.data = new byte[buf.readInt()];
         buf.readBytes(this.data);
 
@@ -107,6 +130,7 @@ public class PacketCubes implements IMessage {
             PacketUtils.write(buf, pos);
         }
 
+        buf.writeInt(this.uncompressedSize);
         buf.writeInt(this.data.length);
         buf.writeBytes(this.data);
 
@@ -120,8 +144,8 @@ public class PacketCubes implements IMessage {
         return cubePos;
     }
 
-    byte[] getData() {
-        return data;
+    byte[] getData() throws DataFormatException {
+        return uncompressedSize < 0 ? data : WorldEncoder.decompress(data, uncompressedSize);
     }
 
     List<List<NBTTagCompound>> getTileEntityTags() {
@@ -147,9 +171,15 @@ public class PacketCubes implements IMessage {
             }
 
 
-            byte[] data = message.getData();
+            byte[] data;
+            try {
+                data = message.getData();
+            } catch (DataFormatException e) {
+                CubicChunks.LOGGER.error("Received corrupted cube data for cubes {}", Arrays.toString(cubePos), e);
+                return;
+            }
             ByteBuf buf = WorldEncoder.createByteBufForRead(data);
-            WorldEncoder.decodeCube(new PacketBuffer(buf), cubes);
+            WorldEncoder.decodeCube(new PacketBuffer(buf), cubes, worldClient.provider.hasSkyLight());
 
             cubes.stream().filter(Objects::nonNull).forEach(Cube::markForRenderUpdate);
 
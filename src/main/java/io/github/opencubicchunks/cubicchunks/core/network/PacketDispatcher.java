@@ -68,6 +68,7 @@ public class PacketDispatcher {
         registerMessage(PacketCubicWorldData.Handler.class, PacketCubicWorldData.class);
         registerMessage(PacketHeightMapUpdate.Handler.class, PacketHeightMapUpdate.class);
         registerMessage(PacketCubeSkyLightUpdates.Handler.class, PacketCubeSkyLightUpdates.class);
+        registerMessage(PacketCubeBlockDeltas.Handler.class, PacketCubeBlockDeltas.class);
 
     }
 
@@ -35,72 +35,156 @@ import net.minecraft.network.PacketBuffer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 class WorldEncoder {
 
-    static void encodeCubes(PacketBuffer out, Collection<Cube> cubes) {
+    static final int FLAG_EMPTY = 1;
+    static final int FLAG_HAS_STORAGE = 2;
+    static final int FLAG_HAS_BIOMES = 4;
+    static final int FLAG_UNIFORM_BLOCK_LIGHT = 8;
+    static final int FLAG_UNIFORM_SKY_LIGHT = 16;
+    static final int FLAG_HAS_HEIGHTMAP = 32;
+
+    /**
+     * Collects the data of the cubes that is sent to the client
+     */
+    static List<CubeData> toCubeData(Collection<Cube> cubes) {
+        List<CubeData> data = new ArrayList<>(cubes.size());
+        Map<Chunk, byte[]> heightMaps = new IdentityHashMap<>();
+        for (Cube cube : cubes) {
+            Chunk column = cube.getColumn();
+            // only non-empty cubes send the height map
+            byte[] heightMap = cube.isEmpty() ? null : heightMaps.computeIfAbsent(column,
+                    c -> ((ServerHeightMap) cube.getColumn().getOpacityIndex()).getDataForClient());
+            data.add(new CubeData(cube.getY(), cube.getWorld().provider.hasSkyLight(), column, cube.getStorage(), heightMap,
+                    cube.getBiomeArray()));
+        }
+        return data;
+    }
+
+    static void encodeCubes(PacketBuffer out, List<CubeData> cubes) {
         // write first all the flags, then all the block data, then all the light data etc for better compression
 
         // 1. emptiness
-        cubes.forEach(cube -> {
-            byte flags = 0;
-            if(cube.isEmpty())
-                flags |= 1;
-            if(cube.getStorage() != null)
-                flags |= 2;
-            if(cube.getBiomeArray() != null)
-                flags |= 4;
-            out.writeByte(flags);
-        });
+        byte[] flags = getFlags(cubes);
+        out.writeBytes(flags);
 
         // 2. block IDs and metadata
         cubes.forEach(cube -> {
             if (!cube.isEmpty()) {
                 //noinspection ConstantConditions
-                cube.getStorage().getData().write(out);
+                cube.storage.getData().write(out);
             }
         });
 
-        // 3. block light
-        cubes.forEach(cube -> {
-            if (cube.getStorage() != null) {
-                out.writeBytes(cube.getStorage().getBlockLight().getData());
+        // 3. block light, a single value if it's the same everywhere
+        int i = 0;
+        for (CubeData cube : cubes) {
+            if (cube.storage != null) {
+                byte[] data = cube.storage.getBlockLight().getData();
+                if ((flags[i] & FLAG_UNIFORM_BLOCK_LIGHT) != 0) {
+                    out.writeByte(data[0]);
+                } else {
+                    out.writeBytes(data);
+                }
             }
-        });
+            i++;
+        }
 
-        // 4. sky light
-        cubes.forEach(cube -> {
-            if (cube.getStorage() != null && cube.getWorld().provider.hasSkyLight()) {
-                out.writeBytes(cube.getStorage().getSkyLight().getData());
+        // 4. sky light, a single value if the cube is fully lit or fully dark
+        i = 0;
+        for (CubeData cube : cubes) {
+            if (cube.storage != null && cube.hasSkyLight) {
+                byte[] data = cube.storage.getSkyLight().getData();
+                if ((flags[i] & FLAG_UNIFORM_SKY_LIGHT) != 0) {
+                    out.writeByte(data[0]);
+                } else {
+                    out.writeBytes(data);
+                }
             }
-        });
+            i++;
+        }
 
         // 5. heightmap and bottom-block-y. Each non-empty cube has a chance
         // to update this data.
         // trying to keep track of when it changes would be complex, so send
-        // it wil all cubes
-        cubes.forEach(cube -> {
-            if (!cube.isEmpty()) {
-                byte[] heightmaps = ((ServerHeightMap) cube.getColumn().getOpacityIndex()).getDataForClient();
-                assert heightmaps.length == Cube.SIZE * Cube.SIZE * Integer.BYTES;
-                out.writeBytes(heightmaps);
+        // it with the first non-empty cube of each column
+        i = 0;
+        for (CubeData cube : cubes) {
+            if ((flags[i] & FLAG_HAS_HEIGHTMAP) != 0) {
+                //noinspection ConstantConditions
+                assert cube.heightMap.length == Cube.SIZE * Cube.SIZE * Integer.BYTES;
+                out.writeBytes(cube.heightMap);
             }
-        });
+            i++;
+        }
         
         // 6. biomes
         cubes.forEach(cube -> {
-            if (cube.getBiomeArray() != null)
-                out.writeBytes(cube.getBiomeArray());
+            if (cube.biomes != null)
+                out.writeBytes(cube.biomes);
         });
     }
 
+    private static byte[] getFlags(List<CubeData> cubes) {
+        byte[] flags = new byte[cubes.size()];
+        Set<Object> columnsWithHeightMap = Collections.newSetFromMap(new IdentityHashMap<>());
+        int i = 0;
+        for (CubeData cube : cubes) {
+            int cubeFlags = 0;
+            if (cube.isEmpty()) {
+                cubeFlags |= FLAG_EMPTY;
+            } else if (cube.heightMap != null && columnsWithHeightMap.add(cube.column)) {
+                cubeFlags |= FLAG_HAS_HEIGHTMAP;
+            }
+            ExtendedBlockStorage storage = cube.storage;
+            if (storage != null) {
+                cubeFlags |= FLAG_HAS_STORAGE;
+                if (isUniform(storage.getBlockLight().getData())) {
+                    cubeFlags |= FLAG_UNIFORM_BLOCK_LIGHT;
+                }
+                if (cube.hasSkyLight && isUniform(storage.getSkyLight().getData())) {
+                    cubeFlags |= FLAG_UNIFORM_SKY_LIGHT;
+                }
+            }
+            if (cube.biomes != null) {
+                cubeFlags |= FLAG_HAS_BIOMES;
+            }
+            flags[i++] = (byte) cubeFlags;
+        }
+        return flags;
+    }
+
+    private static boolean isUniform(byte[] nibbles) {
+        byte first = nibbles[0];
+        if ((first & 0xF) != (first >> 4 & 0xF)) {
+            return false;
+        }
+        for (int i = 1; i < nibbles.length; i++) {
+            if (nibbles[i] != first) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     static void encodeColumn(PacketBuffer out, Chunk column) {
         // 1. biomes
         out.writeBytes(column.getBiomeArray());
@@ -111,78 +195,106 @@ class WorldEncoder {
         in.readBytes(column.getBiomeArray());
     }
 
-    static void decodeCube(PacketBuffer in, List<Cube> cubes) {
+    static void decodeCube(PacketBuffer in, List<Cube> cubes, boolean hasSkyLight) {
         cubes.stream().filter(Objects::nonNull).forEach(Cube::setClientCube);
 
-        // 1. emptiness
-        boolean[] isEmpty = new boolean[cubes.size()];
-        boolean[] hasStorage = new boolean[cubes.size()];
-        boolean[] hasCustomBiomeMap = new boolean[cubes.size()];
+        List<CubeData> data = new ArrayList<>(cubes.size());
+        for (Cube cube : cubes) {
+            // cubes without a column are still decoded, to get to the data of the cubes after them
+            data.add(cube == null ? new CubeData(0, hasSkyLight, new Object())
+                    : new CubeData(cube.getY(), hasSkyLight, cube.getColumn()));
+        }
+        decodeCubes(in, data);
 
         for (int i = 0; i < cubes.size(); i++) {
-            byte flags = in.readByte();
-            isEmpty[i] = (flags & 1) != 0 || cubes.get(i) == null;
-            hasStorage[i] = (flags & 2) != 0 && cubes.get(i) != null;
-            hasCustomBiomeMap[i] = (flags & 4) != 0 && cubes.get(i) != null;
+            Cube cube = cubes.get(i);
+            if (cube == null) {
+                continue;
+            }
+            CubeData cubeData = data.get(i);
+            if (cubeData.storage != null) {
+                cube.setStorage(cubeData.storage);
+            }
+            if (cubeData.heightMap != null) {
+                ClientHeightMap coi = ((ClientHeightMap) cube.getColumn().getOpacityIndex());
+                coi.setData(cubeData.heightMap);
+            }
+            if (cubeData.biomes != null) {
+                cube.setBiomeArray(cubeData.biomes);
+            }
         }
+    }
+
+    static void decodeCubes(PacketBuffer in, List<CubeData> cubes) {
+        // 1. emptiness
+        byte[] flags = new byte[cubes.size()];
+        in.readBytes(flags);
 
         for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i]) {
-                Cube cube = cubes.get(i);
-                ExtendedBlockStorage storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()),
-                        cube.getWorld().provider.hasSkyLight());
-                cube.setStorage(storage);
+            if ((flags[i] & FLAG_HAS_STORAGE) != 0) {
+                CubeData cube = cubes.get(i);
+                cube.storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.cubeY), cube.hasSkyLight);
             }
         }
 
         // 2. Block IDs and metadata
         for (int i = 0; i < cubes.size(); i++) {
-            if (!isEmpty[i]) {
+            if ((flags[i] & FLAG_EMPTY) == 0) {
                 //noinspection ConstantConditions
-                cubes.get(i).getStorage().getData().read(in);
+                cubes.get(i).storage.getData().read(in);
             }
         }
 
         // 3. block light
         for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i]) {
+            if ((flags[i] & FLAG_HAS_STORAGE) != 0) {
                 //noinspection ConstantConditions
-                byte[] data = cubes.get(i).getStorage().getBlockLight().getData();
-                in.readBytes(data);
+                byte[] data = cubes.get(i).storage.getBlockLight().getData();
+                readLight(in, data, (flags[i] & FLAG_UNIFORM_BLOCK_LIGHT) != 0);
             }
         }
 
         // 4. sky light
         for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i] && cubes.get(i).getWorld().provider.hasSkyLight()) {
+            if ((flags[i] & FLAG_HAS_STORAGE) != 0 && cubes.get(i).hasSkyLight) {
                 //noinspection ConstantConditions
-                byte[] data = cubes.get(i).getStorage().getSkyLight().getData();
-                in.readBytes(data);
+                byte[] data = cubes.get(i).storage.getSkyLight().getData();
+                readLight(in, data, (flags[i] & FLAG_UNIFORM_SKY_LIGHT) != 0);
             }
         }
 
-        // 5. heightmaps and after all that - update ref counts
+        // 5. heightmaps, once per column
         for (int i = 0; i < cubes.size(); i++) {
-            if (!isEmpty[i]) {
-                Cube cube = cubes.get(i);
+            if ((flags[i] & FLAG_HAS_HEIGHTMAP) != 0) {
                 byte[] heightmaps = new byte[Cube.SIZE * Cube.SIZE * Integer.BYTES];
                 in.readBytes(heightmaps);
-                ClientHeightMap coi = ((ClientHeightMap) cube.getColumn().getOpacityIndex());
-                coi.setData(heightmaps);
+                cubes.get(i).heightMap = heightmaps;
+            }
+        }
 
+        // after all that - update ref counts
+        for (int i = 0; i < cubes.size(); i++) {
+            if ((flags[i] & FLAG_EMPTY) == 0) {
                 //noinspection ConstantConditions
-                cube.getStorage().recalculateRefCounts();
+                cubes.get(i).storage.recalculateRefCounts();
             }
         }
         
         // 6. biomes
         for (int i = 0; i < cubes.size(); i++) {
-            if (!hasCustomBiomeMap[i])
+            if ((flags[i] & FLAG_HAS_BIOMES) == 0)
                 continue;
-            Cube cube = cubes.get(i);
             byte[] blockBiomeArray = new byte[Coords.BIOMES_PER_CUBE];
             in.readBytes(blockBiomeArray);
-            cube.setBiomeArray(blockBiomeArray);
+            cubes.get(i).biomes = blockBiomeArray;
+        }
+    }
+
+    private static void readLight(PacketBuffer in, byte[] data, boolean uniform) {
+        if (uniform) {
+            Arrays.fill(data, in.readByte());
+        } else {
+            in.readBytes(data);
         }
     }
 
@@ -190,38 +302,79 @@ class WorldEncoder {
         return column.getBiomeArray().length;
     }
 
-    static int getEncodedSize(Collection<Cube> cubes) {
-        int size = 0;
+    static int getEncodedSize(List<CubeData> cubes) {
+        byte[] flags = getFlags(cubes);
 
-        // 1. isEmpty, hasStorage and hasBiomeArray flags packed in one byte
-        size += cubes.size();
+        // 1. flags
+        int size = flags.length;
 
-        // 2. block IDs and metadata
-        for (Cube cube : cubes) {
+        // 2. block IDs and metadata, and light
+        int i = 0;
+        for (CubeData cube : cubes) {
             if (!cube.isEmpty()) {
                 //noinspection ConstantConditions
-                size += cube.getStorage().getData().getSerializedSize();
+                size += cube.storage.getData().getSerializedSize();
             }
-            if (cube.getStorage() != null) {
-                size += cube.getStorage().getBlockLight().getData().length;
-                if (cube.getWorld().provider.hasSkyLight()) {
-                    size += cube.getStorage().getSkyLight().getData().length;
+            if (cube.storage != null) {
+                size += (flags[i] & FLAG_UNIFORM_BLOCK_LIGHT) != 0 ? 1 : cube.storage.getBlockLight().getData().length;
+                if (cube.hasSkyLight) {
+                    size += (flags[i] & FLAG_UNIFORM_SKY_LIGHT) != 0 ? 1 : cube.storage.getSkyLight().getData().length;
                 }
             }
+            // heightmaps
+            if ((flags[i] & FLAG_HAS_HEIGHTMAP) != 0) {
+                size += Cube.SIZE * Cube.SIZE * Integer.BYTES;
+            }
+            i++;
         }
 
-        // heightmaps
-        size += 256 * Integer.BYTES * cubes.size();
         // biomes
-        for (Cube cube : cubes) {
-            byte[] biomeArray = cube.getBiomeArray();
-            if (biomeArray == null)
+        for (CubeData cube : cubes) {
+            if (cube.biomes == null)
                 continue;
-            size += biomeArray.length;
+            size += cube.biomes.length;
         }
         return size;
     }
 
+    /**
+     * Compresses data with the fastest deflate level, cube data is mostly very repetitive so that's enough
+     */
+    static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] compressed = new byte[data.length / 4 + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        deflater.end();
+        return Arrays.copyOf(compressed, length);
+    }
+
+    static byte[] decompress(byte[] data, int uncompressedSize) throws DataFormatException {
+        byte[] uncompressed = new byte[uncompressedSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            int length = 0;
+            while (length < uncompressedSize && !inflater.finished()) {
+                int read = inflater.inflate(uncompressed, length, uncompressedSize - length);
+                if (read == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("Unexpected end of compressed data");
+                }
+                length += read;
+            }
+        } finally {
+            inflater.end();
+        }
+        return uncompressed;
+    }
+
     static ByteBuf createByteBufForWrite(byte[] data) {
         ByteBuf bytebuf = Unpooled.wrappedBuffer(data);
         bytebuf.writerIndex(0);
@@ -233,4 +386,36 @@ class WorldEncoder {
         bytebuf.readerIndex(0);
         return bytebuf;
     }
+
+    /**
+     * The parts of a cube that are sent to the client, separate from {@link Cube} so that encoding them doesn't need a world
+     */
+    static final class CubeData {
+
+        final int cubeY;
+        final boolean hasSkyLight;
+        // cubes of the same column share one height map
+        final Object column;
+        @Nullable ExtendedBlockStorage storage;
+        @Nullable byte[] heightMap;
+        @Nullable byte[] biomes;
+
+        CubeData(int cubeY, boolean hasSkyLight, Object column) {
+            this(cubeY, hasSkyLight, column, null, null, null);
+        }
+
+        CubeData(int cubeY, boolean hasSkyLight, Object column, @Nullable ExtendedBlockStorage storage, @Nullable byte[] heightMap,
+                @Nullable byte[] biomes) {
+            this.cubeY = cubeY;
+            this.hasSkyLight = hasSkyLight;
+            this.column = column;
+            this.storage = storage;
+            this.heightMap = heightMap;
+            this.biomes = biomes;
+        }
+
+        boolean isEmpty() {
+            return storage == null || storage.isEmpty();
+        }
+    }
 }
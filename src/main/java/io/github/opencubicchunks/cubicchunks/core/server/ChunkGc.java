@@ -100,9 +100,8 @@ public class ChunkGc {
     public void chunkGc() {
         Iterator<Cube> cubeIt = cubeCache.cubesIterator();
         while (cubeIt.hasNext()) {
-            if (cubeCache.tryUnloadCube(cubeIt.next())) {
-                cubeIt.remove();
-            }
+            // removes the cube from the cube map itself
+            cubeCache.tryUnloadCube(cubeIt.next());
         }
 
         Iterator<Chunk> columnIt = cubeCache.columnsIterator();
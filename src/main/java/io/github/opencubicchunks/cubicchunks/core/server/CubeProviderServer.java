@@ -36,14 +36,20 @@ import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.asm.CubicChunksMixinConfig;
 import io.github.opencubicchunks.cubicchunks.api.util.Box;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
-import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import io.github.opencubicchunks.cubicchunks.api.util.ConcurrentXYZMap;
+import io.github.opencubicchunks.cubicchunks.core.util.RecentCubeCache;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.CubeTickBudget;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.crash.CrashReport;
+import net.minecraft.crash.CrashReportCategory;
 import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.profiler.Profiler;
+import net.minecraft.util.ReportedException;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
@@ -56,10 +62,18 @@ import net.minecraftforge.fml.common.registry.GameRegistry;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
-import java.util.function.BooleanSupplier;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import javax.annotation.Detainted;
@@ -83,11 +97,23 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     @Nonnull private WorldServer worldServer;
     @Nonnull private ICubeIO cubeIO;
 
-    // TODO: Use a better hash map!
-    @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    // lookups don't block, so other threads can find loaded cubes while the server thread loads and unloads them
+    @Nonnull private ConcurrentXYZMap<Cube> cubeMap = new ConcurrentXYZMap<>(0.7f, 8000);
+    // most block accesses are in the same cube as the one before, avoid the hash map lookup for them
+    // only used on the server thread, see getLoadedCube
+    @Nonnull private final RecentCubeCache<Cube> recentCubes = new RecentCubeCache<>();
 
     @Nonnull private ICubeGenerator cubeGen;
     @Nonnull private Profiler profiler;
+    @Nonnull private final CubeTickBudget cubeTickBudget = new CubeTickBudget();
+    // reused between ticks by tickCubesWithQueuedWork
+    @Nonnull private final ObjectArrayList<Cube> cubesWithQueuedWork = new ObjectArrayList<>();
+    @Nonnull private long[] queuedWorkOrder = new long[64];
+
+    // blocks of cubes being generated on worker threads, see generateCubeAsync
+    @Nonnull private final Map<CubePos, CompletableFuture<CubePrimer>> queuedPrimers = new HashMap<>();
+    private static final AtomicInteger generationThreadCounter = new AtomicInteger();
+    @Nullable private static ExecutorService generationExecutor;
 
     public CubeProviderServer(WorldServer worldServer, ICubeGenerator cubeGen) {
         super(worldServer,
@@ -195,22 +221,53 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     public boolean tick() {
         // NOTE: the return value is completely ignored
         profiler.startSection("providerTick");
-        long i = System.currentTimeMillis();
         Random rand = this.world.rand;
         PlayerCubeMap playerCubeMap = ((PlayerCubeMap) this.world.getPlayerChunkMap());
         Iterator<Cube> watchersIterator = playerCubeMap.getCubeIterator();
-        BooleanSupplier tickFaster = () -> System.currentTimeMillis() - i > 40;
+        cubeTickBudget.startTick(CubicChunksConfig.cubeUpdateBudgetMicros);
         while (watchersIterator.hasNext()) {
-            watchersIterator.next().tickCubeServer(tickFaster, rand);
+            Cube cube = watchersIterator.next();
+            if (cube.hasQueuedWork()) {
+                cubesWithQueuedWork.add(cube);
+            } else {
+                cube.tickCubeServer(cubeTickBudget, rand);
+            }
         }
+        tickCubesWithQueuedWork(playerCubeMap, rand);
+        cubeTickBudget.endTick();
         profiler.endSection();
         return false;
     }
 
+    /**
+     * Ticks the cubes with queued work in order of distance to the closest player, so that the cubes near players get the
+     * time budget first. Force loaded cubes without players nearby come last.
+     */
+    private void tickCubesWithQueuedWork(PlayerCubeMap playerCubeMap, Random rand) {
+        int count = cubesWithQueuedWork.size();
+        if (count == 0) {
+            return;
+        }
+        if (queuedWorkOrder.length < count) {
+            queuedWorkOrder = new long[Math.max(count, queuedWorkOrder.length * 2)];
+        }
+        for (int i = 0; i < count; i++) {
+            CubeWatcher watcher = playerCubeMap.getCubeWatcher(cubesWithQueuedWork.get(i).getCoords());
+            float distance = watcher == null ? Float.POSITIVE_INFINITY : (float) watcher.getClosestPlayerDistance();
+            // non-negative floats sort the same as their bits, the low half keeps the index of the cube
+            queuedWorkOrder[i] = (long) Float.floatToIntBits(distance) << 32 | i;
+        }
+        Arrays.sort(queuedWorkOrder, 0, count);
+        for (int i = 0; i < count; i++) {
+            cubesWithQueuedWork.get((int) queuedWorkOrder[i]).tickCubeServer(cubeTickBudget, rand);
+        }
+        cubesWithQueuedWork.clear();
+    }
+
     @Override
     public String makeString() {
         return "CubeProviderServer: " + this.loadedChunks.size() + " columns, "
-                + this.cubeMap.getSize() + " cubes";
+                + this.cubeMap.getSize() + " cubes, " + this.cubeTickBudget;
     }
 
     @Override
@@ -249,9 +306,25 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return getCube(coords.getX(), coords.getY(), coords.getZ());
     }
 
+    /**
+     * Returns the cube at the given position if it's loaded. Safe to call from any thread, other threads skip the recently
+     * used cube cache and look the cube up in the cube map directly.
+     */
     @Nullable @Override
     public Cube getLoadedCube(int cubeX, int cubeY, int cubeZ) {
-        return cubeMap.get(cubeX, cubeY, cubeZ);
+        if (!worldServer.getMinecraftServer().isCallingFromMinecraftThread()) {
+            return cubeMap.get(cubeX, cubeY, cubeZ);
+        }
+        Cube cube = recentCubes.get(cubeX, cubeY, cubeZ);
+        if (cube != null && cube.isCubeLoaded()) {
+            return cube;
+        }
+        cube = cubeMap.get(cubeX, cubeY, cubeZ);
+        // don't cache a cube that is being unloaded, tryUnloadCube evicts it only once it's gone from the cube map
+        if (cube != null && cube.isCubeLoaded()) {
+            recentCubes.put(cube);
+        }
+        return cube;
     }
 
     @Nullable @Override
@@ -403,7 +476,31 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
      * @return The generated cube
      */
     private Cube generateCube(int cubeX, int cubeY, int cubeZ, Chunk column) {
-        CubePrimer primer = cubeGen.generateCube(cubeX, cubeY, cubeZ);
+        CompletableFuture<CubePrimer> queued = queuedPrimers.isEmpty() ? null : queuedPrimers.remove(new CubePos(cubeX, cubeY, cubeZ));
+        CubePrimer primer = queued != null ? joinQueuedPrimer(queued, cubeX, cubeY, cubeZ) : cubeGen.generateCube(cubeX, cubeY, cubeZ);
+        return createGeneratedCube(column, cubeY, primer);
+    }
+
+    private CubePrimer joinQueuedPrimer(CompletableFuture<CubePrimer> queued, int cubeX, int cubeY, int cubeZ) {
+        try {
+            return queued.join();
+        } catch (CompletionException e) {
+            // rethrow what the generator threw, as if it was called on this thread
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            if (cause instanceof ReportedException) {
+                throw (ReportedException) cause;
+            }
+            CrashReport report = CrashReport.makeCrashReport(cause, "Exception generating new cube");
+            CrashReportCategory category = report.makeCategory("Cube to be generated");
+            CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+            category.addDetail("CubePos", pos::toString);
+            category.addDetail("Location", () -> CrashReportCategory.getCoordinateInfo(pos.getMinBlockPos()));
+            category.addDetail("Generator", () -> cubeGen.getClass().getName());
+            throw new ReportedException(report);
+        }
+    }
+
+    private Cube createGeneratedCube(Chunk column, int cubeY, CubePrimer primer) {
         Cube cube = new Cube(column, cubeY, primer);
 
         onCubeLoaded(cube, column);
@@ -414,6 +511,103 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return cube;
     }
 
+    /**
+     * Generates a vertical stack of cubes with a single {@link ICubeGenerator#generateCubes(int, int, int, int)} call. Cubes that
+     * are already loaded, saved or are being generated on a worker thread are skipped, and so is the whole stack if the column
+     * isn't loaded.
+     *
+     * @param cubeX Cube x position
+     * @param cubeZ Cube z position
+     * @param minCubeY Y position of the lowest cube
+     * @param maxCubeY Y position of the highest cube, inclusive
+     * @return the number of cubes generated
+     */
+    int generateCubes(int cubeX, int cubeZ, int minCubeY, int maxCubeY) {
+        Chunk column = getLoadedColumn(cubeX, cubeZ);
+        if (column == null) {
+            return 0;
+        }
+        int generated = 0;
+        int runStart = minCubeY;
+        for (int cubeY = minCubeY; cubeY <= maxCubeY + 1; cubeY++) {
+            // the cube watcher may be out of date, a neighbor's population could have generated the cube and it could have been
+            // saved and unloaded since then
+            boolean needsGenerating = cubeY <= maxCubeY && !isCubeGenerated(cubeX, cubeY, cubeZ)
+                    && !queuedPrimers.containsKey(new CubePos(cubeX, cubeY, cubeZ));
+            if (needsGenerating) {
+                continue;
+            }
+            if (cubeY > runStart) {
+                List<CubePrimer> primers = cubeGen.generateCubes(cubeX, cubeZ, runStart, cubeY - 1);
+                for (int i = 0; i < primers.size(); i++) {
+                    createGeneratedCube(column, runStart + i, primers.get(i));
+                }
+                generated += primers.size();
+            }
+            runStart = cubeY + 1;
+        }
+        return generated;
+    }
+
+    boolean canGenerateCubesAsync() {
+        return CubicChunksConfig.cubeGenerationThreads > 0 && cubeGen.isGenerateCubeThreadSafe();
+    }
+
+    int getQueuedCubeGenerationCount() {
+        return queuedPrimers.size();
+    }
+
+    /**
+     * Starts generating blocks of the cube on a worker thread, if the generator supports it. The cube is created from them on
+     * the server thread once it's requested with {@link Requirement#GENERATE} or higher. Only call this for cubes that are known
+     * not to exist on disk.
+     *
+     * @param cubeX Cube x position
+     * @param cubeY Cube y position
+     * @param cubeZ Cube z position
+     */
+    void generateCubeAsync(int cubeX, int cubeY, int cubeZ) {
+        if (!canGenerateCubesAsync() || getLoadedCube(cubeX, cubeY, cubeZ) != null) {
+            return;
+        }
+        queuedPrimers.computeIfAbsent(new CubePos(cubeX, cubeY, cubeZ),
+                pos -> CompletableFuture.supplyAsync(() -> cubeGen.generateCube(cubeX, cubeY, cubeZ), getGenerationExecutor()));
+    }
+
+    /**
+     * Drops the result of {@link #generateCubeAsync(int, int, int)} if the cube is no longer needed
+     */
+    void cancelCubeGeneration(int cubeX, int cubeY, int cubeZ) {
+        if (queuedPrimers.isEmpty()) {
+            return;
+        }
+        CompletableFuture<CubePrimer> queued = queuedPrimers.remove(new CubePos(cubeX, cubeY, cubeZ));
+        if (queued != null) {
+            queued.cancel(false);
+        }
+    }
+
+    /**
+     * Cancels all cubes being generated on worker threads, called when the world unloads
+     */
+    public void cancelQueuedCubeGeneration() {
+        for (CompletableFuture<CubePrimer> queued : queuedPrimers.values()) {
+            queued.cancel(false);
+        }
+        queuedPrimers.clear();
+    }
+
+    private static synchronized ExecutorService getGenerationExecutor() {
+        if (generationExecutor == null) {
+            generationExecutor = Executors.newFixedThreadPool(CubicChunksConfig.cubeGenerationThreads, r -> {
+                Thread thread = new Thread(r, "Cube Generation Thread #" + generationThreadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return generationExecutor;
+    }
+
     /**
      * Populate a cube at the specified position, generating surrounding cubes as necessary
      *
@@ -479,6 +673,26 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             cube.setInitialLightingDone(true);
             return;
         }
+        generateLightingNeighbors(cube);
+        ((ICubicWorldInternal.Server) this.worldServer).getFirstLightProcessor().diffuseSkylight(cube);
+    }
+
+    /**
+     * Initialize skylight for all of the given cubes at once, generating surrounding cubes as needed. Unlike
+     * {@link #getCube(int, int, int, Requirement)} with {@link Requirement#LIGHT}, this allows cubes to be lit in parallel.
+     *
+     * @param cubes The cubes to light up
+     */
+    void calculateDiffuseSkylight(Collection<Cube> cubes) {
+        if (LightingManager.NO_SUNLIGHT_PROPAGATION) {
+            cubes.forEach(cube -> cube.setInitialLightingDone(true));
+            return;
+        }
+        cubes.forEach(this::generateLightingNeighbors);
+        ((ICubicWorldInternal.Server) this.worldServer).getFirstLightProcessor().diffuseSkylight(cubes);
+    }
+
+    private void generateLightingNeighbors(Cube cube) {
         int cubeX = cube.getX();
         int cubeY = cube.getY();
         int cubeZ = cube.getZ();
@@ -493,7 +707,6 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
                 }
             }
         }
-        ((ICubicWorldInternal.Server) this.worldServer).getFirstLightProcessor().diffuseSkylight(cube);
     }
 
 
@@ -510,13 +723,29 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
      * @see CubeProviderServer#getColumn(int, int, Requirement) for the synchronous variant of this method
      */
     public void asyncGetColumn(int columnX, int columnZ, Requirement req, Consumer<Chunk> callback) {
+        asyncGetColumn(columnX, columnZ, req, AsyncWorldIOExecutor.PRIORITY_URGENT, callback);
+    }
+
+    /**
+     * Retrieve a column, asynchronously, with the given load priority.
+     *
+     * @param columnX Column x position
+     * @param columnZ Column z position
+     * @param req Work done to retrieve the column
+     * @param priority Load priority, lower values are loaded first. See {@link AsyncWorldIOExecutor#PRIORITY_URGENT}
+     * @param callback Callback to be called when the column has finished loading. Note that the returned column is not
+     * guaranteed to be non-null
+     *
+     * @see #asyncGetColumn(int, int, Requirement, Consumer)
+     */
+    public void asyncGetColumn(int columnX, int columnZ, Requirement req, double priority, Consumer<Chunk> callback) {
         Chunk column = getLoadedColumn(columnX, columnZ);
         if (column != null || req == Requirement.GET_CACHED) {
             callback.accept(column);
             return;
         }
 
-        AsyncWorldIOExecutor.queueColumnLoad(worldServer, cubeIO, columnX, columnZ, col -> {
+        AsyncWorldIOExecutor.queueColumnLoad(worldServer, cubeIO, columnX, columnZ, priority, col -> {
             col = postProcessColumn(columnX, columnZ, col, req);
             callback.accept(col);
         });
@@ -624,6 +853,11 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         if (cube.needsSaving()) { // save the Cube, if it needs saving
             this.cubeIO.saveCube(cube);
         }
+        // saving runs mod code that may look the cube up again, so evict it from the cache only after it's gone from the map
+        if (cubeMap.get(cube.getX(), cube.getY(), cube.getZ()) == cube) {
+            cubeMap.remove(cube);
+        }
+        recentCubes.remove(cube);
 
         if (cube.getColumn().removeCube(cube.getY()) == null) {
             throw new RuntimeException();
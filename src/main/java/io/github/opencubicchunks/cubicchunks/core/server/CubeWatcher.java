@@ -25,8 +25,8 @@
 package io.github.opencubicchunks.cubicchunks.core.server;
 
 import com.google.common.base.Predicate;
-import gnu.trove.list.TShortList;
-import gnu.trove.list.array.TShortArrayList;
+import gnu.trove.set.TShortSet;
+import gnu.trove.set.hash.TShortHashSet;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.CubeUnWatchEvent;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
@@ -36,6 +36,7 @@ import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeBlockChange;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeBlockDeltas;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketUnloadCube;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge.AsyncWorldIOExecutor;
@@ -55,6 +56,7 @@ import net.minecraftforge.common.ForgeModContainer;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 
+import java.util.List;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
@@ -70,7 +72,7 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
     private PlayerCubeMap playerCubeMap;
     @Nullable private Cube cube;
     private final ObjectArrayList<EntityPlayerMP> players = ObjectArrayList.wrap(new EntityPlayerMP[0]);
-    private final TShortList dirtyBlocks = new TShortArrayList(64);
+    private final TShortSet dirtyBlocks = new TShortHashSet(64);
     private final CubePos cubePos;
     private long previousWorldTime = 0;
     private boolean sentToPlayers = false;
@@ -153,6 +155,14 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
 
     // CHECKED: 1.10.2-12.18.1.2092
     boolean providePlayerCube(boolean canGenerate) {
+        return providePlayerCube(canGenerate, false);
+    }
+
+    /**
+     * @param deferFirstLight if true, a newly generated cube is only populated and false is returned while it still needs
+     * initial light. {@link PlayerCubeMap} then lights these cubes together.
+     */
+    boolean providePlayerCube(boolean canGenerate, boolean deferFirstLight) {
         if (loading) {
             return false;
         }
@@ -165,13 +175,18 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
 
         playerCubeMap.getWorldServer().profiler.startSection("getCube");
         if (canGenerate) {
-            this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, ICubeProviderServer.Requirement.LIGHT);
+            this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ,
+                    deferFirstLight ? ICubeProviderServer.Requirement.POPULATE : ICubeProviderServer.Requirement.LIGHT);
         } else {
             this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, ICubeProviderServer.Requirement.LOAD);
         }
         if (this.cube != null) {
             this.cube.getTickets().add(this);
         }
+        if (canGenerate && deferFirstLight && this.cube != null && !this.cube.isInitialLightingDone()) {
+            playerCubeMap.getWorldServer().profiler.endSection();
+            return false;
+        }
         playerCubeMap.getWorldServer().profiler.endStartSection("light");
         if (this.cube != null) {
             LightingManager.CubeLightUpdateInfo info = this.cube.getCubeLightUpdateInfo();
@@ -185,6 +200,13 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         return this.cube != null;
     }
 
+    /**
+     * Returns true if loading the cube finished and it doesn't exist yet
+     */
+    boolean needsGeneration() {
+        return !loading && cube == null;
+    }
+
     @Override public boolean isSentToPlayers() {
         return sentToPlayers;
     }
@@ -246,11 +268,8 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         if (this.dirtyBlocks.isEmpty()) {
             playerCubeMap.addToUpdateEntry(this);
         }
-        // If the number of changes is above clumpingThreshold
-        // we send the whole cube, but to decrease network usage
-        // forge sends only TEs that have changed,
-        // so we need to know all changed blocks. So add everything
-        // it's a set so no need to check for duplicates
+        // all changed blocks are needed to send them as deltas, and to send only
+        // TEs that have changed. It's a set so no need to check for duplicates
         this.dirtyBlocks.add((short) AddressTools.getLocalAddress(localX, localY, localZ));
     }
 
@@ -267,12 +286,20 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
 
         World world = this.cube.getWorld();
 
-        if (this.dirtyBlocks.size() >= ForgeModContainer.clumpingThreshold) {
+        IMessage blockChanges;
+        if (this.dirtyBlocks.size() < ForgeModContainer.clumpingThreshold) {
+            blockChanges = new PacketCubeBlockChange(this.cube, this.dirtyBlocks);
+        } else {
+            // many changes, send only the changes if that's smaller than the whole cube
+            PacketCubeBlockDeltas deltas = new PacketCubeBlockDeltas(this.cube, this.dirtyBlocks);
+            blockChanges = deltas.isSmallerThanFullCube() ? deltas : null;
+        }
+        if (blockChanges == null) {
             // send whole cube
             this.players.forEach(entry -> playerCubeMap.scheduleSendCubeToPlayer(cube, entry));
         } else {
             // send all the dirty blocks
-            sendPacketToAllPlayers(new PacketCubeBlockChange(this.cube, this.dirtyBlocks));
+            sendPacketToAllPlayers(blockChanges);
             // send the block entites on those blocks too
             this.dirtyBlocks.forEach(localAddress -> {
                 BlockPos pos = cube.localAddressToBlockPos(localAddress);
@@ -298,6 +325,10 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         sendPacketToAllPlayers(packet);
     }
 
+    List<EntityPlayerMP> getPlayers() {
+        return this.players;
+    }
+
     boolean containsPlayer(EntityPlayerMP player) {
         return this.players.contains(player);
     }
@@ -364,16 +395,27 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
 
     private void sendPacketToAllPlayers(Packet<?> packet) {
         for (EntityPlayerMP entry : this.players) {
+            if (isWaitingForCube(entry)) {
+                continue;
+            }
             entry.connection.sendPacket(packet);
         }
     }
 
     @Override public void sendPacketToAllPlayers(IMessage packet) {
         for (EntityPlayerMP entry : this.players) {
+            if (isWaitingForCube(entry)) {
+                continue;
+            }
             PacketDispatcher.sendTo(packet, entry);
         }
     }
 
+    // the player will get the current cube state when it's sent, updates before that would be applied to a missing cube
+    private boolean isWaitingForCube(EntityPlayerMP player) {
+        return this.cube != null && playerCubeMap.isCubeSendScheduled(this.cube, player);
+    }
+
     CubePos getCubePos() {
         return cubePos;
     }
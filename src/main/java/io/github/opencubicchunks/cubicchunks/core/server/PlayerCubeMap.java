@@ -32,13 +32,12 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import io.github.opencubicchunks.cubicchunks.api.util.ConcurrentXYZMap;
+import io.github.opencubicchunks.cubicchunks.api.util.ConcurrentXZMap;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
-import io.github.opencubicchunks.cubicchunks.api.util.XZMap;
 import io.github.opencubicchunks.cubicchunks.api.world.CubeWatchEvent;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
@@ -53,6 +52,8 @@ import io.github.opencubicchunks.cubicchunks.core.util.WatchersSortingList;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CubeSelector;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CuboidalCubeSelector;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectSet;
@@ -77,6 +78,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -130,7 +134,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Mapping of Cube positions to CubeWatchers (Cube equivalent of PlayerManager.PlayerInstance).
      * Contains cube positions of all cubes loaded by players.
      */
-    private final XYZMap<CubeWatcher> cubeWatchers = new XYZMap<>(0.7f, 25 * 25 * 25);
+    private final ConcurrentXYZMap<CubeWatcher> cubeWatchers = new ConcurrentXYZMap<>(0.7f, 25 * 25 * 25);
 
     /**
      * Mapping of Column positions to ColumnWatchers.
@@ -138,7 +142,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Exists for compatibility with vanilla and to send ColumnLoad/Unload packets to clients.
      * Columns cannot be managed by client because they have separate data, like heightmap and biome array.
      */
-    private final XZMap<ColumnWatcher> columnWatchers = new XZMap<>(0.7f, 25 * 25);
+    private final ConcurrentXZMap<ColumnWatcher> columnWatchers = new ConcurrentXZMap<>(0.7f, 25 * 25);
 
     /**
      * All cubeWatchers that have pending block updates to send.
@@ -195,7 +199,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
     private final CubeProviderServer cubeCache;
 
-    private final Multimap<EntityPlayerMP, Cube> cubesToSend = Multimaps.newSetMultimap(new HashMap<>(), HashSet::new);
+    private final Map<EntityPlayerMP, PlayerCubeSendQueue> cubesToSend = new HashMap<>();
 
     // these player adds will be processed on the next tick
     // this exists as temporary workaround to player respawn code calling addPlayer() before spawning
@@ -365,9 +369,20 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         if (!this.cubesToGenerate.isEmpty()) {
             getWorldServer().profiler.startSection("cubes");
 
+            if (this.cubeCache.canGenerateCubesAsync()) {
+                getWorldServer().profiler.startSection("queueAsync");
+                queueAsyncCubeGeneration();
+                getWorldServer().profiler.endSection();
+            }
             long stopTime = System.nanoTime() + 50000000L;
             int chunksToGenerate = CubicChunksConfig.maxGeneratedCubesPerTick;
+            getWorldServer().profiler.startSection("stacks");
+            chunksToGenerate -= generateCubeStacks(chunksToGenerate, stopTime);
+            getWorldServer().profiler.endSection();
             Iterator<CubeWatcher> iterator = this.cubesToGenerate.iterator();
+            // with multiple first light threads, new cubes are lit together after generating them, and sent next tick
+            boolean batchFirstLight = CubicChunksConfig.firstLightThreads > 0;
+            List<Cube> toLight = new ArrayList<>();
 
             while (iterator.hasNext() && chunksToGenerate >= 0 && System.nanoTime() < stopTime) {
                 CubeWatcher watcher = iterator.next();
@@ -376,8 +391,12 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 if (!success) {
                     boolean canGenerate = watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS);
                     getWorldServer().profiler.startSection("generate");
-                    success = watcher.providePlayerCube(canGenerate);
+                    success = watcher.providePlayerCube(canGenerate, batchFirstLight);
                     getWorldServer().profiler.endSection();
+                    if (!success && batchFirstLight && watcher.getCube() != null && !watcher.getCube().isInitialLightingDone()) {
+                        toLight.add(watcher.getCube());
+                        --chunksToGenerate;
+                    }
                 }
 
                 if (success) {
@@ -391,6 +410,11 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                     --chunksToGenerate;
                 }
             }
+            if (!toLight.isEmpty()) {
+                getWorldServer().profiler.startSection("firstLight");
+                this.cubeCache.calculateDiffuseSkylight(toLight);
+                getWorldServer().profiler.endSection();
+            }
 
             getWorldServer().profiler.endSection(); // chunks
         }
@@ -403,16 +427,15 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         }
         if (!this.cubesToSendToClients.isEmpty()) {
             getWorldServer().profiler.startSection("cubes");
-            int toSend = 81 * 8;//sending cubes, so send 8x more at once
+            // this only queues the cubes, the amount of cubes actually sent is limited per player in sendCubes
             Iterator<CubeWatcher> it = this.cubesToSendToClients.iterator();
 
-            while (it.hasNext() && toSend >= 0) {
+            while (it.hasNext()) {
                 CubeWatcher playerInstance = it.next();
 
                 CubeWatcher.SendToPlayersResult state = playerInstance.sendToPlayers();
                 if (state == CubeWatcher.SendToPlayersResult.ALREADY_DONE || state == CubeWatcher.SendToPlayersResult.CUBE_SENT) {
                     it.remove();
-                    --toSend;
                 } else if (state == CubeWatcher.SendToPlayersResult.WAITING_LIGHT) {
                     if (!cubesToGenerate.contains(playerInstance)) {
                         cubesToGenerate.appendToStart(playerInstance);
@@ -432,9 +455,19 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             }
         }
         getWorldServer().profiler.endStartSection("sendCubes");//unload
-        for (EntityPlayerMP player : cubesToSend.keySet()) {
-            Collection<Cube> cubes = cubesToSend.get(player);
-            PacketCubes packet = new PacketCubes(new ArrayList<>(cubes));
+        Iterator<PlayerCubeSendQueue> sendQueues = cubesToSend.values().iterator();
+        while (sendQueues.hasNext()) {
+            PlayerCubeSendQueue queue = sendQueues.next();
+            EntityPlayerMP player = queue.getPlayer();
+            if (player.hasDisconnected()) {
+                sendQueues.remove();
+                continue;
+            }
+            List<Cube> cubes = queue.poll();
+            if (cubes.isEmpty()) {
+                continue;
+            }
+            PacketCubes packet = new PacketCubes(cubes);
             PacketDispatcher.sendTo(packet, player);
             //Sending entities per cube.
             for (Cube cube : cubes) {
@@ -444,7 +477,6 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 MinecraftForge.EVENT_BUS.post(new CubeWatchEvent(cube, cube.getCoords(), watcher, player));
             }
         }
-        cubesToSend.clear();
         getWorldServer().profiler.endSection();//sendCubes
         getWorldServer().profiler.endSection();//playerCubeMapTick
     }
@@ -467,11 +499,15 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * If it can't load it or send it to client - adds it to cubesToGenerate/cubesToSendToClients
      */
     private CubeWatcher getOrCreateCubeWatcher(@Nonnull CubePos cubePos) {
-        CubeWatcher cubeWatcher = this.cubeWatchers.get(cubePos.getX(), cubePos.getY(), cubePos.getZ());
+        return getOrCreateCubeWatcher(cubePos.getX(), cubePos.getY(), cubePos.getZ());
+    }
+
+    private CubeWatcher getOrCreateCubeWatcher(int cubeX, int cubeY, int cubeZ) {
+        CubeWatcher cubeWatcher = this.cubeWatchers.get(cubeX, cubeY, cubeZ);
 
         if (cubeWatcher == null) {
             // make a new watcher
-            cubeWatcher = new CubeWatcher(this, cubePos);
+            cubeWatcher = new CubeWatcher(this, new CubePos(cubeX, cubeY, cubeZ));
             this.cubeWatchers.put(cubeWatcher);
 
 
@@ -496,9 +532,13 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Always creates the Column.
      */
     private ColumnWatcher getOrCreateColumnWatcher(ChunkPos chunkPos) {
-        ColumnWatcher columnWatcher = this.columnWatchers.get(chunkPos.x, chunkPos.z);
+        return getOrCreateColumnWatcher(chunkPos.x, chunkPos.z);
+    }
+
+    private ColumnWatcher getOrCreateColumnWatcher(int cubeX, int cubeZ) {
+        ColumnWatcher columnWatcher = this.columnWatchers.get(cubeX, cubeZ);
         if (columnWatcher == null) {
-            columnWatcher = new ColumnWatcher(this, chunkPos);
+            columnWatcher = new ColumnWatcher(this, new ChunkPos(cubeX, cubeZ));
             this.columnWatchers.put(columnWatcher);
             if (columnWatcher.getChunk() == null) {
                 this.columnsToGenerate.appendToEnd(columnWatcher);
@@ -602,6 +642,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 .filter(watcher->watcher.containsPlayer(player))
                 .forEach(watcher->watcher.removePlayer(player));
         this.players.remove(player.getEntityId());
+        this.cubesToSend.remove(player);
         this.setNeedSort();
     }
 
@@ -644,48 +685,83 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         this.chunkGc.tick();
     }
 
-    private void updatePlayer(PlayerWrapper entry, CubePos oldPos, CubePos newPos) {
-        getWorldServer().profiler.startSection("updateMovedPlayer");
-        Set<CubePos> cubesToRemove = new HashSet<>();
-        Set<CubePos> cubesToLoad = new HashSet<>();
-        Set<ChunkPos> columnsToRemove = new HashSet<>();
-        Set<ChunkPos> columnsToLoad = new HashSet<>();
-
-        getWorldServer().profiler.startSection("findChanges");
-        // calculate new visibility
-        this.cubeSelector.findChanged(oldPos, newPos, horizontalViewDistance, verticalViewDistance, cubesToRemove, cubesToLoad, columnsToRemove,
-                columnsToLoad);
-
-        getWorldServer().profiler.endStartSection("createColumns");
-        //order is important, columns first
-        columnsToLoad.forEach(pos -> {
-            ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(pos);
-            assert columnWatcher.getPos().equals(pos);
-            columnWatcher.addPlayer(entry.playerEntity);
-        });
-        getWorldServer().profiler.endStartSection("createCubes");
-        cubesToLoad.forEach(pos -> {
-            CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(pos);
-            assert cubeWatcher.getCubePos().equals(pos);
-            cubeWatcher.addPlayer(entry.playerEntity);
-        });
-        getWorldServer().profiler.endStartSection("removeCubes");
-        cubesToRemove.forEach(pos -> {
-            CubeWatcher cubeWatcher = this.getCubeWatcher(pos);
-            if (cubeWatcher != null) {
-                assert cubeWatcher.getCubePos().equals(pos);
-                cubeWatcher.removePlayer(entry.playerEntity);
+    /**
+     * Starts generating blocks of the cubes next in line for generation on worker threads, so that they are ready by the time the
+     * server thread gets to them. At most twice the amount of cubes generated per tick are queued at once.
+     */
+    private void queueAsyncCubeGeneration() {
+        int maxQueued = Math.max(1, CubicChunksConfig.maxGeneratedCubesPerTick) * 2;
+        int maxChecked = maxQueued * 4;
+        Iterator<CubeWatcher> iterator = this.cubesToGenerate.iterator();
+        for (int i = 0; i < maxChecked && iterator.hasNext() && this.cubeCache.getQueuedCubeGenerationCount() < maxQueued; i++) {
+            CubeWatcher watcher = iterator.next();
+            if (watcher.needsGeneration() && watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS)) {
+                CubePos pos = watcher.getCubePos();
+                this.cubeCache.generateCubeAsync(pos.getX(), pos.getY(), pos.getZ());
             }
-        });
-        getWorldServer().profiler.endStartSection("removeColumns");
-        columnsToRemove.forEach(pos -> {
-            ColumnWatcher columnWatcher = this.getColumnWatcher(pos);
-            if (columnWatcher != null) {
-                assert columnWatcher.getPos().equals(pos);
-                columnWatcher.removePlayer(entry.playerEntity);
+        }
+    }
+
+    /**
+     * Generates blocks of cubes next in line for generation that are on top of each other with one generator call per stack, so
+     * that the generator can share work between cubes of the same column.
+     */
+    private int generateCubeStacks(int maxCubes, long stopTime) {
+        // keeps the order of cubesToGenerate, so stacks closer to players are generated first
+        Map<ChunkPos, IntArrayList> stacks = new LinkedHashMap<>();
+        Iterator<CubeWatcher> iterator = this.cubesToGenerate.iterator();
+        for (int i = 0; i < maxCubes && iterator.hasNext(); i++) {
+            CubeWatcher watcher = iterator.next();
+            if (watcher.needsGeneration() && watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS)) {
+                CubePos pos = watcher.getCubePos();
+                stacks.computeIfAbsent(pos.chunkPos(), p -> new IntArrayList()).add(pos.getY());
             }
-        });
-        getWorldServer().profiler.endSection();//removeColumns
+        }
+        int generated = 0;
+        for (Map.Entry<ChunkPos, IntArrayList> entry : stacks.entrySet()) {
+            if (generated >= maxCubes || System.nanoTime() >= stopTime) {
+                break;
+            }
+            IntArrayList cubesY = entry.getValue();
+            if (cubesY.size() < 2) {
+                continue;
+            }
+            IntArrays.quickSort(cubesY.elements(), 0, cubesY.size());
+            int start = 0;
+            for (int i = 1; i <= cubesY.size(); i++) {
+                if (i < cubesY.size() && cubesY.getInt(i) == cubesY.getInt(i - 1) + 1) {
+                    continue;
+                }
+                if (i - start >= 2) {
+                    generated += this.cubeCache.generateCubes(entry.getKey().x, entry.getKey().z, cubesY.getInt(start), cubesY.getInt(i - 1));
+                }
+                start = i;
+            }
+        }
+        return generated;
+    }
+
+    private void updatePlayer(PlayerWrapper entry, CubePos oldPos, CubePos newPos) {
+        getWorldServer().profiler.startSection("updateMovedPlayer");
+        EntityPlayerMP player = entry.playerEntity;
+
+        // the selector calls these in order: columns to load, cubes to load, cubes to remove, columns to remove
+        // order is important, columns first
+        this.cubeSelector.findChanged(oldPos, newPos, horizontalViewDistance, verticalViewDistance,
+                (x, y, z) -> {
+                    CubeWatcher cubeWatcher = this.cubeWatchers.get(x, y, z);
+                    if (cubeWatcher != null) {
+                        cubeWatcher.removePlayer(player);
+                    }
+                },
+                (x, y, z) -> this.getOrCreateCubeWatcher(x, y, z).addPlayer(player),
+                (x, z) -> {
+                    ColumnWatcher columnWatcher = this.columnWatchers.get(x, z);
+                    if (columnWatcher != null) {
+                        columnWatcher.removePlayer(player);
+                    }
+                },
+                (x, z) -> this.getOrCreateColumnWatcher(x, z).addPlayer(player));
         getWorldServer().profiler.endSection();//updateMovedPlayer
     }
 
@@ -698,6 +774,15 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 columnWatcher.isSentToPlayers();
     }
 
+    /**
+     * Returns the players watching the cube at the given coordinates. Only players in this list can start tracking entities
+     * in that cube. The returned list must not be modified.
+     */
+    public List<EntityPlayerMP> getPlayersWatchingCube(int cubeX, int cubeY, int cubeZ) {
+        CubeWatcher watcher = this.cubeWatchers.get(cubeX, cubeY, cubeZ);
+        return watcher == null ? Collections.emptyList() : watcher.getPlayers();
+    }
+
     public boolean isPlayerWatchingCube(EntityPlayerMP player, int cubeX, int cubeY, int cubeZ) {
         CubeWatcher watcher = this.getCubeWatcher(new CubePos(cubeX, cubeY, cubeZ));
         return watcher != null &&
@@ -823,6 +908,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         this.cubesToSendToClients.remove(cubeWatcher);
         if (cubeWatcher.getCube() != null) {
             cubeWatcher.getCube().getTickets().remove(cubeWatcher); // remove the ticket, so this Cube can unload
+        } else {
+            this.cubeCache.cancelCubeGeneration(cubePos.getX(), cubePos.getY(), cubePos.getZ());
         }
         //don't unload, ChunkGc unloads chunks
     }
@@ -837,11 +924,22 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     }
 
     public void scheduleSendCubeToPlayer(Cube cube, EntityPlayerMP player) {
-        cubesToSend.put(player, cube);
+        cubesToSend.computeIfAbsent(player, PlayerCubeSendQueue::new).add(cube);
     }
 
     public void removeSchedulesSendCubeToPlayer(Cube cube, EntityPlayerMP player) {
-        cubesToSend.remove(player, cube);
+        PlayerCubeSendQueue queue = cubesToSend.get(player);
+        if (queue != null) {
+            queue.remove(cube);
+        }
+    }
+
+    /**
+     * Returns true if the cube is waiting to be sent to the player
+     */
+    boolean isCubeSendScheduled(Cube cube, EntityPlayerMP player) {
+        PlayerCubeSendQueue queue = cubesToSend.get(player);
+        return queue != null && queue.contains(cube);
     }
 
     @Nullable public CubeWatcher getCubeWatcher(CubePos pos) {
@@ -0,0 +1,199 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.channel.Channel;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Cubes waiting to be sent to one player.
+ * <p>
+ * The amount of cubes sent each tick adapts to how fast the client's connection takes data: it doubles while the netty
+ * channel stays writable and there are more cubes waiting, and it's halved whenever the channel is backed up. Nearest cubes
+ * in front of the player are sent first.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class PlayerCubeSendQueue {
+
+    private static final int MIN_CUBES_PER_TICK = 8;
+    // cos of the half-angle of the cone treated as "in view", a bit wider than the default field of view
+    private static final double VIEW_CONE_COS = 0.5;
+    // cubes outside of the view cone are sent as if they were twice as far away
+    private static final double OUT_OF_VIEW_DISTANCE_SQ_FACTOR = 4;
+
+    private final EntityPlayerMP player;
+    private final ObjectLinkedOpenHashSet<Cube> cubes = new ObjectLinkedOpenHashSet<>();
+    private int cubesPerTick = MIN_CUBES_PER_TICK;
+    // max-heap of the cubes selected by poll so far, keyed by priority, reused between ticks
+    private double[] heapPriorities = new double[MIN_CUBES_PER_TICK];
+    private Cube[] heapCubes = new Cube[MIN_CUBES_PER_TICK];
+
+    PlayerCubeSendQueue(EntityPlayerMP player) {
+        this.player = player;
+    }
+
+    EntityPlayerMP getPlayer() {
+        return player;
+    }
+
+    void add(Cube cube) {
+        cubes.add(cube);
+    }
+
+    void remove(Cube cube) {
+        cubes.remove(cube);
+    }
+
+    boolean contains(Cube cube) {
+        return cubes.contains(cube);
+    }
+
+    boolean isEmpty() {
+        return cubes.isEmpty();
+    }
+
+    /**
+     * Removes and returns the cubes to send to the player this tick
+     */
+    List<Cube> poll() {
+        if (cubes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Channel channel = player.connection.getNetworkManager().channel();
+        if (channel != null && !channel.isWritable()) {
+            cubesPerTick = Math.max(MIN_CUBES_PER_TICK, cubesPerTick / 2);
+            return Collections.emptyList();
+        }
+        int maxCubesPerTick = Math.max(MIN_CUBES_PER_TICK, CubicChunksConfig.maxCubesSentPerPlayerPerTick);
+        List<Cube> toSend;
+        if (cubes.size() <= cubesPerTick) {
+            toSend = new ArrayList<>(cubes);
+            cubes.clear();
+        } else {
+            toSend = pollNearest(cubesPerTick);
+            cubesPerTick = Math.min(maxCubesPerTick, cubesPerTick * 2);
+        }
+        return toSend;
+    }
+
+    /**
+     * Removes and returns the given amount of cubes with the lowest priority values, lowest first. Keeps only the best cubes
+     * seen so far in a bounded max-heap, so each priority is computed once and the whole queue is never sorted.
+     */
+    private List<Cube> pollNearest(int count) {
+        if (heapCubes.length < count) {
+            heapPriorities = new double[count];
+            heapCubes = new Cube[count];
+        }
+        double[] priorities = heapPriorities;
+        Cube[] heap = heapCubes;
+        Vec3d look = player.getLookVec();
+        int size = 0;
+        for (Cube cube : cubes) {
+            double priority = getPriority(cube, look);
+            if (size < count) {
+                siftUp(priorities, heap, size, priority, cube);
+                size++;
+            } else if (priority < priorities[0]) {
+                siftDown(priorities, heap, size, priority, cube);
+            }
+        }
+        // take the largest out of the heap one by one, filling the result from the end
+        Cube[] selected = new Cube[size];
+        for (int i = size - 1; i >= 0; i--) {
+            selected[i] = heap[0];
+            siftDown(priorities, heap, i, priorities[i], heap[i]);
+            heap[i] = null;
+        }
+        for (Cube cube : selected) {
+            cubes.remove(cube);
+        }
+        return Arrays.asList(selected);
+    }
+
+    private static void siftUp(double[] priorities, Cube[] heap, int index, double priority, Cube cube) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (priorities[parent] >= priority) {
+                break;
+            }
+            priorities[index] = priorities[parent];
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        priorities[index] = priority;
+        heap[index] = cube;
+    }
+
+    /**
+     * Replaces the root of the heap of the given size with the given cube and restores the heap order
+     */
+    private static void siftDown(double[] priorities, Cube[] heap, int size, double priority, Cube cube) {
+        int index = 0;
+        int child;
+        while ((child = 2 * index + 1) < size) {
+            if (child + 1 < size && priorities[child + 1] > priorities[child]) {
+                child++;
+            }
+            if (priorities[child] <= priority) {
+                break;
+            }
+            priorities[index] = priorities[child];
+            heap[index] = heap[child];
+            index = child;
+        }
+        if (size > 0) {
+            priorities[index] = priority;
+            heap[index] = cube;
+        }
+    }
+
+    /**
+     * Lower values are sent first
+     */
+    private double getPriority(Cube cube, Vec3d look) {
+        double dx = Coords.cubeToCenterBlock(cube.getX()) - player.posX;
+        double dy = Coords.cubeToCenterBlock(cube.getY()) - (player.posY + player.getEyeHeight());
+        double dz = Coords.cubeToCenterBlock(cube.getZ()) - player.posZ;
+        double distSq = dx * dx + dy * dy + dz * dz;
+        double dot = dx * look.x + dy * look.y + dz * look.z;
+        boolean inView = dot > 0 && dot * dot >= VIEW_CONE_COS * VIEW_CONE_COS * distSq;
+        return inView ? distSq : distSq * OUT_OF_VIEW_DISTANCE_SQ_FACTOR;
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Versioned binary layout for block and light data of a cube, stored as a single byte array tag instead of the vanilla-like
+ * "Sections" list when {@link CubicChunksConfig#compactCubeStorage} is enabled. Everything else, including entities and tile
+ * entities, stays NBT.
+ * <p>
+ * Block states are stored as global block state ids (see Block.BLOCK_STATE_IDS), so data can be converted without a block registry.
+ * Layout of version 1:
+ * <pre>
+ * byte          version
+ * varint        palette size N
+ * varint * N    palette block state ids
+ * byte          bits per entry: 0 if N == 1, otherwise 1, 2, 4, 8 or 16
+ * 4096 entries  palette indices, packed little end first, in the same block order as "Blocks" in NBT (index = y << 8 | z << 4 | x)
+ * byte * 2048   block light
+ * byte          1 if sky light follows, 0 otherwise
+ * byte * 2048   sky light
+ * </pre>
+ * Height maps stored with the cube are written as zigzag varint deltas between consecutive entries.
+ * <p>
+ * Cubes made of a single block state with uniform light (all air in the sky, all stone deep underground) don't use this layout
+ * at all, they are stored as a tiny "UniformBlocks" record instead. See {@link #getUniformStateId(IntUnaryOperator)}.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class CompactCubeFormat {
+
+    static final int VERSION = 1;
+
+    private static final int BLOCK_COUNT = 4096;
+    private static final int LIGHT_BYTES = 2048;
+
+    private CompactCubeFormat() {
+        throw new Error();
+    }
+
+    /**
+     * Encodes the blocks and light of a cube.
+     *
+     * @param stateIdAt returns block state id at the given block index
+     * @param blockLight block light nibble array data
+     * @param skyLight sky light nibble array data, or null if the world doesn't have sky light
+     * @return the encoded data
+     */
+    static byte[] writeBlocks(IntUnaryOperator stateIdAt, byte[] blockLight, @Nullable byte[] skyLight) {
+        Int2IntOpenHashMap idToIndex = new Int2IntOpenHashMap();
+        idToIndex.defaultReturnValue(-1);
+        IntArrayList palette = new IntArrayList();
+        char[] indices = new char[BLOCK_COUNT];
+
+        // long runs of the same block are by far the most common case, so avoid the map lookup for them
+        int lastId = -1;
+        int lastIndex = -1;
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            int id = stateIdAt.applyAsInt(i);
+            if (id != lastId) {
+                int index = idToIndex.get(id);
+                if (index < 0) {
+                    index = palette.size();
+                    palette.add(id);
+                    idToIndex.put(id, index);
+                }
+                lastId = id;
+                lastIndex = index;
+            }
+            indices[i] = (char) lastIndex;
+        }
+
+        int bits = bitsPerEntry(palette.size());
+        int size = 1 + varIntSize(palette.size()) + 1 + BLOCK_COUNT * bits / 8 + LIGHT_BYTES + 1 + (skyLight == null ? 0 : LIGHT_BYTES);
+        for (int i = 0; i < palette.size(); i++) {
+            size += varIntSize(palette.getInt(i));
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put((byte) VERSION);
+        writeVarInt(buf, palette.size());
+        for (int i = 0; i < palette.size(); i++) {
+            writeVarInt(buf, palette.getInt(i));
+        }
+        buf.put((byte) bits);
+        if (bits == 16) {
+            for (int i = 0; i < BLOCK_COUNT; i++) {
+                buf.putChar(indices[i]);
+            }
+        } else if (bits > 0) {
+            int perByte = 8 / bits;
+            for (int i = 0; i < BLOCK_COUNT; i += perByte) {
+                int packed = 0;
+                for (int j = 0; j < perByte; j++) {
+                    packed |= indices[i + j] << (j * bits);
+                }
+                buf.put((byte) packed);
+            }
+        }
+        buf.put(blockLight, 0, LIGHT_BYTES);
+        if (skyLight != null) {
+            buf.put((byte) 1);
+            buf.put(skyLight, 0, LIGHT_BYTES);
+        } else {
+            buf.put((byte) 0);
+        }
+        assert !buf.hasRemaining();
+        return buf.array();
+    }
+
+    /**
+     * Decodes data written by {@link #writeBlocks(IntUnaryOperator, byte[], byte[])}.
+     *
+     * @throws IllegalArgumentException if the data has unsupported version or is corrupted
+     */
+    static BlockData readBlocks(byte[] data) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            int version = buf.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported compact cube format version " + version);
+            }
+            int[] palette = new int[readVarInt(buf)];
+            for (int i = 0; i < palette.length; i++) {
+                palette[i] = readVarInt(buf);
+            }
+            int bits = buf.get();
+            if (bits != bitsPerEntry(palette.length)) {
+                throw new IllegalArgumentException("Invalid bits per entry " + bits + " for palette size " + palette.length);
+            }
+            int indicesOffset = buf.position();
+            buf.position(indicesOffset + BLOCK_COUNT * bits / 8);
+
+            byte[] blockLight = new byte[LIGHT_BYTES];
+            buf.get(blockLight);
+            byte[] skyLight = null;
+            if (buf.get() != 0) {
+                skyLight = new byte[LIGHT_BYTES];
+                buf.get(skyLight);
+            }
+            return new BlockData(palette, bits, data, indicesOffset, blockLight, skyLight);
+        } catch (RuntimeException e) {
+            if (e instanceof IllegalArgumentException) {
+                throw e;
+            }
+            throw new IllegalArgumentException("Corrupted compact cube data", e);
+        }
+    }
+
+    /**
+     * Returns the block state id if all blocks have the same state, or -1 otherwise
+     */
+    static int getUniformStateId(IntUnaryOperator stateIdAt) {
+        int id = stateIdAt.applyAsInt(0);
+        for (int i = 1; i < BLOCK_COUNT; i++) {
+            if (stateIdAt.applyAsInt(i) != id) {
+                return -1;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Returns the light value if the whole nibble array has the same value, or -1 otherwise
+     */
+    static int getUniformLight(byte[] nibbles) {
+        byte first = nibbles[0];
+        if ((first & 0xF) != (first >> 4 & 0xF)) {
+            return -1;
+        }
+        for (int i = 1; i < LIGHT_BYTES; i++) {
+            if (nibbles[i] != first) {
+                return -1;
+            }
+        }
+        return first & 0xF;
+    }
+
+    static byte[] uniformLight(int value) {
+        byte[] nibbles = new byte[LIGHT_BYTES];
+        Arrays.fill(nibbles, (byte) (value | value << 4));
+        return nibbles;
+    }
+
+    static byte[] writeHeightMap(int[] heights) {
+        int size = 0;
+        int prev = 0;
+        for (int height : heights) {
+            size += varIntSize(zigZag(height - prev));
+            prev = height;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        prev = 0;
+        for (int height : heights) {
+            writeVarInt(buf, zigZag(height - prev));
+            prev = height;
+        }
+        return buf.array();
+    }
+
+    static int[] readHeightMap(byte[] data, int length) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int[] heights = new int[length];
+        int prev = 0;
+        for (int i = 0; i < length; i++) {
+            int delta = readVarInt(buf);
+            prev += (delta >>> 1) ^ -(delta & 1);
+            heights[i] = prev;
+        }
+        return heights;
+    }
+
+    private static int bitsPerEntry(int paletteSize) {
+        if (paletteSize <= 1) {
+            return 0;
+        }
+        if (paletteSize <= 2) {
+            return 1;
+        }
+        if (paletteSize <= 4) {
+            return 2;
+        }
+        if (paletteSize <= 16) {
+            return 4;
+        }
+        if (paletteSize <= 256) {
+            return 8;
+        }
+        return 16;
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarInt(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static int readVarInt(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("VarInt too big");
+    }
+
+    /**
+     * Decoded block and light data. Palette indices are read directly from the encoded array.
+     */
+    static final class BlockData {
+
+        private final int[] palette;
+        private final int bits;
+        private final byte[] data;
+        private final int indicesOffset;
+        private final byte[] blockLight;
+        @Nullable private final byte[] skyLight;
+
+        private BlockData(int[] palette, int bits, byte[] data, int indicesOffset, byte[] blockLight, @Nullable byte[] skyLight) {
+            this.palette = palette;
+            this.bits = bits;
+            this.data = data;
+            this.indicesOffset = indicesOffset;
+            this.blockLight = blockLight;
+            this.skyLight = skyLight;
+        }
+
+        int getPaletteSize() {
+            return palette.length;
+        }
+
+        int getPaletteStateId(int paletteIndex) {
+            return palette[paletteIndex];
+        }
+
+        int getPaletteIndex(int blockIndex) {
+            switch (bits) {
+                case 0:
+                    return 0;
+                case 16:
+                    int offset = indicesOffset + blockIndex * 2;
+                    return (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+                default:
+                    int perByte = 8 / bits;
+                    int packed = data[indicesOffset + blockIndex / perByte] & 0xFF;
+                    return (packed >>> ((blockIndex % perByte) * bits)) & ((1 << bits) - 1);
+            }
+        }
+
+        int getStateId(int blockIndex) {
+            return palette[getPaletteIndex(blockIndex)];
+        }
+
+        byte[] getBlockLight() {
+            return blockLight;
+        }
+
+        @Nullable byte[] getSkyLight() {
+            return skyLight;
+        }
+
+        @Override public String toString() {
+            return "CompactCubeFormat.BlockData{palette=" + Arrays.toString(palette) + ", bits=" + bits + '}';
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.regionlib.impl.SaveCubeColumns;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraftforge.common.util.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntUnaryOperator;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Converts block data of already saved cubes between the vanilla-like NBT sections and {@link CompactCubeFormat}
+ * (see {@link CubicChunksConfig#compactCubeStorage}). Works directly on block state ids, so it doesn't need the game to be running.
+ * <p>
+ * Usage: {@code CubeStorageConverter <dimension save directory> [compact|nbt]}. The world must not be open while converting.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class CubeStorageConverter {
+
+    private static final int HEIGHT_MAP_SIZE = 256;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2 || (args.length == 2 && !args[1].equals("compact") && !args[1].equals("nbt"))) {
+            System.err.println("Usage: CubeStorageConverter <dimension save directory> [compact|nbt]");
+            System.exit(1);
+            return;
+        }
+        Path path = Paths.get(args[0]);
+        if (!Files.isDirectory(path)) {
+            System.err.println("Not a directory: " + path);
+            System.exit(1);
+            return;
+        }
+        boolean toCompact = args.length == 1 || args[1].equals("compact");
+        int converted = convert(path, toCompact);
+        CubicChunks.LOGGER.info("Converted {} cubes in {}", converted, path);
+    }
+
+    /**
+     * Converts all cubes saved in the given dimension directory.
+     *
+     * @param dimensionSaveDir directory containing region3d and region2d directories
+     * @param toCompact true to convert to the compact format, false to convert back to NBT sections
+     * @return the amount of cubes that have been converted
+     */
+    public static int convert(Path dimensionSaveDir, boolean toCompact) throws IOException {
+        try (SaveCubeColumns save = SaveCubeColumns.create(dimensionSaveDir)) {
+            // collect keys first to avoid modifying regions while iterating over them
+            List<EntryLocation3D> keys = new ArrayList<>();
+            save.getSaveSection3D().forAllKeys(keys::add);
+
+            int converted = 0;
+            for (EntryLocation3D key : keys) {
+                Optional<ByteBuffer> buf = save.load(key, true);
+                if (!buf.isPresent()) {
+                    continue;
+                }
+                try {
+                    NBTTagCompound nbt = IONbtReader.readNbtBytes(buf.get());
+                    if (convertCube(nbt, toCompact)) {
+                        save.save3d(key, ByteBuffer.wrap(IONbtWriter.writeNbtBytes(nbt)));
+                        converted++;
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    CubicChunks.LOGGER.error(String.format("Unable to convert cube %d, %d, %d", key.getEntryX(), key.getEntryY(), key.getEntryZ()), e);
+                }
+            }
+            return converted;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Converts block data of a single cube in place.
+     *
+     * @return true if anything has been changed
+     */
+    static boolean convertCube(NBTTagCompound cubeNbt, boolean toCompact) {
+        NBTTagCompound level = cubeNbt.getCompoundTag("Level");
+        NBTTagCompound lightingInfo = level.getCompoundTag("LightingInfo");
+        boolean changed = false;
+        if (toCompact) {
+            if (level.hasKey("Sections", Constants.NBT.TAG_LIST)) {
+                NBTTagCompound section = level.getTagList("Sections", Constants.NBT.TAG_COMPOUND).getCompoundTagAt(0);
+                byte[] skyLight = section.hasKey("SkyLight", Constants.NBT.TAG_BYTE_ARRAY) ? section.getByteArray("SkyLight") : null;
+                IntUnaryOperator stateIds = IONbtReader.readSectionStateIds(section);
+                NBTTagCompound uniform = IONbtWriter.writeUniformBlocks(stateIds, section.getByteArray("BlockLight"), skyLight);
+                if (uniform != null) {
+                    level.setTag("UniformBlocks", uniform);
+                } else {
+                    level.setByteArray("CompactBlocks", CompactCubeFormat.writeBlocks(stateIds, section.getByteArray("BlockLight"), skyLight));
+                }
+                level.removeTag("Sections");
+                changed = true;
+            }
+            if (lightingInfo.hasKey("LastHeightMap", Constants.NBT.TAG_INT_ARRAY)) {
+                lightingInfo.setByteArray("LastHeightMapDeltas", CompactCubeFormat.writeHeightMap(lightingInfo.getIntArray("LastHeightMap")));
+                lightingInfo.removeTag("LastHeightMap");
+                changed = true;
+            }
+        } else {
+            if (level.hasKey("UniformBlocks", Constants.NBT.TAG_COMPOUND)) {
+                NBTTagCompound uniform = level.getCompoundTag("UniformBlocks");
+                int stateId = uniform.getInteger("BlockState");
+                byte[] skyLight = uniform.hasKey("SkyLight") ? CompactCubeFormat.uniformLight(uniform.getByte("SkyLight")) : null;
+                NBTTagList sections = new NBTTagList();
+                sections.appendTag(IONbtWriter.writeSection(i -> stateId, CompactCubeFormat.uniformLight(uniform.getByte("BlockLight")), skyLight));
+                level.setTag("Sections", sections);
+                level.removeTag("UniformBlocks");
+                changed = true;
+            }
+            if (level.hasKey("CompactBlocks", Constants.NBT.TAG_BYTE_ARRAY)) {
+                CompactCubeFormat.BlockData blocks = CompactCubeFormat.readBlocks(level.getByteArray("CompactBlocks"));
+                NBTTagList sections = new NBTTagList();
+                sections.appendTag(IONbtWriter.writeSection(blocks::getStateId, blocks.getBlockLight(), blocks.getSkyLight()));
+                level.setTag("Sections", sections);
+                level.removeTag("CompactBlocks");
+                changed = true;
+            }
+            if (lightingInfo.hasKey("LastHeightMapDeltas", Constants.NBT.TAG_BYTE_ARRAY)) {
+                lightingInfo.setIntArray("LastHeightMap",
+                        CompactCubeFormat.readHeightMap(lightingInfo.getByteArray("LastHeightMapDeltas"), HEIGHT_MAP_SIZE));
+                lightingInfo.removeTag("LastHeightMapDeltas");
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
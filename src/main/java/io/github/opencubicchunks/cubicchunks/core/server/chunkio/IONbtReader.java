@@ -35,8 +35,14 @@ import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.tileentity.TileEntity;
@@ -48,6 +54,13 @@ import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.common.util.Constants;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.IntUnaryOperator;
+import java.util.zip.GZIPInputStream;
+
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -55,6 +68,36 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class IONbtReader {
 
+    private static final int INFLATE_BUFFER_SIZE = 8192;
+
+    /**
+     * Reads gzip compressed NBT directly from the remaining content of the buffer, without copying it into an array first.
+     * Works for both heap and direct buffers.
+     */
+    static NBTTagCompound readNbtBytes(ByteBuffer buf) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new ByteBufInputStream(Unpooled.wrappedBuffer(buf)), INFLATE_BUFFER_SIZE)))) {
+            return CompressedStreamTools.read(in);
+        }
+    }
+
+    /**
+     * Checks whether the NBT has been written with the current version of vanilla and all mod data fixers, in which case running
+     * it through the data fixer would only walk the whole tag without changing anything.
+     *
+     * @param nbt the cube or column NBT
+     * @param currentVersionData tag containing DataVersion and ForgeDataVersion as they would be written now
+     */
+    static boolean isDataVersionCurrent(NBTTagCompound nbt, NBTTagCompound currentVersionData) {
+        for (String key : currentVersionData.getKeySet()) {
+            NBTBase current = currentVersionData.getTag(key);
+            if (!current.equals(nbt.getTag(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Nullable
     static Chunk readColumn(World world, int x, int z, NBTTagCompound nbt) {
         NBTTagCompound level = nbt.getCompoundTag("Level");
@@ -179,39 +222,117 @@ public class IONbtReader {
         return cube;
     }
 
-    @SuppressWarnings("deprecation") private static void readBlocks(NBTTagCompound nbt, World world, Cube cube) {
+    private static void readBlocks(NBTTagCompound nbt, World world, Cube cube) {
+        ExtendedBlockStorage ebs = readBlocks(nbt, cube.getY(), world.provider.hasSkyLight());
+        if (ebs != null) {
+            cube.setStorage(ebs);
+        }
+    }
+
+    /**
+     * Reads blocks and light of a cube in any of the formats written by
+     * {@link IONbtWriter#writeBlocks(ExtendedBlockStorage, boolean, boolean, NBTTagCompound)}
+     *
+     * @return the block storage, or null if the cube is empty
+     */
+    @SuppressWarnings("deprecation")
+    @Nullable
+    static ExtendedBlockStorage readBlocks(NBTTagCompound nbt, int cubeY, boolean hasSkyLight) {
+        if (nbt.hasKey("UniformBlocks", Constants.NBT.TAG_COMPOUND)) {
+            return readUniformBlocks(nbt.getCompoundTag("UniformBlocks"), cubeY, hasSkyLight);
+        }
+        if (nbt.hasKey("CompactBlocks", Constants.NBT.TAG_BYTE_ARRAY)) {
+            return readCompactBlocks(nbt.getByteArray("CompactBlocks"), cubeY, hasSkyLight);
+        }
         boolean isEmpty = !nbt.hasKey("Sections");// is this an empty cube?
         if (!isEmpty) {
             NBTTagList sectionList = nbt.getTagList("Sections", 10);
             nbt = sectionList.getCompoundTagAt(0);
 
-            ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()), cube.getWorld().provider.hasSkyLight());
-
-            byte[] abyte = nbt.getByteArray("Blocks");
-            NibbleArray data = new NibbleArray(nbt.getByteArray("Data"));
-            NibbleArray add = nbt.hasKey("Add", Constants.NBT.TAG_BYTE_ARRAY) ? new NibbleArray(nbt.getByteArray("Add")) : null;
-            NibbleArray add2neid = nbt.hasKey("Add2", Constants.NBT.TAG_BYTE_ARRAY) ? new NibbleArray(nbt.getByteArray("Add2")) : null;
+            ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), hasSkyLight);
 
+            IntUnaryOperator stateIds = readSectionStateIds(nbt);
             for (int i = 0; i < 4096; i++) {
                 int x = i & 15;
                 int y = i >> 8 & 15;
                 int z = i >> 4 & 15;
 
-                int toAdd = add == null ? 0 : add.getFromIndex(i);
-                toAdd = (toAdd & 0xF) | (add2neid == null ? 0 : add2neid.getFromIndex(i) << 4);
-                int id = (toAdd << 12) | ((abyte[i] & 0xFF) << 4) | data.getFromIndex(i);
-                ebs.getData().set(x, y, z, Block.BLOCK_STATE_IDS.getByValue(id));
+                ebs.getData().set(x, y, z, Block.BLOCK_STATE_IDS.getByValue(stateIds.applyAsInt(i)));
             }
 
             ebs.setBlockLight(new NibbleArray(nbt.getByteArray("BlockLight")));
 
-            if (world.provider.hasSkyLight()) {
+            if (hasSkyLight) {
                 ebs.setSkyLight(new NibbleArray(nbt.getByteArray("SkyLight")));
             }
 
             ebs.recalculateRefCounts();
-            cube.setStorage(ebs);
+            return ebs;
         }
+        return null;
+    }
+
+    /**
+     * Returns function giving the block state id at each block index of a vanilla-like NBT section
+     */
+    static IntUnaryOperator readSectionStateIds(NBTTagCompound section) {
+        byte[] abyte = section.getByteArray("Blocks");
+        NibbleArray data = new NibbleArray(section.getByteArray("Data"));
+        NibbleArray add = section.hasKey("Add", Constants.NBT.TAG_BYTE_ARRAY) ? new NibbleArray(section.getByteArray("Add")) : null;
+        NibbleArray add2neid = section.hasKey("Add2", Constants.NBT.TAG_BYTE_ARRAY) ? new NibbleArray(section.getByteArray("Add2")) : null;
+        return i -> {
+            int toAdd = add == null ? 0 : add.getFromIndex(i);
+            toAdd = (toAdd & 0xF) | (add2neid == null ? 0 : add2neid.getFromIndex(i) << 4);
+            return (toAdd << 12) | ((abyte[i] & 0xFF) << 4) | data.getFromIndex(i);
+        };
+    }
+
+    @SuppressWarnings("deprecation") private static ExtendedBlockStorage readUniformBlocks(NBTTagCompound uniform, int cubeY, boolean hasSkyLight) {
+        IBlockState state = Block.BLOCK_STATE_IDS.getByValue(uniform.getInteger("BlockState"));
+        if (state == null) {
+            state = Blocks.AIR.getDefaultState();
+        }
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), hasSkyLight);
+        // a new storage is already all air, and the palette only grows by one entry for a single state
+        if (state.getBlock() != Blocks.AIR) {
+            for (int i = 0; i < 4096; i++) {
+                ebs.getData().set(i & 15, i >> 8 & 15, i >> 4 & 15, state);
+            }
+        }
+        int blockLight = uniform.getByte("BlockLight");
+        if (blockLight != 0) {
+            ebs.setBlockLight(new NibbleArray(CompactCubeFormat.uniformLight(blockLight)));
+        }
+        if (hasSkyLight) {
+            ebs.setSkyLight(new NibbleArray(CompactCubeFormat.uniformLight(uniform.getByte("SkyLight"))));
+        }
+        ebs.recalculateRefCounts();
+        return ebs;
+    }
+
+    @SuppressWarnings("deprecation") private static ExtendedBlockStorage readCompactBlocks(byte[] compactData, int cubeY, boolean hasSkyLight) {
+        CompactCubeFormat.BlockData blocks = CompactCubeFormat.readBlocks(compactData);
+
+        // resolve each palette entry only once
+        IBlockState[] states = new IBlockState[blocks.getPaletteSize()];
+        for (int i = 0; i < states.length; i++) {
+            IBlockState state = Block.BLOCK_STATE_IDS.getByValue(blocks.getPaletteStateId(i));
+            states[i] = state == null ? Blocks.AIR.getDefaultState() : state;
+        }
+
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), hasSkyLight);
+        for (int i = 0; i < 4096; i++) {
+            ebs.getData().set(i & 15, i >> 8 & 15, i >> 4 & 15, states[blocks.getPaletteIndex(i)]);
+        }
+
+        ebs.setBlockLight(new NibbleArray(blocks.getBlockLight()));
+        byte[] skyLight = blocks.getSkyLight();
+        if (hasSkyLight && skyLight != null) {
+            ebs.setSkyLight(new NibbleArray(skyLight));
+        }
+
+        ebs.recalculateRefCounts();
+        return ebs;
     }
 
     private static void readEntities(NBTTagCompound nbt, World world, Cube cube) {// entities
@@ -283,8 +404,9 @@ public class IONbtReader {
 
     private static void readLightingInfo(Cube cube, NBTTagCompound nbt, World world) {
         NBTTagCompound lightingInfo = nbt.getCompoundTag("LightingInfo");
-        int[] lastHeightMap = lightingInfo.getIntArray("LastHeightMap"); // NO NO NO! TODO: Why is hightmap being stored in Cube's data?! kill it!
         int[] currentHeightMap = cube.getColumn().getHeightMap();
+        // NO NO NO! TODO: Why is hightmap being stored in Cube's data?! kill it!
+        int[] lastHeightMap = readLastHeightMap(lightingInfo, currentHeightMap.length);
         byte edgeNeedSkyLightUpdate = 0x3F;
         if (lightingInfo.hasKey("EdgeNeedSkyLightUpdate"))
             edgeNeedSkyLightUpdate = lightingInfo.getByte("EdgeNeedSkyLightUpdate");
@@ -330,6 +452,12 @@ public class IONbtReader {
         }
     }
 
+    static int[] readLastHeightMap(NBTTagCompound lightingInfo, int length) {
+        return lightingInfo.hasKey("LastHeightMapDeltas", Constants.NBT.TAG_BYTE_ARRAY) ?
+                CompactCubeFormat.readHeightMap(lightingInfo.getByteArray("LastHeightMapDeltas"), length) :
+                lightingInfo.getIntArray("LastHeightMap");
+    }
+
     private static void readBiomes(Cube cube, NBTTagCompound nbt) {// biomes
         if (nbt.hasKey("Biomes"))
             cube.setBiomeArray(nbt.getByteArray("Biomes"));
@@ -29,6 +29,7 @@ import io.github.opencubicchunks.cubicchunks.api.world.CubeDataEvent;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
@@ -42,17 +43,24 @@ import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.world.NextTickListEntry;
 import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.BlockStateContainer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.event.world.ChunkDataEvent;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.IntUnaryOperator;
+import java.util.zip.GZIPOutputStream;
 
 import static net.minecraftforge.common.MinecraftForge.EVENT_BUS;
 
@@ -62,7 +70,10 @@ class IONbtWriter {
     
     static byte[] writeNbtBytes(NBTTagCompound nbt) throws IOException {
         ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        CompressedStreamTools.writeCompressed(nbt, buf);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new LeveledGZIPOutputStream(buf, CubicChunksConfig.saveCompressionLevel)))) {
+            CompressedStreamTools.write(nbt, out);
+        }
         return buf.toByteArray();
     }
 
@@ -158,22 +169,69 @@ class IONbtWriter {
         if (ebs == null) {
             return; // no data to save anyway
         }
+        writeBlocks(ebs, cube.getWorld().provider.hasSkyLight(), CubicChunksConfig.compactCubeStorage, cubeNbt);
+    }
+
+    /**
+     * Writes blocks and light of a cube in the compact or the vanilla-like NBT format, see
+     * {@link IONbtReader#readBlocks(NBTTagCompound, int, boolean)}
+     */
+    static void writeBlocks(ExtendedBlockStorage ebs, boolean hasSkyLight, boolean compact, NBTTagCompound cubeNbt) {
+        BlockStateContainer container = ebs.getData();
+        @SuppressWarnings("deprecation")
+        IntUnaryOperator stateIds = i -> Block.BLOCK_STATE_IDS.get(container.get(i & 15, i >> 8 & 15, i >> 4 & 15));
+        byte[] skyLight = hasSkyLight ? ebs.getSkyLight().getData() : null;
+
+        if (compact) {
+            NBTTagCompound uniform = writeUniformBlocks(stateIds, ebs.getBlockLight().getData(), skyLight);
+            if (uniform != null) {
+                cubeNbt.setTag("UniformBlocks", uniform);
+            } else {
+                cubeNbt.setByteArray("CompactBlocks", CompactCubeFormat.writeBlocks(stateIds, ebs.getBlockLight().getData(), skyLight));
+            }
+            return;
+        }
+
         NBTTagList sectionList = new NBTTagList();
-        NBTTagCompound section = new NBTTagCompound();
-        sectionList.appendTag(section);
+        sectionList.appendTag(writeSection(stateIds, ebs.getBlockLight().getData(), skyLight));
         cubeNbt.setTag("Sections", sectionList);
+    }
+
+    /**
+     * Returns a small record describing the whole cube if it's made of a single block state and has uniform light, null otherwise
+     */
+    @Nullable
+    static NBTTagCompound writeUniformBlocks(IntUnaryOperator stateIds, byte[] blockLight, @Nullable byte[] skyLight) {
+        int blockLightValue = CompactCubeFormat.getUniformLight(blockLight);
+        if (blockLightValue < 0) {
+            return null;
+        }
+        int skyLightValue = skyLight == null ? 0 : CompactCubeFormat.getUniformLight(skyLight);
+        if (skyLightValue < 0) {
+            return null;
+        }
+        int stateId = CompactCubeFormat.getUniformStateId(stateIds);
+        if (stateId < 0) {
+            return null;
+        }
+        NBTTagCompound uniform = new NBTTagCompound();
+        uniform.setInteger("BlockState", stateId);
+        uniform.setByte("BlockLight", (byte) blockLightValue);
+        if (skyLight != null) {
+            uniform.setByte("SkyLight", (byte) skyLightValue);
+        }
+        return uniform;
+    }
+
+    static NBTTagCompound writeSection(IntUnaryOperator stateIds, byte[] blockLight, @Nullable byte[] skyLight) {
+        NBTTagCompound section = new NBTTagCompound();
         byte[] abyte = new byte[Cube.SIZE * Cube.SIZE * Cube.SIZE];
         NibbleArray data = new NibbleArray();
         NibbleArray add = null;
         NibbleArray add2neid = null;
 
         for (int i = 0; i < 4096; ++i) {
-            int x = i & 15;
-            int y = i >> 8 & 15;
-            int z = i >> 4 & 15;
-
-            @SuppressWarnings("deprecation")
-            int id = Block.BLOCK_STATE_IDS.get(ebs.getData().get(x, y, z));
+            int id = stateIds.applyAsInt(i);
 
             int in1 = (id >> 12) & 0xF;
             int in2 = (id >> 16) & 0xF;
@@ -205,11 +263,12 @@ class IONbtWriter {
             section.setByteArray("Add2", add2neid.getData());
         }
 
-        section.setByteArray("BlockLight", ebs.getBlockLight().getData());
+        section.setByteArray("BlockLight", blockLight);
 
-        if (cube.getWorld().provider.hasSkyLight()) {
-            section.setByteArray("SkyLight", ebs.getSkyLight().getData());
+        if (skyLight != null) {
+            section.setByteArray("SkyLight", skyLight);
         }
+        return section;
     }
 
     private static void writeEntities(Cube cube, NBTTagCompound cubeNbt) {// entities
@@ -262,8 +321,8 @@ class IONbtWriter {
         NBTTagCompound lightingInfo = new NBTTagCompound();
         cubeNbt.setTag("LightingInfo", lightingInfo);
 
-        int[] lastHeightmap = cube.getColumn().getHeightMap();
-        lightingInfo.setIntArray("LastHeightMap", lastHeightmap); //TODO: why are we storing the height map on a Cube???
+        //TODO: why are we storing the height map on a Cube???
+        writeLastHeightMap(cube.getColumn().getHeightMap(), CubicChunksConfig.compactCubeStorage, lightingInfo);
         byte edgeNeedSkyLightUpdate = 0;
         for (int i = 0; i < cube.edgeNeedSkyLightUpdate.length; i++) {
             if (cube.edgeNeedSkyLightUpdate[i])
@@ -272,6 +331,14 @@ class IONbtWriter {
         lightingInfo.setByte("EdgeNeedSkyLightUpdate", edgeNeedSkyLightUpdate);
     }
 
+    static void writeLastHeightMap(int[] lastHeightMap, boolean compact, NBTTagCompound lightingInfo) {
+        if (compact) {
+            lightingInfo.setByteArray("LastHeightMapDeltas", CompactCubeFormat.writeHeightMap(lastHeightMap));
+        } else {
+            lightingInfo.setIntArray("LastHeightMap", lastHeightMap);
+        }
+    }
+
     private static void writeModData(Cube cube, NBTTagCompound level) {
         EVENT_BUS.post(new CubeDataEvent.Save(cube, level));
     }
@@ -296,4 +363,12 @@ class IONbtWriter {
 
         return out;
     }
+
+    private static final class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        LeveledGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out);
+            this.def.setLevel(level);
+        }
+    }
 }
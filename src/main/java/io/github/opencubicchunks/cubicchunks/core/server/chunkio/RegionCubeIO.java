@@ -25,13 +25,14 @@
 package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
 
 import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.api.region.key.RegionKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
-import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.datafix.FixTypes;
 import net.minecraft.util.math.ChunkPos;
@@ -43,15 +44,24 @@ import net.minecraft.world.storage.ThreadedFileIOBase;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 import org.apache.logging.log4j.Logger;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -62,14 +72,29 @@ public class RegionCubeIO implements ICubeIO {
     private static final long MB = kB * 1024;
     private static final Logger LOGGER = CubicChunks.LOGGER;
 
+    private static final int COLUMNS_BATCH_SIZE = 25;
+    private static final int CUBES_BATCH_SIZE = 250;
+
+    // shared between all dimensions, compression is the expensive part of saving and doesn't touch the region files
+    private static final AtomicInteger compressionThreadCounter = new AtomicInteger();
+    @Nullable private static ExecutorService compressionExecutor;
+
     @Nonnull private World world;
     @Nonnull private SaveCubeColumns save;
     @Nonnull private ConcurrentMap<ChunkPos, SaveEntry<EntryLocation2D>> columnsToSave;
     @Nonnull private ConcurrentMap<CubePos, SaveEntry<EntryLocation3D>> cubesToSave;
-    
+    // held while writing to region files, both the vanilla IO thread and the server thread (when the save queue is full) can write
+    @Nonnull private final ReentrantLock writeLock = new ReentrantLock();
+    // DataVersion and ForgeDataVersion as IONbtWriter writes them, loaded data matching it doesn't need the data fixer
+    @Nonnull private final NBTTagCompound currentVersionData;
+
     public RegionCubeIO(World world) throws IOException {
         this.world = world;
 
+        this.currentVersionData = new NBTTagCompound();
+        this.currentVersionData.setInteger("DataVersion", FMLCommonHandler.instance().getDataFixer().version);
+        FMLCommonHandler.instance().getDataFixer().writeVersionData(this.currentVersionData);
+
         initSave();
 
         // init chunk save queue
@@ -94,24 +119,30 @@ public class RegionCubeIO implements ICubeIO {
     }
 
     @Override public void flush() throws IOException {
-        if (columnsToSave.size() != 0 || cubesToSave.size() != 0) {
-            LOGGER.error("Attempt to flush() CubeIO when there are remaining cubes to save! Saving remaining cubes to avoid corruption");
-            while (this.writeNextIO()) {
-                ;
+        // the save is closed and reopened below, don't let an IO thread write into it in the meantime
+        writeLock.lock();
+        try {
+            if (columnsToSave.size() != 0 || cubesToSave.size() != 0) {
+                LOGGER.error("Attempt to flush() CubeIO when there are remaining cubes to save! Saving remaining cubes to avoid corruption");
+                while (this.writeNextIO()) {
+                    ;
+                }
             }
-        }
 
-        try {
-            this.save.close();
-        } catch(IllegalStateException alreadyClosed) {
-            // ignore
-        } catch (Exception ex) {
-            CubicChunks.LOGGER.catching(ex);
+            try {
+                this.save.close();
+            } catch(IllegalStateException alreadyClosed) {
+                // ignore
+            } catch (Exception ex) {
+                CubicChunks.LOGGER.catching(ex);
+            }
+            // TODO: hack! fix this properly in RegionLib by adding flush()
+            // this avoids Already closed exceptions when vanilla calls flush without the intent to actually close anything
+            // This also needs a lot of testing on windows
+            this.initSave();
+        } finally {
+            writeLock.unlock();
         }
-        // TODO: hack! fix this properly in RegionLib by adding flush()
-        // this avoids Already closed exceptions when vanilla calls flush without the intent to actually close anything
-        // This also needs a lot of testing on windows
-        this.initSave();
     }
 
     @Override @Nullable public Chunk loadColumn(int chunkX, int chunkZ) throws IOException {
@@ -125,7 +156,7 @@ public class RegionCubeIO implements ICubeIO {
             if (!buf.isPresent()) {
                 return null;
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
+            nbt = fixData(IONbtReader.readNbtBytes(buf.get()));
         }
         return IONbtReader.readColumn(world, chunkX, chunkZ, nbt);
     }
@@ -142,7 +173,7 @@ public class RegionCubeIO implements ICubeIO {
             if (!buf.isPresent()) {
                 return null;
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
+            nbt = fixData(IONbtReader.readNbtBytes(buf.get()));
         }
 
         // restore the cube - async part
@@ -157,6 +188,13 @@ public class RegionCubeIO implements ICubeIO {
         IONbtReader.readCubeSyncPart(info.cube, world, info.nbt);
     }
 
+    private NBTTagCompound fixData(NBTTagCompound nbt) {
+        if (IONbtReader.isDataVersionCurrent(nbt, currentVersionData)) {
+            return nbt;
+        }
+        return FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, nbt);
+    }
+
     @Override public void saveColumn(Chunk column) {
         // NOTE: this function blocks the world thread
         // make it as fast as possible by offloading processing to the IO thread
@@ -180,9 +218,18 @@ public class RegionCubeIO implements ICubeIO {
 
         // signal the IO thread to process the save queue
         ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+
+        // back-pressure: when the IO thread can't keep up, write a batch here instead of letting the queue grow without limit
+        if (this.cubesToSave.size() >= CubicChunksConfig.maxPendingCubeSaves) {
+            this.writeNextIO();
+        }
     }
 
     @Override public boolean cubeExists(int cubeX, int cubeY, int cubeZ) {
+        // an unloaded cube can still be waiting in the save queue
+        if (this.cubesToSave.containsKey(new CubePos(cubeX, cubeY, cubeZ))) {
+            return true;
+        }
         try {
             return this.save.getSaveSection3D().hasEntry(new EntryLocation3D(cubeX,  cubeY, cubeZ));
         } catch (IOException e) {
@@ -210,59 +257,116 @@ public class RegionCubeIO implements ICubeIO {
 
     @Override
     public boolean writeNextIO() {
+        writeLock.lock();
         try {
             // NOTE: return true to redo this call (used for batching)
+            boolean hasMoreColumns = writeColumnBatch();
+            boolean hasMoreCubes = writeCubeBatch();
+            return hasMoreColumns || hasMoreCubes;
+        } catch (Throwable t) {
+            LOGGER.error("Exception occurred when saving cubes", t);
+            return cubesToSave.size() != 0 || columnsToSave.size() != 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-            final int ColumnsBatchSize = 25;
-            final int CubesBatchSize = 250;
-
-            int numColumnsSaved = 0;
-            int numCubesSaved = 0;
-
-            // save a batch of columns
-            Iterator<SaveEntry<EntryLocation2D>> colIt = columnsToSave.values().iterator();
-            for (SaveEntry<EntryLocation2D> entry; colIt.hasNext() && numColumnsSaved < ColumnsBatchSize; numColumnsSaved++) {
-                entry = colIt.next();
-                try {
-                    // save the column
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
-                    this.save.save2d(entry.pos, ByteBuffer.wrap(data));
-                    //column can be removed from toSave queue only after writing to disk
-                    //to avoid race conditions
-                    colIt.remove();
-                } catch (Throwable t) {
-                    LOGGER.error(String.format("Unable to write column (%d, %d)", entry.pos.getEntryX(), entry.pos.getEntryZ()), t);
-                }
+    private boolean writeColumnBatch() {
+        List<SaveEntry<EntryLocation2D>> batch = new ArrayList<>(COLUMNS_BATCH_SIZE);
+        Iterator<SaveEntry<EntryLocation2D>> colIt = columnsToSave.values().iterator();
+        while (colIt.hasNext() && batch.size() < COLUMNS_BATCH_SIZE) {
+            batch.add(colIt.next());
+        }
+        boolean hasMoreColumns = colIt.hasNext();
+
+        List<CompletableFuture<byte[]>> compressed = compressAll(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            SaveEntry<EntryLocation2D> entry = batch.get(i);
+            try {
+                // save the column
+                this.save.save2d(entry.pos, ByteBuffer.wrap(getCompressed(compressed.get(i))));
+                //column can be removed from toSave queue only after writing to disk
+                //to avoid race conditions. If it has been replaced in the meantime, the new version will be saved later
+                columnsToSave.remove(new ChunkPos(entry.pos.getEntryX(), entry.pos.getEntryZ()), entry);
+            } catch (Throwable t) {
+                LOGGER.error(String.format("Unable to write column (%d, %d)", entry.pos.getEntryX(), entry.pos.getEntryZ()), t);
             }
+        }
+        return hasMoreColumns;
+    }
 
-            boolean hasMoreColumns = colIt.hasNext();
+    private boolean writeCubeBatch() {
+        List<SaveEntry<EntryLocation3D>> batch = new ArrayList<>(CUBES_BATCH_SIZE);
+        Iterator<SaveEntry<EntryLocation3D>> cubeIt = cubesToSave.values().iterator();
+        while (cubeIt.hasNext() && batch.size() < CUBES_BATCH_SIZE) {
+            batch.add(cubeIt.next());
+        }
+        boolean hasMoreCubes = cubeIt.hasNext();
 
-            Iterator<SaveEntry<EntryLocation3D>> cubeIt = cubesToSave.values().iterator();
-            // save a batch of cubes
+        List<CompletableFuture<byte[]>> compressed = compressAll(batch);
 
-            for (SaveEntry<EntryLocation3D> entry; cubeIt.hasNext() && numCubesSaved < CubesBatchSize; numCubesSaved++) {
-                entry = cubeIt.next();
+        // group by region so that each region file is written in one go instead of jumping between files
+        Map<RegionKey, List<Integer>> byRegion = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            byRegion.computeIfAbsent(batch.get(i).pos.getRegionKey(), k -> new ArrayList<>()).add(i);
+        }
+        for (List<Integer> regionEntries : byRegion.values()) {
+            for (int i : regionEntries) {
+                SaveEntry<EntryLocation3D> entry = batch.get(i);
                 try {
                     // save the cube
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
                     try {
-                        this.save.save3d(entry.pos, ByteBuffer.wrap(data));
+                        this.save.save3d(entry.pos, ByteBuffer.wrap(getCompressed(compressed.get(i))));
                     } finally {
                         //cube can be removed from toSave queue only after writing to disk
-                        //to avoid race conditions
-                        cubeIt.remove();
+                        //to avoid race conditions. If it has been replaced in the meantime, the new version will be saved later
+                        cubesToSave.remove(new CubePos(entry.pos.getEntryX(), entry.pos.getEntryY(), entry.pos.getEntryZ()), entry);
                     }
                 } catch (Throwable t) {
                     LOGGER.error(
                             String.format("Unable to write cube %d, %d, %d", entry.pos.getEntryX(), entry.pos.getEntryY(), entry.pos.getEntryZ()), t);
                 }
             }
-            boolean hasMoreCubes = cubeIt.hasNext();
-            return hasMoreColumns || hasMoreCubes;
-        } catch (Throwable t) {
-            LOGGER.error("Exception occurred when saving cubes", t);
-            return cubesToSave.size() != 0 || columnsToSave.size() != 0;
         }
+        return hasMoreCubes;
+    }
+
+    private static <T extends IKey<?>> List<CompletableFuture<byte[]>> compressAll(List<SaveEntry<T>> entries) {
+        ExecutorService executor = getCompressionExecutor();
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>(entries.size());
+        for (SaveEntry<T> entry : entries) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return IONbtWriter.writeNbtBytes(entry.nbt);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        return futures;
+    }
+
+    private static byte[] getCompressed(CompletableFuture<byte[]> future) throws Throwable {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() == null ? e : e.getCause();
+        }
+    }
+
+    private static synchronized ExecutorService getCompressionExecutor() {
+        if (compressionExecutor == null) {
+            int threads = CubicChunksConfig.saveCompressionThreads;
+            if (threads <= 0) {
+                threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            }
+            compressionExecutor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "Cube Save Compression Thread #" + compressionThreadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return compressionExecutor;
     }
 
     private static class SaveEntry<T extends IKey<?>> {
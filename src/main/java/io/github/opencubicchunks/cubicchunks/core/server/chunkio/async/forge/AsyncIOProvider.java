@@ -37,6 +37,8 @@ abstract class AsyncIOProvider<T> implements Runnable {
 
     private final ConcurrentLinkedQueue<Consumer<T>> callbacks = new ConcurrentLinkedQueue<>();
     volatile boolean finished = false;
+    // lower values are loaded first. Must not be changed while the task is in the executor queue
+    volatile double priority;
 
     /**
      * Add a callback to this access group, to be executed when the load finishes
@@ -30,6 +30,7 @@ import io.github.opencubicchunks.cubicchunks.core.server.CubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.ICubeIO;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
@@ -41,10 +42,11 @@ import net.minecraftforge.fml.common.gameevent.TickEvent;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -61,13 +63,26 @@ public class AsyncWorldIOExecutor {
 
     private static final int BASE_THREADS = 1;
     private static final int PLAYERS_PER_THREAD = 50;
+    private static final int QUEUED_TASKS_PER_THREAD = 64;
+    // loading is a mix of disk access and decompression, so allow a few more threads than there are cores
+    private static final int MAX_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() + 1);
+
+    /**
+     * Priority of loads explicitly requested by game code (forced chunks, vanilla and forge async loads). These are loaded before
+     * loads requested for players, which use squared distance from the cube to the nearest player as priority.
+     */
+    public static final double PRIORITY_URGENT = -1;
+
+    private static final Comparator<Runnable> TASK_ORDER = Comparator.comparingDouble(task -> ((AsyncIOProvider<?>) task).priority);
+
+    private static int playerCount = 0;
 
     private static final Map<QueuedCube, AsyncCubeIOProvider> cubeTasks = new ConcurrentHashMap<>(20000, 0.8f, 1);
     private static final Map<QueuedColumn, AsyncColumnIOProvider> columnTasks = Maps.newConcurrentMap();
 
     private static final AtomicInteger threadCounter = new AtomicInteger();
-    private static final ThreadPoolExecutor cubeThreadPool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(),
+    private static final ThreadPoolExecutor cubeThreadPool = new ThreadPoolExecutor(BASE_THREADS, MAX_THREADS, 60L, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>(64, TASK_ORDER),
 
             // Sponge start: Use lambda
             r -> {
@@ -80,8 +95,8 @@ public class AsyncWorldIOExecutor {
 
     // use separate thread pool for cubes and columns to avoid situation where only cube tasks are being executed
     // all waiting for their columns
-    private static final ThreadPoolExecutor columnThreadPool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(),
+    private static final ThreadPoolExecutor columnThreadPool = new ThreadPoolExecutor(BASE_THREADS, MAX_THREADS, 60L, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>(64, TASK_ORDER),
 
             // Sponge start: Use lambda
             r -> {
@@ -195,6 +210,8 @@ public class AsyncWorldIOExecutor {
      * Queue a cube load, running the specified callback when the load has finished. This may cause a two tick delay
      * if the column has to be loaded, too! If you need it faster, consider sync loading either column or both
      * cube and column.
+     * <p>
+     * The load is prioritized by distance to the nearest player in the world.
      *
      * @param world The world of the cube
      * @param loader The file loader for this world
@@ -205,6 +222,25 @@ public class AsyncWorldIOExecutor {
      * @param runnable The callback
      */
     public static void queueCubeLoad(World world, ICubeIO loader, CubeProviderServer cache, int x, int y, int z, Consumer<Cube> runnable) {
+        queueCubeLoad(world, loader, cache, x, y, z, getPlayerDistancePriority(world, x, y, z), runnable);
+    }
+
+    /**
+     * Queue a cube load with the given priority, running the specified callback when the load has finished. This may cause a two tick delay
+     * if the column has to be loaded, too! If you need it faster, consider sync loading either column or both
+     * cube and column.
+     *
+     * @param world The world of the cube
+     * @param loader The file loader for this world
+     * @param cache The server cube cache
+     * @param x cube x position
+     * @param y cube y position
+     * @param z cube z position
+     * @param priority Load priority, lower values are loaded first. See {@link #PRIORITY_URGENT}
+     * @param runnable The callback
+     */
+    public static void queueCubeLoad(World world, ICubeIO loader, CubeProviderServer cache, int x, int y, int z, double priority,
+            Consumer<Cube> runnable) {
 
         QueuedCube key = new QueuedCube(x, y, z, world);
         QueuedColumn columnKey = new QueuedColumn(x, z, world);
@@ -214,17 +250,19 @@ public class AsyncWorldIOExecutor {
 
         if (task == null) {
             task = new AsyncCubeIOProvider(key, loader);
+            task.priority = priority;
             task.addCallback(runnable); // Add before calling execute for thread safety
             task.addCallback(c -> loadingCubesColumnMap.remove(columnKey, key));// add only the first time
             cubeTasks.put(key, task);
             cubeThreadPool.execute(task);
         } else {
             task.addCallback(runnable);
+            raisePriority(cubeThreadPool, task, priority);
         }
 
         Chunk loadedIColumn;
         if ((loadedIColumn = cache.getLoadedColumn(x, z)) == null) {
-            cache.asyncGetColumn(x, z, ICubeProviderServer.Requirement.LIGHT, task::setColumn);
+            cache.asyncGetColumn(x, z, ICubeProviderServer.Requirement.LIGHT, task.priority, task::setColumn);
         } else {
             //it's already there, tell the task to use it
             task.setColumn(loadedIColumn);
@@ -242,16 +280,57 @@ public class AsyncWorldIOExecutor {
      * @param runnable The callback
      */
     public static void queueColumnLoad(World world, ICubeIO loader, int x, int z, Consumer<Chunk> runnable) {
+        queueColumnLoad(world, loader, x, z, PRIORITY_URGENT, runnable);
+    }
+
+    /**
+     * Queue a column load with the given priority, running the specified callback when the load has finished
+     *
+     * @param world The world of the column
+     * @param loader The file loader for this world
+     * @param x column x position
+     * @param z column z position
+     * @param priority Load priority, lower values are loaded first. See {@link #PRIORITY_URGENT}
+     * @param runnable The callback
+     */
+    public static void queueColumnLoad(World world, ICubeIO loader, int x, int z, double priority, Consumer<Chunk> runnable) {
         QueuedColumn key = new QueuedColumn(x, z, world);
         AsyncColumnIOProvider task = columnTasks.get(key);
         if (task == null) {
             task = new AsyncColumnIOProvider(key, loader, ((ICubicWorldInternal.Server) world).getCubeCache().getCubeGenerator());
+            task.priority = priority;
             task.addCallback(runnable); // Add before calling execute for thread safety
             columnTasks.put(key, task);
             columnThreadPool.execute(task);
         } else {
             task.addCallback(runnable);
+            raisePriority(columnThreadPool, task, priority);
+        }
+    }
+
+    /**
+     * Moves an already queued task forward in the queue if the new priority is more important than the current one.
+     * The task has to be taken out of the queue to change it's priority, as the queue doesn't expect elements to change.
+     */
+    private static void raisePriority(ThreadPoolExecutor executor, AsyncIOProvider<?> task, double priority) {
+        if (priority < task.priority && executor.remove(task)) {
+            task.priority = priority;
+            executor.execute(task);
+        }
+    }
+
+    private static double getPlayerDistancePriority(World world, int cubeX, int cubeY, int cubeZ) {
+        double blockX = (cubeX << 4) + 8;
+        double blockY = (cubeY << 4) + 8;
+        double blockZ = (cubeZ << 4) + 8;
+        double min = Double.MAX_VALUE;
+        for (EntityPlayer player : world.playerEntities) {
+            double dx = blockX - player.posX;
+            double dy = blockY - player.posY;
+            double dz = blockZ - player.posZ;
+            min = Math.min(min, dx * dx + dy * dy + dz * dz);
         }
+        return min;
     }
 
     /**
@@ -310,6 +389,9 @@ public class AsyncWorldIOExecutor {
      * Run a synchronous tick, finishing the loading process for load tasks that are ready
      */
     public static void tick() {
+        adjustPoolSize(cubeThreadPool);
+        adjustPoolSize(columnThreadPool);
+
         Iterator<AsyncCubeIOProvider> cubeItr = cubeTasks.values().iterator();
         while (cubeItr.hasNext()) {
             AsyncCubeIOProvider task = cubeItr.next();
@@ -332,12 +414,16 @@ public class AsyncWorldIOExecutor {
     }
 
     /**
-     * Resize async loading pool thread count when players join or leave
-     *
-     * @param players New player count
+     * Resize async loading pool thread count depending on the amount of queued work and players.
+     * Threads above the current core size time out when they run out of work.
      */
-    private static void adjustPoolSize(int players) {
-        cubeThreadPool.setCorePoolSize(Math.max(BASE_THREADS, players / PLAYERS_PER_THREAD));
+    private static void adjustPoolSize(ThreadPoolExecutor executor) {
+        int byLoad = executor.getQueue().size() / QUEUED_TASKS_PER_THREAD;
+        int byPlayers = playerCount / PLAYERS_PER_THREAD;
+        int threads = Math.min(MAX_THREADS, Math.max(BASE_THREADS, Math.max(byLoad, byPlayers)));
+        if (threads != executor.getCorePoolSize()) {
+            executor.setCorePoolSize(threads);
+        }
     }
 
     public static boolean canDropColumn(World world, int x, int z) {
@@ -349,7 +435,7 @@ public class AsyncWorldIOExecutor {
     public static void onPlayerLoggedIn(@Nonnull PlayerEvent.PlayerLoggedInEvent evt) {
         MinecraftServer server = evt.player.getServer();
         if (server != null) {
-            adjustPoolSize(server.getCurrentPlayerCount());
+            playerCount = server.getCurrentPlayerCount();
         }
     }
 
@@ -357,7 +443,7 @@ public class AsyncWorldIOExecutor {
     public static void onPlayerLoggedOut(@Nonnull PlayerEvent.PlayerLoggedOutEvent evt) {
         MinecraftServer server = evt.player.getServer();
         if (server != null) {
-            adjustPoolSize(server.getCurrentPlayerCount());
+            playerCount = server.getCurrentPlayerCount();
         }
     }
 
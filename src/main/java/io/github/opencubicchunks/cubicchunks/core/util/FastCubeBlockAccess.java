@@ -37,12 +37,16 @@ import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeProvider;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Biomes;
 import net.minecraft.init.Blocks;
+import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.IBlockAccess;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.biome.Biome;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.fml.common.SidedProxy;
@@ -55,10 +59,14 @@ import javax.annotation.ParametersAreNonnullByDefault;
  * Simple class that allows to quickly access blocks near specified cube without the overhead of getting these cubes.
  * <p>
  * Does not allow to set blocks, only get blocks, their opacity and get/set light values.
+ * <p>
+ * Block light opacity and light values are queried with this object as the {@link IBlockAccess} instead of the world, so
+ * that blocks which look at their neighbors or tile entities only see the cubes gathered here. This is needed because first
+ * light can run off the server thread. Tile entities that don't exist yet are not created.
  */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
-public class FastCubeBlockAccess implements ILightBlockAccess {
+public class FastCubeBlockAccess implements ILightBlockAccess, IBlockAccess {
 
     @SidedProxy private static GetLoadedChunksProxy getLoadedChunksProxy;
     @Nonnull private final ExtendedBlockStorage[][][] cache;
@@ -67,6 +75,8 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
     private final int originX, originY, originZ;
     private final int dx, dy, dz;
     @Nonnull private final World world;
+    // only used to call vanilla methods that need a position, the light engine itself works on int coordinates
+    @Nonnull private final BlockPos.MutableBlockPos tempPos = new BlockPos.MutableBlockPos();
 
     public FastCubeBlockAccess(ICubeProviderInternal cache, ICube cube, int radius) {
         this(cube.getWorld(), cache,
@@ -139,10 +149,6 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
         return this.cubes[cubeX][cubeY][cubeZ];
     }
 
-    private IBlockState getBlockState(BlockPos pos) {
-        return this.getBlockState(pos.getX(), pos.getY(), pos.getZ());
-    }
-
     private IBlockState getBlockState(int blockX, int blockY, int blockZ) {
         ExtendedBlockStorage ebs = this.getStorage(blockX, blockY, blockZ);
         if (ebs != null) {
@@ -152,17 +158,17 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
     }
 
     @Override
-    public int getBlockLightOpacity(BlockPos pos) {
-        return this.getBlockState(pos.getX(), pos.getY(), pos.getZ()).getLightOpacity((World) world, pos);
+    public int getBlockLightOpacity(int blockX, int blockY, int blockZ) {
+        return this.getBlockState(blockX, blockY, blockZ).getLightOpacity(this, this.tempPos.setPos(blockX, blockY, blockZ));
     }
 
     @Override 
-    public int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
-        ExtendedBlockStorage ebs = this.getStorage(pos.getX(), pos.getY(), pos.getZ());
+    public int getLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ) {
+        ExtendedBlockStorage ebs = this.getStorage(blockX, blockY, blockZ);
         if (ebs != null) {
-            int localX = blockToLocal(pos.getX());
-            int localY = blockToLocal(pos.getY());
-            int localZ = blockToLocal(pos.getZ());
+            int localX = blockToLocal(blockX);
+            int localY = blockToLocal(blockY);
+            int localZ = blockToLocal(blockZ);
 
             if (lightType == EnumSkyBlock.SKY) {
                 return ebs.getSkyLight(localX, localY, localZ);
@@ -174,12 +180,12 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
     }
 
     @Override 
-    public boolean setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
-        ExtendedBlockStorage ebs = this.getStorage(pos.getX(), pos.getY(), pos.getZ());
+    public boolean setLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ, int val) {
+        ExtendedBlockStorage ebs = this.getStorage(blockX, blockY, blockZ);
         if (ebs != null) {
-            int localX = blockToLocal(pos.getX());
-            int localY = blockToLocal(pos.getY());
-            int localZ = blockToLocal(pos.getZ());
+            int localX = blockToLocal(blockX);
+            int localY = blockToLocal(blockY);
+            int localZ = blockToLocal(blockZ);
 
             if (lightType == EnumSkyBlock.SKY) {
                 ebs.setSkyLight(localX, localY, localZ, val);
@@ -188,19 +194,18 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
             }
             return true;
         }
-        Cube cube = getCube(pos.getX(), pos.getY(), pos.getZ());
+        Cube cube = getCube(blockX, blockY, blockZ);
         if (cube != null) {
-            cube.setLightFor(lightType, pos, val);
-            setStorage(pos.getX(), pos.getY(), pos.getZ(), cube.getStorage());
-            return true;
+            // create the storage directly instead of going through the column, this only touches the cube itself
+            // so that FirstLightProcessor can use it off the server thread
+            ebs = cube.setStorage(new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()), world.provider.hasSkyLight()));
+            setStorage(blockX, blockY, blockZ, ebs);
+            return setLightFor(lightType, blockX, blockY, blockZ, val);
         }
         return false;
     }
 
-    @Override public boolean canSeeSky(BlockPos pos) {
-        int blockX = pos.getX();
-        int blockY = pos.getY();
-        int blockZ = pos.getZ();
+    @Override public boolean canSeeSky(int blockX, int blockY, int blockZ) {
         int cubeX = Coords.blockToCube(blockX);
         int cubeZ = Coords.blockToCube(blockZ);
         if (cubeX < originX || cubeZ < originZ)
@@ -216,17 +221,83 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
         return height <= blockY;
     }
 
-    @Override public int getEmittedLight(BlockPos pos, EnumSkyBlock type) {
+    @Override public int getEmittedLight(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
         switch (type) {
             case BLOCK:
-                return getBlockState(pos).getLightValue((IBlockAccess) world, pos);
+                return getBlockState(blockX, blockY, blockZ).getLightValue(this, this.tempPos.setPos(blockX, blockY, blockZ));
             case SKY:
-                return canSeeSky(pos) ? 15 : 0;
+                return canSeeSky(blockX, blockY, blockZ) ? 15 : 0;
             default:
                 throw new AssertionError();
         }
     }
 
+    //=====IBlockAccess methods======
+    //===============================
+
+    @Nullable @Override
+    public TileEntity getTileEntity(BlockPos pos) {
+        Cube cube = getCube(pos.getX(), pos.getY(), pos.getZ());
+        if (cube == null) {
+            return null;
+        }
+        // only look at existing tile entities, creating them isn't safe off the server thread
+        TileEntity tileEntity = cube.getTileEntityMap().get(pos);
+        return tileEntity == null || tileEntity.isInvalid() ? null : tileEntity;
+    }
+
+    @Override
+    public int getCombinedLight(BlockPos pos, int lightValue) {
+        int skyLight = getLightFor(EnumSkyBlock.SKY, pos.getX(), pos.getY(), pos.getZ());
+        int blockLight = Math.max(lightValue, getLightFor(EnumSkyBlock.BLOCK, pos.getX(), pos.getY(), pos.getZ()));
+        return skyLight << 20 | blockLight << 4;
+    }
+
+    @Override
+    public IBlockState getBlockState(BlockPos pos) {
+        return getBlockState(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Override
+    public boolean isAirBlock(BlockPos pos) {
+        IBlockState state = getBlockState(pos);
+        return state.getBlock().isAir(state, this, pos);
+    }
+
+    @Override
+    public Biome getBiome(BlockPos pos) {
+        Chunk column = getColumn(pos.getX(), pos.getZ());
+        return column == null ? Biomes.PLAINS : column.getBiome(pos, world.getBiomeProvider());
+    }
+
+    @Override
+    public int getStrongPower(BlockPos pos, EnumFacing direction) {
+        return getBlockState(pos).getStrongPower(this, pos, direction);
+    }
+
+    @Override
+    public WorldType getWorldType() {
+        return world.getWorldType();
+    }
+
+    @Override
+    public boolean isSideSolid(BlockPos pos, EnumFacing side, boolean _default) {
+        if (getCube(pos.getX(), pos.getY(), pos.getZ()) == null) {
+            return _default;
+        }
+        return getBlockState(pos).isSideSolid(this, pos, side);
+    }
+
+    @Nullable
+    private Chunk getColumn(int blockX, int blockZ) {
+        int cubeX = Coords.blockToCube(blockX) - originX;
+        int cubeZ = Coords.blockToCube(blockZ) - originZ;
+        if (cubeX < 0 || cubeZ < 0 || cubeX >= dx || cubeZ >= dz) {
+            return null;
+        }
+        return columns[cubeX][cubeZ];
+    }
+
     public static ILightBlockAccess forBlockRegion(ICubeProviderInternal prov, BlockPos startPos, BlockPos endPos) {
         //TODO: fix it
         BlockPos midPos = Coords.midPos(startPos, endPos);
@@ -261,12 +332,9 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
     }
 
     @Override
-    public void markEdgeNeedLightUpdate(BlockPos pos, EnumSkyBlock type) {
+    public void markEdgeNeedLightUpdate(int x, int y, int z, EnumSkyBlock type) {
         if (type == EnumSkyBlock.BLOCK)
             return;
-        int x = pos.getX();
-        int y = pos.getY();
-        int z = pos.getZ();
         Cube cube = this.getCube(x, y, z);
         if (cube == null)
             return;
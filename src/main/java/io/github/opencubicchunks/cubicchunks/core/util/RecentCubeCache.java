@@ -0,0 +1,92 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.util;
+
+import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
+import mcp.MethodsReturnNonnullByDefault;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Remembers the last few cubes looked up, so that consecutive block accesses in the same cube don't need a hash map lookup.
+ * <p>
+ * Not thread safe, each instance must only be used by one thread. Cubes must be removed when they are unloaded.
+ *
+ * @param <T> type of the cached cubes
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class RecentCubeCache<T extends XYZAddressable> {
+
+    private static final int SIZE = 4;
+
+    private final Object[] entries = new Object[SIZE];
+    private int next;
+
+    /**
+     * @param cubeX cube x position
+     * @param cubeY cube y position
+     * @param cubeZ cube z position
+     * @return the cached cube at the given position, or null if it's not one of the recently used cubes
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public T get(int cubeX, int cubeY, int cubeZ) {
+        for (Object entry : entries) {
+            if (entry != null) {
+                T cube = (T) entry;
+                if (cube.getX() == cubeX && cube.getY() == cubeY && cube.getZ() == cubeZ) {
+                    return cube;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a cube, replacing the oldest one
+     *
+     * @param cube the cube
+     */
+    public void put(T cube) {
+        int index = next;
+        entries[index] = cube;
+        next = (index + 1) & (SIZE - 1);
+    }
+
+    /**
+     * Removes a cube, if it's cached
+     *
+     * @param cube the cube
+     */
+    public void remove(T cube) {
+        for (int i = 0; i < SIZE; i++) {
+            if (entries[i] == cube) {
+                entries[i] = null;
+            }
+        }
+    }
+}
@@ -26,6 +26,7 @@ package io.github.opencubicchunks.cubicchunks.core.util.ticket;
 
 import com.google.common.collect.Lists;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 
@@ -62,6 +63,7 @@ public class TicketList {
             assert tickRefs >= 0;
             if (tickRefs == 0) {
                 ((ICubicWorldInternal.Server) cube.getWorld()).removeForcedCube(cube);
+                ((IColumnInternal) cube.getColumn()).markStoragesToTickDirty();
             }
         }
     }
@@ -84,6 +86,7 @@ public class TicketList {
             assert tickRefs > 0;
             if (tickRefs == 1) { // if it just got increased from zero
                 ((ICubicWorldInternal.Server) cube.getWorld()).addForcedCube(cube);
+                ((IColumnInternal) cube.getColumn()).markStoragesToTickDirty();
             }
         }
 
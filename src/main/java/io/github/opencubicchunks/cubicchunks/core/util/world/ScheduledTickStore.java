@@ -0,0 +1,591 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.util.world;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongAVLTreeSet;
+import it.unimi.dsi.fastutil.longs.LongBidirectionalIterator;
+import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import it.unimi.dsi.fastutil.objects.ObjectListIterator;
+import it.unimi.dsi.fastutil.objects.ReferenceLinkedOpenHashSet;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.NextTickListEntry;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * When saving chunks, Minecraft needs to filter all of the scheduled ticks by the chunk being saved.
+ * Normally this is not a big issue, as there aren't a lot of scheduled ticks. But in some cases
+ * (especially on fresh world in the first seconds) there are hundreds of thousands of scheduled ticks.
+ * For 16x16x16 chunks, filtering all of them can take minutes to save the whole world.
+ * <p>
+ * Instead of completely rewriting vanilla handling of scheduled ticks to store them in cubes
+ * and also changing the behavior (vanilla "throttles" about of updates per tick), this class
+ * stores the entries indexed by cube and bucketed by scheduled time, and exposes them as the
+ * collection types vanilla WorldServer fields expect. Existing code that relies on those fields will just work.
+ * <p>
+ * Vanilla keeps the same entries in a HashSet and in a TreeSet, and always adds to or removes from both. Here both are views
+ * of the same store, so the second add or remove is a no-op. Add, remove and contains are O(1), the first entry
+ * is found in O(log distinct scheduled times), and {@link #getForCube(CubePos)} only touches the entries of that cube.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class ScheduledTickStore {
+
+    private final Map<CubePos, Map<EqualsHashCodeWrapper<NextTickListEntry>, NextTickListEntry>> byCube = new HashMap<>();
+    private final Long2ObjectMap<TimeBucket> byTime = new Long2ObjectOpenHashMap<>();
+    // there are usually only a few hundred distinct scheduled times, so this stays small
+    private final LongSortedSet times = new LongAVLTreeSet();
+    private int size;
+
+    private final Set<NextTickListEntry> setView = new SetView();
+    private final TreeSet<NextTickListEntry> treeSetView = new TreeSetView();
+    private final List<NextTickListEntry> listView = new ListView();
+
+    public Collection<NextTickListEntry> getForCube(CubePos pos) {
+        Map<EqualsHashCodeWrapper<NextTickListEntry>, NextTickListEntry> val = byCube.get(pos);
+        return val == null ? Collections.emptyList() : Collections.unmodifiableCollection(val.values());
+    }
+
+    /**
+     * View for WorldServer.pendingTickListEntriesHashSet
+     */
+    public Set<NextTickListEntry> asSet() {
+        return setView;
+    }
+
+    /**
+     * View for WorldServer.pendingTickListEntriesTreeSet
+     */
+    public TreeSet<NextTickListEntry> asTreeSet() {
+        return treeSetView;
+    }
+
+    /**
+     * View for WorldServer.pendingTickListEntriesThisTick. Vanilla only appends entries taken in order from the pending
+     * tick TreeSet, so keeping them ordered by scheduled time is the same as keeping them in insertion order.
+     */
+    public List<NextTickListEntry> asList() {
+        return listView;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(Object o) {
+        if (!(o instanceof NextTickListEntry)) {
+            return false;
+        }
+        NextTickListEntry e = (NextTickListEntry) o;
+        Map<EqualsHashCodeWrapper<NextTickListEntry>, NextTickListEntry> inCube = byCube.get(CubePos.fromBlockCoords(e.position));
+        return inCube != null && inCube.containsKey(new EqualsHashCodeWrapper<>(e));
+    }
+
+    public boolean add(NextTickListEntry e) {
+        Map<EqualsHashCodeWrapper<NextTickListEntry>, NextTickListEntry> inCube =
+                byCube.computeIfAbsent(CubePos.fromBlockCoords(e.position), x -> new HashMap<>());
+        if (inCube.putIfAbsent(new EqualsHashCodeWrapper<>(e), e) != null) {
+            return false;
+        }
+        TimeBucket bucket = byTime.get(e.scheduledTime);
+        if (bucket == null) {
+            bucket = new TimeBucket(e.scheduledTime);
+            byTime.put(e.scheduledTime, bucket);
+            times.add(e.scheduledTime);
+        }
+        bucket.add(e);
+        size++;
+        return true;
+    }
+
+    public boolean remove(Object o) {
+        if (!(o instanceof NextTickListEntry)) {
+            return false;
+        }
+        NextTickListEntry e = removeFromCube((NextTickListEntry) o);
+        if (e == null) {
+            return false;
+        }
+        // an emptied bucket stays until first(), last() or an iterator reaches it, an iterator may currently be on it
+        byTime.get(e.scheduledTime).entries.remove(e);
+        size--;
+        return true;
+    }
+
+    // returns the entry actually stored, which may be a different but equal instance
+    @Nullable private NextTickListEntry removeFromCube(NextTickListEntry e) {
+        CubePos pos = CubePos.fromBlockCoords(e.position);
+        Map<EqualsHashCodeWrapper<NextTickListEntry>, NextTickListEntry> inCube = byCube.get(pos);
+        if (inCube == null) {
+            return null;
+        }
+        NextTickListEntry removed = inCube.remove(new EqualsHashCodeWrapper<>(e));
+        if (inCube.isEmpty()) {
+            byCube.remove(pos);
+        }
+        return removed;
+    }
+
+    public NextTickListEntry first() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        TimeBucket bucket;
+        while ((bucket = byTime.get(times.firstLong())).entries.isEmpty()) {
+            removeEmptyBucket(bucket);
+        }
+        bucket.sort();
+        return bucket.entries.first();
+    }
+
+    public NextTickListEntry last() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        TimeBucket bucket;
+        while ((bucket = byTime.get(times.lastLong())).entries.isEmpty()) {
+            removeEmptyBucket(bucket);
+        }
+        bucket.sort();
+        return bucket.entries.last();
+    }
+
+    // buckets left empty by an iterator are removed lazily
+    private void removeEmptyBucket(TimeBucket bucket) {
+        byTime.remove(bucket.time);
+        times.remove(bucket.time);
+    }
+
+    // only the buckets of the scheduled time of e and the first non-empty bucket after it are looked at
+    @Nullable private NextTickListEntry ceilingOrHigher(NextTickListEntry e, boolean inclusive) {
+        LongBidirectionalIterator it = times.tailSet(e.scheduledTime).iterator();
+        while (it.hasNext()) {
+            TimeBucket bucket = byTime.get(it.nextLong());
+            bucket.sort();
+            for (NextTickListEntry entry : bucket.entries) {
+                int cmp = entry.compareTo(e);
+                if (cmp > 0 || (inclusive && cmp == 0)) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Nullable private NextTickListEntry floorOrLower(NextTickListEntry e, boolean inclusive) {
+        // positioned after the scheduled time of e, if it's in the set
+        LongBidirectionalIterator it = times.iterator(e.scheduledTime);
+        while (it.hasPrevious()) {
+            TimeBucket bucket = byTime.get(it.previousLong());
+            if (bucket.entries.isEmpty()) {
+                continue;
+            }
+            bucket.sort();
+            ObjectListIterator<NextTickListEntry> entryIt = bucket.entries.iterator(bucket.entries.last());
+            while (entryIt.hasPrevious()) {
+                NextTickListEntry entry = entryIt.previous();
+                int cmp = entry.compareTo(e);
+                if (cmp < 0 || (inclusive && cmp == 0)) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Iterates the entries in the same order as vanilla TreeSet does
+     */
+    public Iterator<NextTickListEntry> iterator() {
+        return new OrderedIterator();
+    }
+
+    public void clear() {
+        byCube.clear();
+        byTime.clear();
+        times.clear();
+        size = 0;
+    }
+
+    private static final class TimeBucket {
+
+        final long time;
+        final ReferenceLinkedOpenHashSet<NextTickListEntry> entries = new ReferenceLinkedOpenHashSet<>();
+        // entries are almost always added in order, only sort when that's not the case
+        boolean sorted = true;
+
+        TimeBucket(long time) {
+            this.time = time;
+        }
+
+        void add(NextTickListEntry e) {
+            if (sorted && !entries.isEmpty() && e.compareTo(entries.last()) < 0) {
+                sorted = false;
+            }
+            entries.add(e);
+        }
+
+        void sort() {
+            if (sorted) {
+                return;
+            }
+            NextTickListEntry[] array = entries.toArray(new NextTickListEntry[0]);
+            Arrays.sort(array);
+            entries.clear();
+            entries.addAll(Arrays.asList(array));
+            sorted = true;
+        }
+    }
+
+    /**
+     * Iterates over a copy of each bucket, so that entries can be removed from the store while it's on that bucket. Vanilla
+     * WorldServer.getPendingBlockUpdates removes the entry through the HashSet view before calling {@link #remove()}.
+     */
+    private final class OrderedIterator implements Iterator<NextTickListEntry> {
+
+        private final LongBidirectionalIterator timeIt = times.iterator();
+        @Nullable private TimeBucket bucket;
+        private NextTickListEntry[] bucketEntries = new NextTickListEntry[0];
+        private int bucketSize;
+        private int bucketIndex;
+        @Nullable private NextTickListEntry next;
+        @Nullable private TimeBucket lastBucket;
+        @Nullable private NextTickListEntry lastEntry;
+
+        @Override public boolean hasNext() {
+            while (next == null) {
+                while (bucketIndex < bucketSize) {
+                    NextTickListEntry e = bucketEntries[bucketIndex];
+                    bucketEntries[bucketIndex++] = null;
+                    // skip entries removed from the store since the bucket was copied
+                    if (bucket.entries.contains(e)) {
+                        next = e;
+                        return true;
+                    }
+                }
+                // the time iterator can only remove the time it's on, so drop the bucket before moving past it
+                if (bucket != null && bucket.entries.isEmpty()) {
+                    timeIt.remove();
+                    byTime.remove(bucket.time);
+                }
+                bucket = null;
+                bucketSize = 0;
+                if (!timeIt.hasNext()) {
+                    return false;
+                }
+                bucket = byTime.get(timeIt.nextLong());
+                bucket.sort();
+                bucketSize = bucket.entries.size();
+                bucketEntries = bucket.entries.toArray(bucketEntries);
+                bucketIndex = 0;
+            }
+            return true;
+        }
+
+        @Override public NextTickListEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastBucket = bucket;
+            lastEntry = next;
+            next = null;
+            return lastEntry;
+        }
+
+        @Override public void remove() {
+            if (lastEntry == null || lastBucket == null) {
+                throw new IllegalStateException();
+            }
+            // the entry may already have been removed through one of the views
+            if (removeFromCube(lastEntry) != null) {
+                lastBucket.entries.remove(lastEntry);
+                size--;
+            }
+            // the bucket is removed once empty by hasNext(), first() or last()
+            lastEntry = null;
+        }
+    }
+
+    private final class SetView extends AbstractSet<NextTickListEntry> {
+
+        @Override public Iterator<NextTickListEntry> iterator() {
+            return ScheduledTickStore.this.iterator();
+        }
+
+        @Override public int size() {
+            return size;
+        }
+
+        @Override public boolean contains(Object o) {
+            return ScheduledTickStore.this.contains(o);
+        }
+
+        @Override public boolean add(NextTickListEntry e) {
+            return ScheduledTickStore.this.add(e);
+        }
+
+        @Override public boolean remove(Object o) {
+            return ScheduledTickStore.this.remove(o);
+        }
+
+        @Override public void clear() {
+            ScheduledTickStore.this.clear();
+        }
+    }
+
+    private final class ListView extends AbstractList<NextTickListEntry> {
+
+        @Override public Iterator<NextTickListEntry> iterator() {
+            return ScheduledTickStore.this.iterator();
+        }
+
+        @Override public NextTickListEntry get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            Iterator<NextTickListEntry> it = iterator();
+            for (int i = 0; i < index; i++) {
+                it.next();
+            }
+            return it.next();
+        }
+
+        @Override public int size() {
+            return size;
+        }
+
+        @Override public boolean contains(Object o) {
+            return ScheduledTickStore.this.contains(o);
+        }
+
+        @Override public boolean add(NextTickListEntry e) {
+            return ScheduledTickStore.this.add(e);
+        }
+
+        @Override public boolean remove(Object o) {
+            return ScheduledTickStore.this.remove(o);
+        }
+
+        @Override public void clear() {
+            ScheduledTickStore.this.clear();
+        }
+    }
+
+    /**
+     * Iteration, lookups of neighboring entries and everything vanilla uses are supported, range views and reverse iteration
+     * throw {@link UnsupportedOperationException}. The TreeSet superclass storage is never used, so clone and serialization
+     * produce a plain TreeSet copy of the entries.
+     */
+    private final class TreeSetView extends TreeSet<NextTickListEntry> {
+
+        @Override public Iterator<NextTickListEntry> iterator() {
+            return ScheduledTickStore.this.iterator();
+        }
+
+        @Override public Spliterator<NextTickListEntry> spliterator() {
+            return Spliterators.spliterator(this, Spliterator.DISTINCT | Spliterator.ORDERED | Spliterator.SORTED);
+        }
+
+        @Override public int size() {
+            return size;
+        }
+
+        @Override public boolean isEmpty() {
+            return size == 0;
+        }
+
+        @Override public boolean contains(Object o) {
+            return ScheduledTickStore.this.contains(o);
+        }
+
+        @Override public boolean add(NextTickListEntry e) {
+            return ScheduledTickStore.this.add(e);
+        }
+
+        @Override public boolean addAll(Collection<? extends NextTickListEntry> c) {
+            boolean changed = false;
+            for (NextTickListEntry e : c) {
+                changed |= ScheduledTickStore.this.add(e);
+            }
+            return changed;
+        }
+
+        @Override public boolean remove(Object o) {
+            return ScheduledTickStore.this.remove(o);
+        }
+
+        @Override public void clear() {
+            ScheduledTickStore.this.clear();
+        }
+
+        @Override public NextTickListEntry first() {
+            return ScheduledTickStore.this.first();
+        }
+
+        @Override public NextTickListEntry last() {
+            return ScheduledTickStore.this.last();
+        }
+
+        @Nullable @Override public NextTickListEntry pollFirst() {
+            if (size == 0) {
+                return null;
+            }
+            NextTickListEntry e = first();
+            ScheduledTickStore.this.remove(e);
+            return e;
+        }
+
+        @Nullable @Override public NextTickListEntry pollLast() {
+            if (size == 0) {
+                return null;
+            }
+            NextTickListEntry e = last();
+            ScheduledTickStore.this.remove(e);
+            return e;
+        }
+
+        @Override public Iterator<NextTickListEntry> descendingIterator() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public NavigableSet<NextTickListEntry> descendingSet() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Nullable @Override public NextTickListEntry lower(NextTickListEntry e) {
+            return floorOrLower(e, false);
+        }
+
+        @Nullable @Override public NextTickListEntry floor(NextTickListEntry e) {
+            return floorOrLower(e, true);
+        }
+
+        @Nullable @Override public NextTickListEntry ceiling(NextTickListEntry e) {
+            return ceilingOrHigher(e, true);
+        }
+
+        @Nullable @Override public NextTickListEntry higher(NextTickListEntry e) {
+            return ceilingOrHigher(e, false);
+        }
+
+        @Override public Object clone() {
+            TreeSet<NextTickListEntry> copy = new TreeSet<>();
+            for (NextTickListEntry e : this) {
+                copy.add(e);
+            }
+            return copy;
+        }
+
+        private Object writeReplace() {
+            return clone();
+        }
+
+        @Override public NavigableSet<NextTickListEntry> subSet(NextTickListEntry fromElement, boolean fromInclusive,
+                NextTickListEntry toElement, boolean toInclusive) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public NavigableSet<NextTickListEntry> headSet(NextTickListEntry toElement, boolean inclusive) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public NavigableSet<NextTickListEntry> tailSet(NextTickListEntry fromElement, boolean inclusive) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public SortedSet<NextTickListEntry> subSet(NextTickListEntry fromElement, NextTickListEntry toElement) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public SortedSet<NextTickListEntry> headSet(NextTickListEntry toElement) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public SortedSet<NextTickListEntry> tailSet(NextTickListEntry fromElement) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    // vanilla bug, see https://github.com/SleepyTrousers/EnderCore/issues/105
+    // NextTickListEntry equals and compareTo are not consistent,
+    // breaking HashMap when there are a lot of hash collisions
+    // fix based on https://github.com/gnembon/carpetmod112/blob/a84ad2617ab3c2ca7b10b28264ba325f8adecd3f/patches/net/minecraft/world/NextTickListEntry.java.patch
+    // thanks to Earthcomputer for bringing it up
+
+    public static final class EqualsHashCodeWrapper<T extends Comparable<T>> implements Comparable<EqualsHashCodeWrapper<T>> {
+
+        final T entry;
+
+        public EqualsHashCodeWrapper(T entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public int hashCode() {
+            return entry.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object entry) {
+            if (!(entry instanceof EqualsHashCodeWrapper)) {
+                return false;
+            }
+            return this.entry.equals(((EqualsHashCodeWrapper<?>) entry).entry);
+        }
+
+        @Override
+        public int compareTo(EqualsHashCodeWrapper<T> other) {
+            if (this.equals(other)) {
+                return 0;
+            }
+            return this.entry.compareTo(other.entry);
+        }
+    }
+}
@@ -39,9 +39,25 @@ public abstract class CubeSelector {
 
     public abstract void forAllVisibleFrom(CubePos cubePos, int horizontalViewDistance, int verticalViewDistance, Consumer<CubePos> consumer);
 
+    /**
+     * Finds cubes and columns that become visible or stop being visible when moving from oldAddress to newAddress.
+     * The handlers are called in this order: all columns to load, all cubes to load, all cubes to remove, all columns to remove.
+     */
     public abstract void findChanged(CubePos oldAddress, CubePos newAddress, int horizontalViewDistance, int verticalViewDistance,
-            Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad, Set<ChunkPos> columnsToRemove, Set<ChunkPos> columnsToLoad);
+            CubeHandler cubesToRemove, CubeHandler cubesToLoad, ColumnHandler columnsToRemove, ColumnHandler columnsToLoad);
 
     public abstract void findAllUnloadedOnViewDistanceDecrease(CubePos playerAddress, int oldHorizontalViewDistance, int newHorizontalViewDistance,
             int oldVerticalViewDistance, int newVerticalViewDistance, Set<CubePos> cubesToUnload, Set<ChunkPos> columnsToUnload);
+
+    @FunctionalInterface
+    public interface CubeHandler {
+
+        void accept(int cubeX, int cubeY, int cubeZ);
+    }
+
+    @FunctionalInterface
+    public interface ColumnHandler {
+
+        void accept(int cubeX, int cubeZ);
+    }
 }
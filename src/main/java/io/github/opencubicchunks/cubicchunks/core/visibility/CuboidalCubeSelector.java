@@ -54,47 +54,51 @@ public class CuboidalCubeSelector extends CubeSelector {
     @Override
     public void findChanged(CubePos oldPos, CubePos newPos,
             int horizontalViewDistance, int verticalViewDistance,
-            Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad,
-            Set<ChunkPos> columnsToRemove, Set<ChunkPos> columnsToLoad) {
+            CubeHandler cubesToRemove, CubeHandler cubesToLoad,
+            ColumnHandler columnsToRemove, ColumnHandler columnsToLoad) {
         int oldX = oldPos.getX();
         int oldY = oldPos.getY();
         int oldZ = oldPos.getZ();
         int newX = newPos.getX();
         int newY = newPos.getY();
         int newZ = newPos.getZ();
-        int dx = newX - oldX;
-        int dy = newY - oldY;
-        int dz = newZ - oldZ;
+        int h = horizontalViewDistance;
+        int v = verticalViewDistance;
 
-        for (int currentX = newX - horizontalViewDistance; currentX <= newX + horizontalViewDistance; ++currentX) {
-            for (int currentZ = newZ - horizontalViewDistance; currentZ <= newZ + horizontalViewDistance; ++currentZ) {
-                //first handle columns
-                //is current position outside of the old render distance square?
-                if (!this.isPointWithinCubeVolume(oldX, 0, oldZ, currentX, 0, currentZ, horizontalViewDistance, verticalViewDistance)) {
-                    columnsToLoad.add(new ChunkPos(currentX, currentZ));
-                }
+        // columns are handled as cubes with y=0 and no vertical view distance
+        forEachOutside(newX - h, 0, newZ - h, newX + h, 0, newZ + h,
+                oldX - h, 0, oldZ - h, oldX + h, 0, oldZ + h, (x, y, z) -> columnsToLoad.accept(x, z));
+        forEachOutside(newX - h, newY - v, newZ - h, newX + h, newY + v, newZ + h,
+                oldX - h, oldY - v, oldZ - h, oldX + h, oldY + v, oldZ + h, cubesToLoad);
+        forEachOutside(oldX - h, oldY - v, oldZ - h, oldX + h, oldY + v, oldZ + h,
+                newX - h, newY - v, newZ - h, newX + h, newY + v, newZ + h, cubesToRemove);
+        forEachOutside(oldX - h, 0, oldZ - h, oldX + h, 0, oldZ + h,
+                newX - h, 0, newZ - h, newX + h, 0, newZ + h, (x, y, z) -> columnsToRemove.accept(x, z));
+    }
 
-                //if we moved the current point to where it would be previously,
-                //would it be outside of current render distance square?
-                if (!this.isPointWithinCubeVolume(newX, 0, newZ, currentX - dx, 0, currentZ - dz, horizontalViewDistance, verticalViewDistance)) {
-                    columnsToRemove.add(new ChunkPos(currentX - dx, currentZ - dz));
-                }
-                for (int currentY = newY - verticalViewDistance; currentY <= newY + verticalViewDistance; ++currentY) {
-                    //now handle cubes, the same way
-                    if (!this.isPointWithinCubeVolume(oldX, oldY, oldZ, currentX, currentY, currentZ,
-                            horizontalViewDistance, verticalViewDistance)) {
-                        cubesToLoad.add(new CubePos(currentX, currentY, currentZ));
-                    }
-                    if (!this.isPointWithinCubeVolume(newX, newY, newZ, currentX - dx, currentY - dy, currentZ - dz,
-                            horizontalViewDistance, verticalViewDistance)) {
-                        cubesToRemove.add(new CubePos(currentX - dx, currentY - dy, currentZ - dz));
+    /**
+     * Calls the handler for each position inside the box (minX, minY, minZ)-(maxX, maxY, maxZ) and outside of the excluded box.
+     * Only the slabs outside of the excluded box are visited, the overlap is skipped without looking at each position.
+     */
+    private static void forEachOutside(int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+            int exMinX, int exMinY, int exMinZ, int exMaxX, int exMaxY, int exMaxZ, CubeHandler handler) {
+        for (int x = minX; x <= maxX; x++) {
+            boolean outsideX = x < exMinX || x > exMaxX;
+            for (int y = minY; y <= maxY; y++) {
+                if (outsideX || y < exMinY || y > exMaxY) {
+                    for (int z = minZ; z <= maxZ; z++) {
+                        handler.accept(x, y, z);
                     }
+                    continue;
+                }
+                for (int z = minZ, end = Math.min(maxZ, exMinZ - 1); z <= end; z++) {
+                    handler.accept(x, y, z);
+                }
+                for (int z = Math.max(minZ, exMaxZ + 1); z <= maxZ; z++) {
+                    handler.accept(x, y, z);
                 }
             }
         }
-
-        assert cubesToLoad.stream().allMatch(pos -> !cubesToRemove.contains(pos)) : "cubesToRemove contains element from cubesToLoad!";
-        assert columnsToLoad.stream().allMatch(pos -> !columnsToRemove.contains(pos)) : "columnsToRemove contains element from columnsToLoad!";
     }
 
     @Override
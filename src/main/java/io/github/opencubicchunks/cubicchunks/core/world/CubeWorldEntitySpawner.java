@@ -28,6 +28,14 @@ import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.core.server.CubeWatcher;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.EntityLiving;
@@ -45,11 +53,9 @@ import net.minecraftforge.event.ForgeEventFactory;
 import net.minecraftforge.fml.common.eventhandler.Event;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
-import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -62,8 +68,18 @@ public class CubeWorldEntitySpawner implements IWorldEntitySpawner {
     private static final int CUBES_PER_CHUNK = 16;
     private static final int MOB_COUNT_DIV = (int) Math.pow(17.0D, 2.0D) * CUBES_PER_CHUNK;
     private static final int SPAWN_RADIUS = 8;
+    // each cube in spawn range is tried with this probability, the same as vanilla
+    private static final double SPAWN_CUBE_CHANCE = 1.0 / (SPAWN_RADIUS * 2 + 1);
 
-    @Nonnull private Set<CubePos> cubesForSpawn = new HashSet<>();
+    // cube position of each player at the time the cube ranges below were last updated, by entity ID
+    private final Int2ObjectMap<CubePos> playerCubes = new Int2ObjectOpenHashMap<>();
+    // cubes within SPAWN_RADIUS of any player, used for mob cap
+    private final CubeRange cubesInRange = new CubeRange();
+    // cubes not on the edge of spawn radius of any player, these can spawn mobs
+    private final CubeRange cubesInSpawnRange = new CubeRange();
+    private final IntSet seenPlayers = new IntOpenHashSet();
+
+    @Nonnull private List<CubePos> cubesForSpawn = new ArrayList<>();
 
     @Override
     public int findChunksForSpawning(WorldServer world, boolean hostileEnable, boolean peacefulEnable, boolean spawnOnSetTickRate) {
@@ -72,7 +88,9 @@ public class CubeWorldEntitySpawner implements IWorldEntitySpawner {
         }
         this.cubesForSpawn.clear();
 
-        int chunkCount = addEligibleChunks(world, this.cubesForSpawn);
+        updatePlayerRanges(world);
+        int chunkCount = this.cubesInRange.size();
+        addEligibleChunks(world, this.cubesForSpawn);
         int totalSpawnCount = 0;
 
         for (EnumCreatureType mobType : EnumCreatureType.values()) {
@@ -85,56 +103,97 @@ public class CubeWorldEntitySpawner implements IWorldEntitySpawner {
             if (worldEntityCount > maxEntityCount) {
                 continue;
             }
-            ArrayList<CubePos> shuffled = getShuffledCopy(this.cubesForSpawn);
-            totalSpawnCount += spawnCreatureTypeInAllChunks(mobType, world, shuffled);
+            Collections.shuffle(this.cubesForSpawn);
+            totalSpawnCount += spawnCreatureTypeInAllChunks(mobType, world, this.cubesForSpawn);
         }
         return totalSpawnCount;
     }
 
-    private int addEligibleChunks(WorldServer world, Set<CubePos> possibleChunks) {
-        int chunkCount = 0;
-        Random r = world.rand;
-        Set<CubePos> allCubes = new HashSet<>();
+    /**
+     * Moves the cube ranges of players that changed cube since the last spawn tick, and removes ranges of players that
+     * left or became spectators. Only cubes that enter or leave a player's range are touched.
+     */
+    private void updatePlayerRanges(WorldServer world) {
+        seenPlayers.clear();
         for (EntityPlayer player : world.playerEntities) {
             if (player.isSpectator()) {
                 continue;
             }
+            seenPlayers.add(player.getEntityId());
             CubePos center = CubePos.fromEntity(player);
+            CubePos oldCenter = playerCubes.put(player.getEntityId(), center);
+            if (!center.equals(oldCenter)) {
+                moveRange(cubesInRange, oldCenter, center, SPAWN_RADIUS);
+                moveRange(cubesInSpawnRange, oldCenter, center, SPAWN_RADIUS - 1);
+            }
+        }
+        ObjectIterator<Int2ObjectMap.Entry<CubePos>> it = playerCubes.int2ObjectEntrySet().iterator();
+        while (it.hasNext()) {
+            Int2ObjectMap.Entry<CubePos> entry = it.next();
+            if (!seenPlayers.contains(entry.getIntKey())) {
+                moveRange(cubesInRange, entry.getValue(), null, SPAWN_RADIUS);
+                moveRange(cubesInSpawnRange, entry.getValue(), null, SPAWN_RADIUS - 1);
+                it.remove();
+            }
+        }
+    }
 
-            for (int cubeXRel = -SPAWN_RADIUS; cubeXRel <= SPAWN_RADIUS; ++cubeXRel) {
-                for (int cubeYRel = -SPAWN_RADIUS; cubeYRel <= SPAWN_RADIUS; ++cubeYRel) {
-                    for (int cubeZRel = -SPAWN_RADIUS; cubeZRel <= SPAWN_RADIUS; ++cubeZRel) {
-                        CubePos chunkPos = center.add(cubeXRel, cubeYRel, cubeZRel);
-
-                        if (allCubes.contains(chunkPos)) {
-                            continue;
-                        }
-                        assert !possibleChunks.contains(chunkPos);
-                        ++chunkCount;
-
-                        boolean isEdge = cubeXRel == -SPAWN_RADIUS || cubeXRel == SPAWN_RADIUS ||
-                                cubeYRel == -SPAWN_RADIUS || cubeYRel == SPAWN_RADIUS ||
-                                cubeZRel == -SPAWN_RADIUS || cubeZRel == SPAWN_RADIUS;
-
-                        if (isEdge || !world.getWorldBorder().contains(chunkPos.chunkPos())) {
-                            continue;
+    private static void moveRange(CubeRange range, @Nullable CubePos from, @Nullable CubePos to, int radius) {
+        if (from != null) {
+            for (int x = from.getX() - radius; x <= from.getX() + radius; x++) {
+                for (int y = from.getY() - radius; y <= from.getY() + radius; y++) {
+                    for (int z = from.getZ() - radius; z <= from.getZ() + radius; z++) {
+                        if (to == null || !isInRange(to, radius, x, y, z)) {
+                            range.remove(new CubePos(x, y, z));
                         }
-                        CubeWatcher chunkInfo = ((PlayerCubeMap) world.getPlayerChunkMap()).getCubeWatcher(chunkPos);
-
-                        if (chunkInfo != null && chunkInfo.isSentToPlayers()) {
-                            allCubes.add(chunkPos);
-                            if (r.nextInt(SPAWN_RADIUS * 2 + 1) == 0) {
-                                possibleChunks.add(chunkPos);
-                            }
+                    }
+                }
+            }
+        }
+        if (to != null) {
+            for (int x = to.getX() - radius; x <= to.getX() + radius; x++) {
+                for (int y = to.getY() - radius; y <= to.getY() + radius; y++) {
+                    for (int z = to.getZ() - radius; z <= to.getZ() + radius; z++) {
+                        if (from == null || !isInRange(from, radius, x, y, z)) {
+                            range.add(new CubePos(x, y, z));
                         }
                     }
                 }
             }
         }
-        return chunkCount;
     }
 
-    private int spawnCreatureTypeInAllChunks(EnumCreatureType mobType, WorldServer world, ArrayList<CubePos> chunkList) {
+    private static boolean isInRange(CubePos center, int radius, int x, int y, int z) {
+        return Math.abs(x - center.getX()) <= radius && Math.abs(y - center.getY()) <= radius && Math.abs(z - center.getZ()) <= radius;
+    }
+
+    /**
+     * Picks each cube in spawn range with {@link #SPAWN_CUBE_CHANCE}, by skipping geometrically distributed amounts of cubes
+     * instead of rolling for each one, and keeps the ones that are sent to players and inside world border.
+     */
+    private void addEligibleChunks(WorldServer world, List<CubePos> possibleChunks) {
+        Random r = world.rand;
+        PlayerCubeMap playerCubeMap = (PlayerCubeMap) world.getPlayerChunkMap();
+        double logMissChance = Math.log(1 - SPAWN_CUBE_CHANCE);
+        int count = cubesInSpawnRange.size();
+        for (int i = nextSkip(r, logMissChance); i < count; i += 1 + nextSkip(r, logMissChance)) {
+            CubePos chunkPos = cubesInSpawnRange.get(i);
+            if (!world.getWorldBorder().contains(chunkPos.chunkPos())) {
+                continue;
+            }
+            CubeWatcher chunkInfo = playerCubeMap.getCubeWatcher(chunkPos);
+
+            if (chunkInfo != null && chunkInfo.isSentToPlayers()) {
+                possibleChunks.add(chunkPos);
+            }
+        }
+    }
+
+    private static int nextSkip(Random r, double logMissChance) {
+        return (int) (Math.log(1 - r.nextDouble()) / logMissChance);
+    }
+
+    private int spawnCreatureTypeInAllChunks(EnumCreatureType mobType, WorldServer world, List<CubePos> chunkList) {
         BlockPos spawnPoint = world.getSpawnPoint();
         BlockPos.MutableBlockPos blockPos = new BlockPos.MutableBlockPos();
 
@@ -233,12 +292,6 @@ public class CubeWorldEntitySpawner implements IWorldEntitySpawner {
         return totalSpawned;
     }
 
-    private static <T> ArrayList<T> getShuffledCopy(Collection<T> collection) {
-        ArrayList<T> list = new ArrayList<>(collection);
-        Collections.shuffle(list);
-        return list;
-    }
-
     private static boolean shouldSpawnType(EnumCreatureType type, boolean hostile, boolean peaceful, boolean spawnOnSetTickRate) {
         return !((type.getPeacefulCreature() && !peaceful) ||
                 (!type.getPeacefulCreature() && !hostile) ||
@@ -256,4 +309,47 @@ public class CubeWorldEntitySpawner implements IWorldEntitySpawner {
         int blockY = pos.getMinBlockY() + world.rand.nextInt(Cube.SIZE);
         return new BlockPos(blockX, blockY, blockZ);
     }
+
+    /**
+     * Counts how many players have each cube in range, and keeps the cubes in an array so that they can be picked by index.
+     */
+    private static final class CubeRange {
+
+        private final Object2IntMap<CubePos> playerCounts = new Object2IntOpenHashMap<>();
+        private final Object2IntMap<CubePos> indices = new Object2IntOpenHashMap<>();
+        private final ObjectArrayList<CubePos> cubes = new ObjectArrayList<>();
+
+        void add(CubePos pos) {
+            int count = playerCounts.getInt(pos);
+            playerCounts.put(pos, count + 1);
+            if (count == 0) {
+                indices.put(pos, cubes.size());
+                cubes.add(pos);
+            }
+        }
+
+        void remove(CubePos pos) {
+            int count = playerCounts.getInt(pos);
+            if (count > 1) {
+                playerCounts.put(pos, count - 1);
+                return;
+            }
+            playerCounts.removeInt(pos);
+            // swap with the last cube to remove in constant time
+            int index = indices.removeInt(pos);
+            CubePos last = cubes.pop();
+            if (index < cubes.size()) {
+                cubes.set(index, last);
+                indices.put(last, index);
+            }
+        }
+
+        CubePos get(int index) {
+            return cubes.get(index);
+        }
+
+        int size() {
+            return cubes.size();
+        }
+    }
 }
@@ -29,4 +29,9 @@ import net.minecraft.world.chunk.ChunkPrimer;
 
 public interface IColumnInternal extends IColumn {
     ChunkPrimer getCompatGenerationPrimer();
+
+    /**
+     * Called when a cube in this column starts or stops ticking, or gets a new block storage
+     */
+    void markStoragesToTickDirty();
 }
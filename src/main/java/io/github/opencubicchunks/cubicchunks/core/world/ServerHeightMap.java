@@ -35,6 +35,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.annotation.Nonnull;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -44,11 +45,11 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class ServerHeightMap implements IHeightMap {
 
     /**
-     * Special value to indicate the absence of a segment in the segments arrays.
-     * Since all integer values might represent a valid segment, an unlikely value to occur has been chosen. It
-     * logically represents a 1-block segment at the very top of the world.
+     * Initial size of the shared segment array, enough for a few block columns with segments.
      */
-    private static final int NONE_SEGMENT = 0x7fffffff;
+    private static final int MIN_SEGMENT_DATA_SIZE = 64;
+
+    private static final int[] NO_SEGMENT_DATA = new int[0];
 
     /**
      * Array containing the y-coordinates of the lowest segment in each block column. The value {@link Coords#NO_HEIGHT}
@@ -63,9 +64,27 @@ public class ServerHeightMap implements IHeightMap {
     @Nonnull private final HeightMap ymax;
 
     /**
-     * Array containing an array of segments for each x/z position in a column.
+     * Segments of all block columns, packed into one array. Each block column with segments owns a slot of
+     * {@link #getSegmentCapacity(int)} entries starting at {@link #segmentOffsets}. Block columns without segments
+     * (the common case, a single opaque range from ymin to ymax) don't use any space here. Slots that are no longer used
+     * are only reclaimed when the array runs out of space, so changing opacity doesn't allocate in most cases.
+     */
+    @Nonnull private int[] segmentData;
+
+    /**
+     * End of the used part of {@link #segmentData}.
      */
-    @Nonnull private final int[][] segments;
+    private int segmentDataEnd;
+
+    /**
+     * Start of the segments of each block column in {@link #segmentData}.
+     */
+    @Nonnull private final int[] segmentOffsets;
+
+    /**
+     * Number of segments in each block column, 0 if the block column doesn't have segments.
+     */
+    @Nonnull private final int[] segmentCounts;
 
     private int heightMapLowest;
 
@@ -73,7 +92,9 @@ public class ServerHeightMap implements IHeightMap {
         this.ymin = new int[Cube.SIZE * Cube.SIZE];
         this.ymax = new HeightMap(heightmap);
 
-        this.segments = new int[Cube.SIZE * Cube.SIZE][];
+        this.segmentData = NO_SEGMENT_DATA;
+        this.segmentOffsets = new int[Cube.SIZE * Cube.SIZE];
+        this.segmentCounts = new int[Cube.SIZE * Cube.SIZE];
 
         // init to empty
         for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
@@ -89,13 +110,29 @@ public class ServerHeightMap implements IHeightMap {
         return (segmentIndex + 1) % 2;
     }
 
-    private static int getLastSegmentIndex(int[] segments) {
-        for (int i = segments.length - 1; i >= 0; i--) {
-            if (segments[i] != NONE_SEGMENT) {
-                return i;
-            }
-        }
-        throw new Error("Invalid segments state");
+    /**
+     * Returns the size of the slot in {@link #segmentData} used by a block column with the given number of segments.
+     * Slots are at least 4 entries big, which fits the common case of 3 segments.
+     */
+    private static int getSegmentCapacity(int segmentCount) {
+        return segmentCount <= 4 ? 4 : Integer.highestOneBit(segmentCount - 1) << 1;
+    }
+
+    private boolean hasSegments(int xzIndex) {
+        return this.segmentCounts[xzIndex] != 0;
+    }
+
+    private int getLastSegmentIndex(int xzIndex) {
+        assert hasSegments(xzIndex) : "Invalid segments state";
+        return this.segmentCounts[xzIndex] - 1;
+    }
+
+    private int getSegment(int xzIndex, int segmentIndex) {
+        return this.segmentData[this.segmentOffsets[xzIndex] + segmentIndex];
+    }
+
+    private void setSegment(int xzIndex, int segmentIndex, int value) {
+        this.segmentData[this.segmentOffsets[xzIndex] + segmentIndex] = value;
     }
 
     /**
@@ -106,7 +143,7 @@ public class ServerHeightMap implements IHeightMap {
      * @return True if the number of segments is correct.
      */
     private boolean parityCheck(int xzIndex) {
-        return getLastSegmentIndex(segments[xzIndex]) % 2 == 0;
+        return getLastSegmentIndex(xzIndex) % 2 == 0;
     }
 
     // Interface: IHeightMap ----------------------------------------------------------------------------------------
@@ -120,7 +157,7 @@ public class ServerHeightMap implements IHeightMap {
 
         // try to stay in no-segments mode as long as we can, this is the simple case
         boolean isOpaque = opacity != 0;
-        if (this.segments[xzIndex] == null) {
+        if (!hasSegments(xzIndex)) {
             this.setNoSegments(xzIndex, blockY, isOpaque);
         } else {
             this.setOpacityWithSegments(xzIndex, blockY, isOpaque);
@@ -155,28 +192,12 @@ public class ServerHeightMap implements IHeightMap {
 
         // There are no opacity changes, everything is opaque from ymin to ymax. blockY is between ymin and ymax, thus
         // the next opaque block below blockY is blockY - 1.
-        int[] segments = this.segments[i];
-        if (segments == null) {
+        if (!hasSegments(i)) {
             return blockY - 1;
         }
 
         // binary search for the segment containing blockY
-        int mini = 0;
-        int maxi = getLastSegmentIndex(segments);
-        while (mini <= maxi) {
-            int midi = (mini + maxi) >>> 1;
-            int midPos = segments[midi];
-
-            if (midPos < blockY) {
-                mini = midi + 1;
-            } else if (midPos > blockY) {
-                maxi = midi - 1;
-            } else {
-                // hit a segment start exactly
-                mini = midi + 1;
-                break;
-            }
-        }
+        int mini = findSegmentAbove(i, blockY);
 
         assert (mini > 0) : String.format("can't find %d in %s", blockY, dump(localX, localZ));
 
@@ -186,7 +207,7 @@ public class ServerHeightMap implements IHeightMap {
         if (segmentIndex < 0) {
             return Coords.NO_HEIGHT;
         }
-        int blockYSegment = segments[segmentIndex];
+        int blockYSegment = getSegment(i, segmentIndex);
         int blockYSegmentOpacity = getOpacity(segmentIndex);
 
         // The lowest segment is always opaque. Thus, if blockY is in the lowest segment, the next opaque block is
@@ -211,9 +232,35 @@ public class ServerHeightMap implements IHeightMap {
 
         // If blockY is the lowest block in its segment, the next opaque block is the highest block in the next opaque
         // segment.
-        int belowYSegment = segments[segmentIndex - 1];
+        int belowYSegment = getSegment(i, segmentIndex - 1);
         return belowYSegment - 1;
     }
+
+    /**
+     * Binary search for the segment containing blockY. Returns the index of the segment containing blockY plus one, or 0 if
+     * blockY is below the lowest segment.
+     */
+    private int findSegmentAbove(int xzIndex, int blockY) {
+        int[] data = this.segmentData;
+        int offset = this.segmentOffsets[xzIndex];
+        int mini = 0;
+        int maxi = getLastSegmentIndex(xzIndex);
+        while (mini <= maxi) {
+            int midi = (mini + maxi) >>> 1;
+            int midPos = data[offset + midi];
+
+            if (midPos < blockY) {
+                mini = midi + 1;
+            } else if (midPos > blockY) {
+                maxi = midi - 1;
+            } else {
+                // hit a segment start exactly
+                return midi + 1;
+            }
+        }
+        return mini;
+    }
+
     @Override
     public int getLowestTopBlockY() {
         if (this.heightMapLowest == Coords.NO_HEIGHT) {
@@ -286,11 +333,11 @@ public class ServerHeightMap implements IHeightMap {
              [ ]
               ^ going up from there
              */
-            this.segments[xzIndex] = new int[]{
+            setThreeSegments(xzIndex,
                     this.ymin[xzIndex],
                     this.ymax.get(xzIndex) + 1,
                     blockY
-            };
+            );
             this.ymax.set(xzIndex, blockY);
             return;
             //more than one block below ymin?
@@ -317,11 +364,11 @@ public class ServerHeightMap implements IHeightMap {
              [ ]
               ^ going up from there
              */
-            this.segments[xzIndex] = new int[]{
+            setThreeSegments(xzIndex,
                     blockY,
                     blockY + 1,
                     this.ymin[xzIndex]
-            };
+            );
             this.ymin[xzIndex] = blockY;
             return;
         }
@@ -387,31 +434,16 @@ public class ServerHeightMap implements IHeightMap {
          [ ]
           ^ going up
         */
-        this.segments[xzIndex] = new int[]{
+        setThreeSegments(xzIndex,
                 this.ymin[xzIndex],
                 blockY,
                 blockY + 1
-        };
+        );
     }
 
     private void setOpacityWithSegments(int xzIndex, int blockY, boolean isOpaque) {
         // binary search to find the insertion point
-        int[] segments = this.segments[xzIndex];
-        int minj = 0;
-        int maxj = getLastSegmentIndex(segments);
-        while (minj <= maxj) {
-            int midj = (minj + maxj) >>> 1;
-            int midPos = segments[midj];
-
-            if (midPos < blockY) {
-                minj = midj + 1;
-            } else if (midPos > blockY) {
-                maxj = midj - 1;
-            } else {
-                minj = midj + 1;
-                break;
-            }
-        }
+        int minj = findSegmentAbove(xzIndex, blockY);
 
         // minj-1 is the containing segment, or -1 if we're off the bottom
         int j = minj - 1;
@@ -472,8 +504,7 @@ public class ServerHeightMap implements IHeightMap {
             return;
         }
 
-        int[] segments = this.segments[xzIndex];
-        int lastIndex = getLastSegmentIndex(segments);
+        int lastIndex = getLastSegmentIndex(xzIndex);
 
         boolean extendsTopSegmentByOne = blockY == this.ymax.get(xzIndex) + 1;
         if (extendsTopSegmentByOne) {
@@ -512,10 +543,9 @@ public class ServerHeightMap implements IHeightMap {
     }
 
     private void setOpacityWithSegmentsFor(int xzIndex, int blockY, int segmentIndexWithBlockY, boolean isOpaque) {
-        int[] segments = this.segments[xzIndex];
         int isOpaqueInt = isOpaque ? 1 : 0;
 
-        int segmentWithBlockY = segments[segmentIndexWithBlockY];
+        int segmentWithBlockY = getSegment(xzIndex, segmentIndexWithBlockY);
 
         //does it even change anything?
         if (getOpacity(segmentIndexWithBlockY) == isOpaqueInt) {
@@ -536,7 +566,7 @@ public class ServerHeightMap implements IHeightMap {
           * change at the bottom of segment
           * change in the middle of segment
         */
-        int lastSegment = getLastSegmentIndex(segments);
+        int lastSegment = getLastSegmentIndex(xzIndex);
         if (blockY == segmentTop) {
             //if it's the top of the top segment - just change ymax
             if (segmentIndexWithBlockY == lastSegment) {
@@ -579,8 +609,7 @@ public class ServerHeightMap implements IHeightMap {
 
     private void negateOneBlockSegment(int xzIndex, int segmentIndexWithBlockY) {
 
-        int[] segments = this.segments[xzIndex];
-        int lastSegmentIndex = getLastSegmentIndex(segments);
+        int lastSegmentIndex = getLastSegmentIndex(xzIndex);
 
         assert lastSegmentIndex >= 2 : "Less than 3 segments in array!";
         if (segmentIndexWithBlockY == lastSegmentIndex) {
@@ -588,24 +617,23 @@ public class ServerHeightMap implements IHeightMap {
             //the top segment must be opaque, so we set it to transparent
             //and the segment below it is also transparent.
             //set both of them to NONE and decrease maxY
-            int segmentBelow = segments[segmentIndexWithBlockY - 1];
+            int segmentBelow = getSegment(xzIndex, segmentIndexWithBlockY - 1);
             this.ymax.set(xzIndex, segmentBelow - 1);
             if (segmentIndexWithBlockY == 2) {
                 //after removing top 2 segments we will be left with 1 segment
                 //remove them entirely to guarantee at least 3 segments and use min/maxY
-                this.segments[xzIndex] = null;
+                this.segmentCounts[xzIndex] = 0;
                 return;
             }
-            segments[segmentIndexWithBlockY] = NONE_SEGMENT;
-            segments[segmentIndexWithBlockY - 1] = NONE_SEGMENT;
+            this.segmentCounts[xzIndex] -= 2;
             assert parityCheck(xzIndex) : "The number of segments was wrong!";
             return;
         }
         if (segmentIndexWithBlockY == 0) {
             //same logic as for top segment applies
-            this.ymin[xzIndex] = segments[2];
+            this.ymin[xzIndex] = getSegment(xzIndex, 2);
             if (lastSegmentIndex == 2) {
-                this.segments[xzIndex] = null;
+                this.segmentCounts[xzIndex] = 0;
                 return;
             }
             removeTwoSegments(xzIndex, 0);
@@ -635,14 +663,14 @@ public class ServerHeightMap implements IHeightMap {
         //but in case after the removal there are less than 3 segments
         //remove them entirely and rely only on min/maxY
         if (lastSegmentIndex == 2) {
-            this.segments[xzIndex] = null;
+            this.segmentCounts[xzIndex] = 0;
         }
     }
 
     private void moveSegmentStartUpAndUpdateMinY(int xzIndex, int segmentIndex) {
 
         // move the segment
-        this.segments[xzIndex][segmentIndex] = this.segments[xzIndex][segmentIndex] + 1;
+        setSegment(xzIndex, segmentIndex, getSegment(xzIndex, segmentIndex) + 1);
 
         // move the bottom if needed
         if (segmentIndex == 0) {
@@ -653,7 +681,7 @@ public class ServerHeightMap implements IHeightMap {
     private void moveSegmentStartDownAndUpdateMinY(int xzIndex, int segmentIndex) {
 
         // move the segment
-        this.segments[xzIndex][segmentIndex] = this.segments[xzIndex][segmentIndex] - 1;
+        setSegment(xzIndex, segmentIndex, getSegment(xzIndex, segmentIndex) - 1);
 
         // move the bottom if needed
         if (segmentIndex == 0) {
@@ -663,64 +691,92 @@ public class ServerHeightMap implements IHeightMap {
 
     private void removeTwoSegments(int xzIndex, int firstSegmentToRemove) {
 
-        int[] segments = this.segments[xzIndex];
-        int jmax = getLastSegmentIndex(segments);
+        int count = this.segmentCounts[xzIndex];
+        int offset = this.segmentOffsets[xzIndex];
 
         // remove the segment
-        System.arraycopy(segments, firstSegmentToRemove + 2, segments, firstSegmentToRemove, jmax - 1 - firstSegmentToRemove);
-        segments[jmax] = NONE_SEGMENT;
-        segments[jmax - 1] = NONE_SEGMENT;
+        System.arraycopy(this.segmentData, offset + firstSegmentToRemove + 2, this.segmentData, offset + firstSegmentToRemove,
+                count - 2 - firstSegmentToRemove);
+        this.segmentCounts[xzIndex] = count - 2;
+        assert this.segmentCounts[xzIndex] == 0 || parityCheck(xzIndex) : "The number of segments was wrong!";
+    }
+
+    //if theIndex = lastSegmentIndex+1, it will be inserted after last segment
+    private void insertSegmentsBelow(int xzIndex, int theIndex, int newSegment1, int newSegment2) {
+        int count = this.segmentCounts[xzIndex];
+        //will it fit in current slot?
+        if (getSegmentCapacity(count) < count + 2) {
+            //move to a bigger slot, the old one is reclaimed on next compaction
+            int newOffset = allocateSegments(getSegmentCapacity(count + 2));
+            // the allocation may compact the array, so get the old offset after allocating
+            System.arraycopy(this.segmentData, this.segmentOffsets[xzIndex], this.segmentData, newOffset, count);
+            this.segmentOffsets[xzIndex] = newOffset;
+        }
+        int offset = this.segmentOffsets[xzIndex];
+        //shift all segments up
+        System.arraycopy(this.segmentData, offset + theIndex, this.segmentData, offset + theIndex + 2, count - theIndex);
+        this.segmentData[offset + theIndex] = newSegment1;
+        this.segmentData[offset + theIndex + 1] = newSegment2;
+        this.segmentCounts[xzIndex] = count + 2;
         assert parityCheck(xzIndex) : "The number of segments was wrong!";
+    }
 
-        if (segments[0] == NONE_SEGMENT) {
-            this.segments[xzIndex] = null;
+    private void setThreeSegments(int xzIndex, int segment0, int segment1, int segment2) {
+        assert !hasSegments(xzIndex);
+        int offset = allocateSegments(getSegmentCapacity(3));
+        this.segmentData[offset] = segment0;
+        this.segmentData[offset + 1] = segment1;
+        this.segmentData[offset + 2] = segment2;
+        this.segmentOffsets[xzIndex] = offset;
+        this.segmentCounts[xzIndex] = 3;
+    }
+
+    /**
+     * Reserves space for segments at the end of {@link #segmentData}, compacting the array when it's full.
+     *
+     * @param size amount of entries to reserve
+     * @return offset of the reserved space
+     */
+    private int allocateSegments(int size) {
+        if (this.segmentDataEnd + size > this.segmentData.length) {
+            compactSegments(size);
         }
+        int offset = this.segmentDataEnd;
+        this.segmentDataEnd += size;
+        return offset;
     }
 
-    //is theIndex = lastSegmentIndex+1, it will be inserted after last segment
-    private void insertSegmentsBelow(int xzIndex, int theIndex, int... newSegments) {
-        int lastIndex = getLastSegmentIndex(this.segments[xzIndex]);
-        int expandSize = newSegments.length;
-        //will it fit in current array?
-        if (this.segments[xzIndex].length >= lastIndex + expandSize) {
-            //shift all segments up
-            System.arraycopy(this.segments[xzIndex], theIndex, this.segments[xzIndex], theIndex + expandSize, lastIndex + 1 - theIndex);
-            System.arraycopy(newSegments, 0, this.segments[xzIndex], theIndex, expandSize);
-            assert parityCheck(xzIndex) : "The number of segments was wrong!";
-        } else {
-            //need to expand the array
-            int[] newSegmentArr = new int[(lastIndex + 1) + expandSize];
-            int newArrIndex = 0;
-            int oldArrIndex = 0;
-            //copy all index up to before theIndex
-            for (int i = 0; i < theIndex; i++) {
-                newSegmentArr[newArrIndex] = this.segments[xzIndex][oldArrIndex];
-                newArrIndex++;
-                oldArrIndex++;
-            }
-            //copy new elements
-            for (int i = 0; i < expandSize; i++) {
-                newSegmentArr[newArrIndex] = newSegments[i];
-                newArrIndex++;
+    /**
+     * Copies the segments of all block columns that have them to a new array, dropping unused slots.
+     *
+     * @param extraSize amount of free space needed after compacting
+     */
+    private void compactSegments(int extraSize) {
+        int used = 0;
+        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
+            if (hasSegments(i)) {
+                used += getSegmentCapacity(this.segmentCounts[i]);
             }
-            //copy everything else
-            while (newArrIndex < newSegmentArr.length) {
-                newSegmentArr[newArrIndex] = this.segments[xzIndex][oldArrIndex];
-                newArrIndex++;
-                oldArrIndex++;
+        }
+        int[] newData = new int[Math.max(MIN_SEGMENT_DATA_SIZE, (used + extraSize) * 2)];
+        int end = 0;
+        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
+            if (hasSegments(i)) {
+                System.arraycopy(this.segmentData, this.segmentOffsets[i], newData, end, this.segmentCounts[i]);
+                this.segmentOffsets[i] = end;
+                end += getSegmentCapacity(this.segmentCounts[i]);
             }
-            this.segments[xzIndex] = newSegmentArr;
-            assert parityCheck(xzIndex) : "The number of segments was wrong!";
         }
+        this.segmentData = newData;
+        this.segmentDataEnd = end;
     }
 
     private int getSegmentTopBlockY(int xzIndex, int segmentIndex) {
-        int[] segments = this.segments[xzIndex];
-        //if it's the last segment in the array, or the one above is NoneSegment
-        if (segments.length - 1 == segmentIndex || segments[segmentIndex + 1] == NONE_SEGMENT) {
+        //if it's the last segment
+        if (segmentIndex == getLastSegmentIndex(xzIndex)) {
             return this.ymax.get(xzIndex);
         }
-        return segments[segmentIndex + 1] - 1;
+        return getSegment(xzIndex, segmentIndex + 1) - 1;
     }
 
     private static int getIndex(int localX, int localZ) {
@@ -769,34 +825,34 @@ public class ServerHeightMap implements IHeightMap {
     }
 
     private void readData(DataInputStream in) throws IOException {
-        for (int i = 0; i < this.segments.length; i++) {
+        Arrays.fill(this.segmentCounts, 0);
+        this.segmentDataEnd = 0;
+        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
             this.ymin[i] = in.readInt();
             this.ymax.set(i, in.readInt());
-            int[] segments = new int[in.readUnsignedShort()];
-            if (segments.length == 0) {
+            int count = in.readUnsignedShort();
+            if (count == 0) {
                 continue;
             }
-            for (int j = 0; j < segments.length; j++) {
-                segments[j] = in.readInt();
+            int offset = allocateSegments(getSegmentCapacity(count));
+            for (int j = 0; j < count; j++) {
+                this.segmentData[offset + j] = in.readInt();
             }
-            this.segments[i] = segments;
+            this.segmentOffsets[i] = offset;
+            this.segmentCounts[i] = count;
             assert parityCheck(i) : "The number of segments was wrong!";
         }
+        this.heightMapLowest = Coords.NO_HEIGHT;
     }
 
     private void writeData(DataOutputStream out) throws IOException {
-        for (int i = 0; i < this.segments.length; i++) {
+        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
             out.writeInt(this.ymin[i]);
             out.writeInt(this.ymax.get(i));
-            int[] segments = this.segments[i];
-            if (segments == null || segments.length == 0) {
-                out.writeShort(0);
-            } else {
-                int lastSegmentIndex = getLastSegmentIndex(segments);
-                out.writeShort(lastSegmentIndex + 1);
-                for (int j = 0; j <= lastSegmentIndex; j++) {
-                    out.writeInt(segments[j]);
-                }
+            int count = this.segmentCounts[i];
+            out.writeShort(count);
+            for (int j = 0; j < count; j++) {
+                out.writeInt(getSegment(i, j));
             }
         }
     }
@@ -814,15 +870,14 @@ public class ServerHeightMap implements IHeightMap {
         buf.append(this.ymax.get(i));
         buf.append("], segments(p,o)=");
 
-        if (this.segments[i] != null) {
-            for (int pos : this.segments[i]) {
-                int opacity = getOpacity(i);
-                buf.append("(");
-                buf.append(pos);
-                buf.append(",");
-                buf.append(opacity);
-                buf.append(")");
-            }
+        for (int j = 0; j < this.segmentCounts[i]; j++) {
+            int pos = getSegment(i, j);
+            int opacity = getOpacity(j);
+            buf.append("(");
+            buf.append(pos);
+            buf.append(",");
+            buf.append(opacity);
+            buf.append(")");
         }
         return buf.toString();
     }
@@ -54,6 +54,11 @@ public class CubeMap implements Iterable<Cube> {
 
     @Nonnull private ExtendedBlockStorage[] toBlockTick = new ExtendedBlockStorage[0];
 
+    /**
+     * Set when a cube is added or removed, starts or stops ticking, or gets a new storage.
+     */
+    private boolean toBlockTickDirty = true;
+
     /**
      * Removes the cube at {@code cubeY}
      *
@@ -63,7 +68,11 @@ public class CubeMap implements Iterable<Cube> {
      */
     @Nullable public Cube remove(int cubeY) {
         int index = binarySearch(cubeY);
-        return index < cubes.size() && cubes.get(index).getY() == cubeY ? cubes.remove(index) : null;
+        if (index < cubes.size() && cubes.get(index).getY() == cubeY) {
+            toBlockTickDirty = true;
+            return cubes.remove(index);
+        }
+        return null;
     }
 
     /**
@@ -77,6 +86,7 @@ public class CubeMap implements Iterable<Cube> {
             throw new IllegalArgumentException("Cube at " + cube.getY() + " already exists!");
         }
         cubes.add(searchIndex, cube);
+        toBlockTickDirty = true;
     }
 
     /**
@@ -147,10 +157,20 @@ public class CubeMap implements Iterable<Cube> {
     }
 
     /**
-     * @return An array of EBSs from cubes that need ticking
+     * Marks the array returned by {@link #getStoragesToTick()} as outdated. Called when a cube in this column starts or stops
+     * ticking, or when its storage changes.
+     */
+    public void markStoragesToTickDirty() {
+        toBlockTickDirty = true;
+    }
+
+    /**
+     * @return An array of EBSs from cubes that need ticking. The same array is returned until a cube is added or removed,
+     * starts or stops ticking, or gets a new storage.
      */
     public ExtendedBlockStorage[] getStoragesToTick() {
-        if (!isToTickValid()) {
+        if (toBlockTickDirty) {
+            toBlockTickDirty = false;
             int count = 0;
             for (Cube cube : cubes) {
                 if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
@@ -170,21 +190,6 @@ public class CubeMap implements Iterable<Cube> {
         return toBlockTick;
     }
 
-    private boolean isToTickValid() {
-        int index = 0;
-        for (Cube cube : cubes) {
-            if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
-                if (index >= toBlockTick.length) {
-                    return false;
-                }
-                if (toBlockTick[index++] != cube.getStorage()) {
-                    return false;
-                }
-            }
-        }
-        return index == toBlockTick.length; // did we check everything there was in toBlockTick?
-    }
-
     /**
      * Binary search for the index of the specified cube. If the cube is not present, returns the index at which it
      * should be inserted.
@@ -43,6 +43,7 @@ import io.github.opencubicchunks.cubicchunks.core.util.CompatHandler;
 import io.github.opencubicchunks.cubicchunks.core.util.ticket.ITicket;
 import io.github.opencubicchunks.cubicchunks.core.util.ticket.TicketList;
 import io.github.opencubicchunks.cubicchunks.core.world.EntityContainer;
+import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.chunkloader.ICubicTicketInternal;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
@@ -73,7 +74,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.function.BooleanSupplier;
 
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.*;
 import static net.minecraftforge.common.MinecraftForge.EVENT_BUS;
@@ -229,20 +229,51 @@ public class Cube implements ICube {
         int miny = cubeToMinBlock(cubeY);
         IHeightMap opindex = ((IColumn) column).getOpacityIndex();
 
-        for (int y = Cube.SIZE - 1; y >= 0; y--) {
-            for (int z = 0; z < Cube.SIZE; z++) {
-                for (int x = 0; x < Cube.SIZE; x++) {
-                    IBlockState newstate = primer.getBlockState(x, y, z);
-
-                    if (newstate.getMaterial() != Material.AIR) {
-                        if (storage == NULL_STORAGE) {
-                            newStorage();
+        // getUniformState reads the primer's own block array, subclasses may keep their blocks elsewhere
+        IBlockState uniformState = primer.getClass() == CubePrimer.class ? primer.getUniformState() : null;
+        if (uniformState != null) {
+            // empty cubes above the surface and solid cubes below it are very common, only evaluate the block state once
+            if (uniformState.getMaterial() != Material.AIR) {
+                newStorage();
+                int opacity = uniformState.getLightOpacity();
+                if (opacity != 0) {
+                    column.setModified(true);
+                }
+                for (int y = Cube.SIZE - 1; y >= 0; y--) {
+                    for (int z = 0; z < Cube.SIZE; z++) {
+                        for (int x = 0; x < Cube.SIZE; x++) {
+                            storage.set(x, y, z, uniformState);
+                            if (opacity != 0) {
+                                opindex.onOpacityChange(x, miny + y, z, opacity);
+                            }
+                        }
+                    }
+                }
+            }
+        } else {
+            IBlockState lastState = null;
+            boolean lastAir = true;
+            int lastOpacity = 0;
+            for (int y = Cube.SIZE - 1; y >= 0; y--) {
+                for (int z = 0; z < Cube.SIZE; z++) {
+                    for (int x = 0; x < Cube.SIZE; x++) {
+                        IBlockState newstate = primer.getBlockState(x, y, z);
+                        if (newstate != lastState) {
+                            lastState = newstate;
+                            lastAir = newstate.getMaterial() == Material.AIR;
+                            lastOpacity = newstate.getLightOpacity();
                         }
-                        storage.set(x, y, z, newstate);
 
-                        if (newstate.getLightOpacity() != 0) {
-                            column.setModified(true); //TODO: this is a bit of am abstraction leak... maybe ServerHeightMap needs its own isModified
-                            opindex.onOpacityChange(x, miny + y, z, newstate.getLightOpacity());
+                        if (!lastAir) {
+                            if (storage == NULL_STORAGE) {
+                                newStorage();
+                            }
+                            storage.set(x, y, z, newstate);
+
+                            if (lastOpacity != 0) {
+                                column.setModified(true); //TODO: this is a bit of am abstraction leak... maybe ServerHeightMap needs its own isModified
+                                opindex.onOpacityChange(x, miny + y, z, lastOpacity);
+                            }
                         }
                     }
                 }
@@ -381,12 +412,18 @@ public class Cube implements ICube {
     /**
      * Update light and tile entities of cube
      *
-     * @param tryToTickFaster Whether costly calculations should be skipped in order to catch up with ticks
+     * @param budget Time budget of this tick. Work that doesn't fit in it is left for later ticks
      */
-    public void tickCubeCommon(BooleanSupplier tryToTickFaster) {
+    public void tickCubeCommon(CubeTickBudget budget) {
         this.ticked = true;
+        boolean deferred = false;
         while (!this.tileEntityPosQueue.isEmpty()) {
+            if (!budget.hasTimeLeft()) {
+                deferred = true;
+                break;
+            }
             BlockPos blockpos = this.tileEntityPosQueue.poll();
+            budget.onTileEntityCreated();
 
             IBlockState state = this.getBlockState(blockpos);
             Block block = state.getBlock();
@@ -399,23 +436,38 @@ public class Cube implements ICube {
             }
         }
 
-        if (this.cubeLightUpdateInfo != null && this.cubeLightUpdateInfo.hasUpdates() && !tryToTickFaster.getAsBoolean()) {
-            this.cubeLightUpdateInfo.tick();
+        if (this.cubeLightUpdateInfo != null && this.cubeLightUpdateInfo.hasUpdates()) {
+            if (budget.hasTimeLeft()) {
+                this.cubeLightUpdateInfo.tick();
+                budget.onLightUpdate();
+            } else {
+                deferred = true;
+            }
+        }
+        if (deferred) {
+            budget.onCubeDeferred();
         }
     }
 
+    /**
+     * @return true if this cube has tile entities to create or light updates to do, which use the tick budget
+     */
+    public boolean hasQueuedWork() {
+        return !this.tileEntityPosQueue.isEmpty() || (this.cubeLightUpdateInfo != null && this.cubeLightUpdateInfo.hasUpdates());
+    }
+
     /**
      * Tick this cube on server side. Block tick updates launched here.
      *
-     * @param tryToTickFaster - returns true when running out of reserved tick time
-     * @param rand            - World specific Random
+     * @param budget - Time budget of this tick
+     * @param rand   - World specific Random
      */
-    public void tickCubeServer(BooleanSupplier tryToTickFaster, Random rand) {
+    public void tickCubeServer(CubeTickBudget budget, Random rand) {
         if (!isFullyPopulated) {
             return;
         }
 
-        tickCubeCommon(tryToTickFaster);
+        tickCubeCommon(budget);
     }
 
     /**
@@ -521,11 +573,14 @@ public class Cube implements ICube {
     @Nullable
     public ExtendedBlockStorage setStorage(@Nullable ExtendedBlockStorage ebs) {
         this.isModified = true;
-        return this.storage = ebs;
+        this.storage = ebs;
+        ((IColumnInternal) column).markStoragesToTickDirty();
+        return ebs;
     }
 
     private void newStorage() {
         storage = new ExtendedBlockStorage(cubeToMinBlock(getY()), world.provider.hasSkyLight());
+        ((IColumnInternal) column).markStoragesToTickDirty();
     }
 
     @Override
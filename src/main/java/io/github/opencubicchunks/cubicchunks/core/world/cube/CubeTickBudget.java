@@ -0,0 +1,104 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world.cube;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Limits the time spent per tick on queued cube work: tile entity creation and light updates. Work that doesn't fit into the
+ * budget stays queued in its cube and is done in a later tick. CubeProviderServer ticks the cubes with queued work in order of
+ * distance to the closest player, so cubes near players get the budget first.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class CubeTickBudget {
+
+    private long tickStart;
+    private long deadline;
+    private boolean exhausted;
+
+    private int lightUpdates;
+    private int tileEntities;
+    private int deferredCubes;
+
+    private int lastLightUpdates;
+    private int lastTileEntities;
+    private int lastDeferredCubes;
+    private long lastTickMicros;
+
+    /**
+     * Starts a new tick
+     *
+     * @param budgetMicros time in microseconds that can be spent in this tick
+     */
+    public void startTick(long budgetMicros) {
+        this.tickStart = System.nanoTime();
+        this.deadline = tickStart + budgetMicros * 1000;
+        this.exhausted = false;
+        this.lightUpdates = 0;
+        this.tileEntities = 0;
+        this.deferredCubes = 0;
+    }
+
+    /**
+     * Ends the current tick and keeps its statistics for {@link #toString()}, which the cube providers add to makeString()
+     */
+    public void endTick() {
+        this.lastTickMicros = (System.nanoTime() - tickStart) / 1000;
+        this.lastLightUpdates = lightUpdates;
+        this.lastTileEntities = tileEntities;
+        this.lastDeferredCubes = deferredCubes;
+    }
+
+    /**
+     * @return true if there is time left in this tick. Once the budget is used up, this returns false until the next tick.
+     */
+    public boolean hasTimeLeft() {
+        if (!exhausted && System.nanoTime() - deadline >= 0) {
+            exhausted = true;
+        }
+        return !exhausted;
+    }
+
+    void onLightUpdate() {
+        lightUpdates++;
+    }
+
+    void onTileEntityCreated() {
+        tileEntities++;
+    }
+
+    void onCubeDeferred() {
+        deferredCubes++;
+    }
+
+    @Override
+    public String toString() {
+        return lastLightUpdates + " light updates, " + lastTileEntities + " tile entities, " + lastDeferredCubes + " cubes deferred in "
+                + lastTickMicros + "us";
+    }
+}
@@ -28,6 +28,7 @@ import io.github.opencubicchunks.cubicchunks.api.util.Box;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import io.github.opencubicchunks.cubicchunks.api.world.IMinMaxHeight;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.CubeGeneratorsRegistry;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
@@ -46,6 +47,7 @@ import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.biome.Biome.SpawnListEntry;
@@ -56,12 +58,15 @@ import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraft.world.gen.IChunkGenerator;
 import net.minecraftforge.fml.common.IWorldGenerator;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
@@ -73,18 +78,21 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class VanillaCompatibilityGenerator implements ICubeGenerator {
 
+    private static final int VANILLA_CHUNK_CACHE_SIZE = 32;
+
     private boolean isInit = false;
     private int worldHeightCubes;
     @Nonnull private IChunkGenerator vanilla;
     @Nonnull private World world;
     /**
-     * Last chunk that was generated from the vanilla world gen
-     */
-    private Chunk lastChunk;
-    /**
-     * We generate all the chunks in the vanilla range at once. This variable prevents infinite recursion
+     * Recently generated chunks from the vanilla world gen. Each of them is copied into several cubes, which may not be
+     * requested one right after another.
      */
-    private boolean optimizationHack;
+    private final Map<ChunkPos, Chunk> vanillaChunks = new LinkedHashMap<ChunkPos, Chunk>(VANILLA_CHUNK_CACHE_SIZE, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<ChunkPos, Chunk> eldest) {
+            return size() > VANILLA_CHUNK_CACHE_SIZE;
+        }
+    };
     private Biome[] biomes;
     /**
      * Detected block for filling cubes below the world
@@ -113,7 +121,8 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
         }
         isInit = true;
         // heuristics TODO: add a config that overrides this
-        lastChunk = vanilla.generateChunk(0, 0); // lets scan the chunk at 0, 0
+        Chunk chunk = vanilla.generateChunk(0, 0); // lets scan the chunk at 0, 0
+        vanillaChunks.put(new ChunkPos(0, 0), chunk);
 
         int worldHeightBlocks = ((ICubicWorld) world).getMaxGenerationHeight();
         worldHeightCubes = worldHeightBlocks / Cube.SIZE;
@@ -124,7 +133,7 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
             for (int z = 0; z < Cube.SIZE; z++) {
                 // Scan three layers top / bottom each to guard against bedrock walls
                 for (int y = 0; y < 3; y++) {
-                    IBlockState blockState = lastChunk.getBlockState(x, y, z);
+                    IBlockState blockState = chunk.getBlockState(x, y, z);
                     if (blockState.getBlock() == Blocks.BEDROCK) {
                         continue; // Never use bedrock for world extension
                     }
@@ -134,7 +143,7 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
                 }
 
                 for (int y = worldHeightBlocks - 1; y > worldHeightBlocks - 4; y--) {
-                    IBlockState blockState = lastChunk.getBlockState(x, y, z);
+                    IBlockState blockState = chunk.getBlockState(x, y, z);
                     if (blockState.getBlock() == Blocks.BEDROCK) {
                         continue; // Never use bedrock for world extension
                     }
@@ -201,90 +210,106 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
         try {
             WorldgenHangWatchdog.startWorldGen();
             tryInit(vanilla, world);
-            CubePrimer primer = new CubePrimer();
+            return generateCube(cubeX, cubeY, cubeZ, null);
+        } finally {
+            WorldgenHangWatchdog.endWorldGen();
+        }
+    }
 
-            if (cubeY < 0) {
-                Random rand = new Random(world.getSeed());
-                rand.setSeed(rand.nextInt() ^ cubeX);
-                rand.setSeed(rand.nextInt() ^ cubeZ);
-                // Fill with bottom block
-                for (int y = 0; y < Cube.SIZE; y++) {
+    /**
+     * Generates the cubes from the same vanilla chunk, even if it would be evicted from the cache in between single cube requests
+     */
+    @Override
+    public List<CubePrimer> generateCubes(int cubeX, int cubeZ, int minCubeY, int maxCubeY) {
+        try {
+            WorldgenHangWatchdog.startWorldGen();
+            tryInit(vanilla, world);
+            Chunk vanillaChunk = null;
+            List<CubePrimer> primers = new ArrayList<>(maxCubeY - minCubeY + 1);
+            for (int cubeY = minCubeY; cubeY <= maxCubeY; cubeY++) {
+                if (vanillaChunk == null && cubeY >= 0 && cubeY < worldHeightCubes) {
+                    vanillaChunk = getVanillaChunk(cubeX, cubeZ);
+                }
+                primers.add(generateCube(cubeX, cubeY, cubeZ, vanillaChunk));
+            }
+            return primers;
+        } finally {
+            WorldgenHangWatchdog.endWorldGen();
+        }
+    }
+
+    private Chunk getVanillaChunk(int cubeX, int cubeZ) {
+        ChunkPos pos = new ChunkPos(cubeX, cubeZ);
+        Chunk chunk = vanillaChunks.get(pos);
+        if (chunk == null) {
+            // Make vanilla generate a chunk for us to copy
+            if (CubicChunksConfig.optimizedCompatibilityGenerator) {
+                try (ICubicWorldInternal.CompatGenerationScope ignored =
+                             ((ICubicWorldInternal.Server) world).doCompatibilityGeneration()) {
+                    chunk = vanilla.generateChunk(cubeX, cubeZ);
+                }
+            } else {
+                chunk = vanilla.generateChunk(cubeX, cubeZ);
+            }
+            vanillaChunks.put(pos, chunk);
+        }
+        return chunk;
+    }
+
+    private CubePrimer generateCube(int cubeX, int cubeY, int cubeZ, @Nullable Chunk vanillaChunk) {
+        CubePrimer primer = new CubePrimer();
+
+        if (cubeY < 0) {
+            Random rand = new Random(world.getSeed());
+            rand.setSeed(rand.nextInt() ^ cubeX);
+            rand.setSeed(rand.nextInt() ^ cubeZ);
+            // Fill with bottom block
+            primer.fill(extensionBlockBottom);
+            if (extensionBlockBottom.getBlock() != Blocks.AIR) {
+                // only the few bottom layers of the world can be replaced with bedrock
+                int minHeight = ((IMinMaxHeight) world).getMinHeight();
+                for (int y = 0; y < Cube.SIZE && Coords.localToBlock(cubeY, y) - minHeight < 5; y++) {
+                    int blockY = Coords.localToBlock(cubeY, y);
                     for (int z = 0; z < Cube.SIZE; z++) {
                         for (int x = 0; x < Cube.SIZE; x++) {
-                            IBlockState state = extensionBlockBottom;
-                            if (state.getBlock() != Blocks.AIR) {
-                                int blockY = Coords.localToBlock(cubeY, y);
-                                state = WorldGenUtils.getRandomBedrockReplacement(world, rand, state, blockY, 5);
+                            IBlockState state = WorldGenUtils.getRandomBedrockReplacement(world, rand, extensionBlockBottom, blockY, 5);
+                            if (state != extensionBlockBottom) {
+                                primer.setBlockState(x, y, z, state);
                             }
-                            primer.setBlockState(x, y, z, state);
                         }
                     }
                 }
-            } else if (cubeY >= worldHeightCubes) {
-                // Fill with top block
+            }
+        } else if (cubeY >= worldHeightCubes) {
+            // Fill with top block
+            if (extensionBlockTop.getBlock() != Blocks.AIR) {
+                primer.fill(extensionBlockTop);
+            }
+        } else {
+            Chunk chunk = vanillaChunk != null ? vanillaChunk : getVanillaChunk(cubeX, cubeZ);
+
+            // Copy from vanilla, replacing bedrock as appropriate
+            ChunkPrimer chunkPrimer = ((IColumnInternal) chunk).getCompatGenerationPrimer();
+            if (chunkPrimer != null) {
+                primer.copyFrom(chunkPrimer, cubeY);
+                return primer;
+            }
+            ExtendedBlockStorage storage = chunk.getBlockStorageArray()[cubeY];
+            if (storage != null && !storage.isEmpty()) {
                 for (int y = 0; y < Cube.SIZE; y++) {
                     for (int z = 0; z < Cube.SIZE; z++) {
                         for (int x = 0; x < Cube.SIZE; x++) {
-
-                            primer.setBlockState(x, y, z, extensionBlockTop);
-                        }
-                    }
-                }
-            } else {
-                // Make vanilla generate a chunk for us to copy
-                if (lastChunk.x != cubeX || lastChunk.z != cubeZ) {
-                    if (CubicChunksConfig.optimizedCompatibilityGenerator) {
-                        try (ICubicWorldInternal.CompatGenerationScope ignored =
-                                     ((ICubicWorldInternal.Server) world).doCompatibilityGeneration()) {
-                            lastChunk = vanilla.generateChunk(cubeX, cubeZ);
-                        }
-                    } else {
-                        lastChunk = vanilla.generateChunk(cubeX, cubeZ);
-                    }
-                }
-
-                if (!optimizationHack) {
-                    optimizationHack = true;
-                    // Recusrive generation
-                    for (int y = worldHeightCubes - 1; y >= 0; y--) {
-                        if (y == cubeY) {
-                            continue;
-                        }
-                        ((ICubicWorld) world).getCubeFromCubeCoords(cubeX, y, cubeZ);
-                    }
-                    optimizationHack = false;
-                }
-
-                // Copy from vanilla, replacing bedrock as appropriate
-                ChunkPrimer chunkPrimer = ((IColumnInternal) lastChunk).getCompatGenerationPrimer();
-                if (chunkPrimer != null) {
-                    return new CubePrimerWrapper(chunkPrimer, cubeY);
-                }
-                ExtendedBlockStorage storage = lastChunk.getBlockStorageArray()[cubeY];
-                if (storage != null && !storage.isEmpty()) {
-                    for (int y = 0; y < Cube.SIZE; y++) {
-                        for (int z = 0; z < Cube.SIZE; z++) {
-                            for (int x = 0; x < Cube.SIZE; x++) {
-                                IBlockState state = storage.get(x, y, z);
-                                if (state == Blocks.BEDROCK.getDefaultState()) {
-                                    if (y < Cube.SIZE / 2) {
-                                        primer.setBlockState(x, y, z, extensionBlockBottom);
-                                    } else {
-                                        primer.setBlockState(x, y, z, extensionBlockTop);
-                                    }
-                                } else {
-                                    primer.setBlockState(x, y, z, state);
-                                }
-                            }
+                            primer.setBlockState(x, y, z, storage.get(x, y, z));
                         }
                     }
                 }
+                IBlockState bedrock = Blocks.BEDROCK.getDefaultState();
+                primer.replace(0, 0, 0, Cube.SIZE - 1, Cube.SIZE / 2 - 1, Cube.SIZE - 1, bedrock, extensionBlockBottom);
+                primer.replace(0, Cube.SIZE / 2, 0, Cube.SIZE - 1, Cube.SIZE - 1, Cube.SIZE - 1, bedrock, extensionBlockTop);
             }
-
-            return primer;
-        } finally {
-            WorldgenHangWatchdog.endWorldGen();
         }
+
+        return primer;
     }
 
     @Override
@@ -383,23 +408,4 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
     public BlockPos getClosestStructure(String name, BlockPos pos, boolean findUnexplored) {
         return vanilla.getNearestStructurePos(world, name, pos, findUnexplored);
     }
-
-    private static class CubePrimerWrapper extends CubePrimer {
-        private final ChunkPrimer chunkPrimer;
-        private final int cubeYBase;
-
-        public CubePrimerWrapper(ChunkPrimer chunkPrimer, int cubeY) {
-            super(null);
-            this.chunkPrimer = chunkPrimer;
-            this.cubeYBase = Coords.cubeToMinBlock(cubeY);
-        }
-
-        public IBlockState getBlockState(int x, int y, int z) {
-            return chunkPrimer.getBlockState(x, y | cubeYBase, z);
-        }
-
-        public void setBlockState(int x, int y, int z, @Nonnull IBlockState state) {
-            chunkPrimer.setBlockState(x, y | cubeYBase, z, state);
-        }
-    }
 }
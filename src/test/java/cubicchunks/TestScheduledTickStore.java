@@ -0,0 +1,181 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.core.util.world.ScheduledTickStore;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.NextTickListEntry;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestScheduledTickStore {
+
+    @BeforeClass
+    public static void setupClass() {
+        Bootstrap.register();
+    }
+
+    private static List<NextTickListEntry> createEntries(Random random, int count) {
+        List<NextTickListEntry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            BlockPos pos = new BlockPos(random.nextInt(64) - 32, random.nextInt(64) - 32, random.nextInt(64) - 32);
+            NextTickListEntry entry = new NextTickListEntry(pos, Blocks.STONE);
+            entry.setScheduledTime(random.nextInt(20));
+            entry.setPriority(random.nextInt(3) - 1);
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    @Test
+    public void testOrderMatchesTreeSet() {
+        ScheduledTickStore store = new ScheduledTickStore();
+        TreeSet<NextTickListEntry> treeSet = new TreeSet<>();
+        Set<NextTickListEntry> hashSet = new HashSet<>();
+        // shuffled, so that entries within a scheduled time are not added in order
+        for (NextTickListEntry entry : createEntries(new Random(42), 1000)) {
+            // like WorldServer.scheduleUpdate, an entry equal to a pending one (same position and block) isn't added again
+            boolean added = hashSet.add(entry);
+            if (added) {
+                treeSet.add(entry);
+            }
+            assertEquals(added, store.add(entry));
+        }
+        assertEquals(treeSet.size(), store.size());
+        assertEquals(new ArrayList<>(treeSet), new ArrayList<>(store.asTreeSet()));
+
+        while (!treeSet.isEmpty()) {
+            assertEquals(treeSet.first(), store.first());
+            assertEquals(treeSet.last(), store.last());
+            assertSame(treeSet.pollFirst(), store.asTreeSet().pollFirst());
+            assertEquals(treeSet.size(), store.size());
+        }
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void testRemoveThroughSetWhileIterating() {
+        ScheduledTickStore store = new ScheduledTickStore();
+        TreeSet<NextTickListEntry> treeSet = new TreeSet<>();
+        Set<NextTickListEntry> hashSet = new HashSet<>();
+        for (NextTickListEntry entry : createEntries(new Random(7), 1000)) {
+            if (hashSet.add(entry)) {
+                treeSet.add(entry);
+            }
+            store.add(entry);
+        }
+
+        // the same removal sequence as WorldServer.getPendingBlockUpdates with remove = true
+        List<NextTickListEntry> expectedRemoved = new ArrayList<>();
+        Iterator<NextTickListEntry> expectedIt = treeSet.iterator();
+        while (expectedIt.hasNext()) {
+            NextTickListEntry entry = expectedIt.next();
+            if (entry.position.getX() >= 0 && entry.position.getY() >= 0) {
+                hashSet.remove(entry);
+                expectedIt.remove();
+                expectedRemoved.add(entry);
+            }
+        }
+
+        List<NextTickListEntry> removed = new ArrayList<>();
+        Iterator<NextTickListEntry> it = store.asTreeSet().iterator();
+        while (it.hasNext()) {
+            NextTickListEntry entry = it.next();
+            if (entry.position.getX() >= 0 && entry.position.getY() >= 0) {
+                store.asSet().remove(entry);
+                it.remove();
+                removed.add(entry);
+            }
+        }
+
+        assertEquals(expectedRemoved, removed);
+        assertEquals(treeSet.size(), store.size());
+        assertEquals(new ArrayList<>(treeSet), new ArrayList<>(store.asTreeSet()));
+        for (NextTickListEntry entry : removed) {
+            assertFalse(store.contains(entry));
+        }
+        assertEquals(treeSet.first(), store.first());
+        assertEquals(treeSet.last(), store.last());
+    }
+
+    @Test
+    public void testNavigationMatchesTreeSet() {
+        ScheduledTickStore store = new ScheduledTickStore();
+        TreeSet<NextTickListEntry> treeSet = new TreeSet<>();
+        Set<NextTickListEntry> hashSet = new HashSet<>();
+        for (NextTickListEntry entry : createEntries(new Random(3), 500)) {
+            if (hashSet.add(entry)) {
+                treeSet.add(entry);
+            }
+            store.add(entry);
+        }
+        // remove every entry of some scheduled times
+        Iterator<NextTickListEntry> it = store.asTreeSet().iterator();
+        while (it.hasNext()) {
+            NextTickListEntry entry = it.next();
+            if (entry.scheduledTime % 5 == 0) {
+                store.asSet().remove(entry);
+                it.remove();
+                treeSet.remove(entry);
+            }
+        }
+
+        TreeSet<NextTickListEntry> view = store.asTreeSet();
+        // existing entries, and new ones that fall between them or outside of the scheduled times
+        List<NextTickListEntry> probes = new ArrayList<>(treeSet);
+        probes.addAll(createEntries(new Random(4), 200));
+        NextTickListEntry beforeAll = new NextTickListEntry(BlockPos.ORIGIN, Blocks.STONE);
+        beforeAll.setScheduledTime(-1);
+        probes.add(beforeAll);
+        NextTickListEntry afterAll = new NextTickListEntry(BlockPos.ORIGIN, Blocks.STONE);
+        afterAll.setScheduledTime(100);
+        probes.add(afterAll);
+        for (NextTickListEntry probe : probes) {
+            assertSame(treeSet.ceiling(probe), view.ceiling(probe));
+            assertSame(treeSet.higher(probe), view.higher(probe));
+            assertSame(treeSet.floor(probe), view.floor(probe));
+            assertSame(treeSet.lower(probe), view.lower(probe));
+        }
+
+        Object copy = view.clone();
+        assertEquals(TreeSet.class, copy.getClass());
+        assertEquals(new ArrayList<>(treeSet), new ArrayList<>((TreeSet<?>) copy));
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Replays randomized block change traces through {@link ServerHeightMap} and compares it with a height map that simply
+ * remembers every opaque block. The traces are kept to a few blocks of height, so that block columns end up with many
+ * segments, and the packed segment array is grown and compacted often.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestServerHeightMap {
+
+    private static final int MIN_Y = -20;
+    private static final int MAX_Y = 20;
+
+    @Test
+    public void testRandomChangesInFewColumns() {
+        for (int seed = 0; seed < 20; seed++) {
+            // a few block columns get a lot of segments, their slots grow and move around
+            replayTrace(new Random(seed), 4, 20000);
+        }
+    }
+
+    @Test
+    public void testRandomChangesInAllColumns() {
+        for (int seed = 0; seed < 5; seed++) {
+            // many block columns with segments at once, this fills the segment array and compacts it
+            replayTrace(new Random(seed), 256, 100000);
+        }
+    }
+
+    @Test
+    public void testMiningAndBuilding() {
+        for (int seed = 0; seed < 10; seed++) {
+            Random rand = new Random(seed);
+            ServerHeightMap heightMap = new ServerHeightMap(new int[256]);
+            ReferenceHeightMap reference = new ReferenceHeightMap();
+            for (int i = 0; i < 256; i++) {
+                for (int y = MIN_Y; y <= 0; y++) {
+                    setOpacity(heightMap, reference, i & 15, y, i >> 4, true);
+                }
+            }
+            for (int step = 0; step < 2000; step++) {
+                int x = rand.nextInt(16);
+                int z = rand.nextInt(16);
+                int y1 = MIN_Y + rand.nextInt(MAX_Y - MIN_Y + 1);
+                int y2 = Math.min(MAX_Y, y1 + rand.nextInt(8));
+                // dig out or fill a short vertical run, the way players mine and build
+                boolean opaque = rand.nextBoolean();
+                for (int y = y1; y <= y2; y++) {
+                    setOpacity(heightMap, reference, x, y, z, opaque);
+                }
+                assertSameColumn(heightMap, reference, x, z);
+            }
+            assertSameHeightMap(heightMap, reference);
+        }
+    }
+
+    private void replayTrace(Random rand, int columns, int changes) {
+        ServerHeightMap heightMap = new ServerHeightMap(new int[256]);
+        ReferenceHeightMap reference = new ReferenceHeightMap();
+        for (int step = 0; step < changes; step++) {
+            int i = rand.nextInt(columns);
+            int x = i & 15;
+            int z = i >> 4;
+            int y = MIN_Y + rand.nextInt(MAX_Y - MIN_Y + 1);
+            setOpacity(heightMap, reference, x, y, z, rand.nextBoolean());
+            assertSameColumn(heightMap, reference, x, z);
+
+            if (step % 1000 == 999) {
+                assertSameHeightMap(heightMap, reference);
+                // continue on a copy read from the saved data, which allocates the segment slots differently
+                ServerHeightMap copy = new ServerHeightMap(new int[256]);
+                copy.readData(heightMap.getData());
+                heightMap = copy;
+                assertSameHeightMap(heightMap, reference);
+            }
+        }
+        assertSameHeightMap(heightMap, reference);
+    }
+
+    private static void setOpacity(ServerHeightMap heightMap, ReferenceHeightMap reference, int x, int y, int z, boolean opaque) {
+        heightMap.onOpacityChange(x, y, z, opaque ? 255 : 0);
+        reference.opaque[z << 4 | x][y - MIN_Y] = opaque;
+    }
+
+    private static void assertSameHeightMap(ServerHeightMap heightMap, ReferenceHeightMap reference) {
+        int lowest = Integer.MAX_VALUE;
+        for (int i = 0; i < 256; i++) {
+            assertSameColumn(heightMap, reference, i & 15, i >> 4);
+            lowest = Math.min(lowest, reference.getTopBlockY(i & 15, i >> 4));
+        }
+        if (lowest != Coords.NO_HEIGHT) {
+            assertEquals(lowest, heightMap.getLowestTopBlockY());
+        }
+        // the segments are always the minimal description of the opaque blocks, so the saved data is too
+        assertArrayEquals(reference.getData(), heightMap.getData());
+    }
+
+    private static void assertSameColumn(ServerHeightMap heightMap, ReferenceHeightMap reference, int x, int z) {
+        assertEquals(reference.getTopBlockY(x, z), heightMap.getTopBlockY(x, z));
+        for (int y = MIN_Y - 2; y <= MAX_Y + 2; y++) {
+            String message = "x=" + x + ", y=" + y + ", z=" + z + ": " + heightMap.dump(x, z);
+            assertEquals(message, reference.getTopBlockYBelow(x, z, y), heightMap.getTopBlockYBelow(x, z, y));
+            assertEquals(message, y <= reference.getTopBlockY(x, z), heightMap.isOccluded(x, y, z));
+        }
+    }
+
+    /**
+     * Remembers the opacity of every block between {@link #MIN_Y} and {@link #MAX_Y}
+     */
+    private static final class ReferenceHeightMap {
+
+        final boolean[][] opaque = new boolean[256][MAX_Y - MIN_Y + 1];
+
+        int getTopBlockY(int x, int z) {
+            return getTopBlockYBelow(x, z, MAX_Y + 1);
+        }
+
+        int getTopBlockYBelow(int x, int z, int blockY) {
+            boolean[] column = opaque[z << 4 | x];
+            for (int y = Math.min(blockY - 1, MAX_Y); y >= MIN_Y; y--) {
+                if (column[y - MIN_Y]) {
+                    return y;
+                }
+            }
+            return Coords.NO_HEIGHT;
+        }
+
+        int getBottomBlockY(int x, int z) {
+            boolean[] column = opaque[z << 4 | x];
+            for (int y = MIN_Y; y <= MAX_Y; y++) {
+                if (column[y - MIN_Y]) {
+                    return y;
+                }
+            }
+            return Coords.NO_HEIGHT;
+        }
+
+        /**
+         * The data ServerHeightMap saves: the lowest and highest opaque block of each block column, and the start of each
+         * run of opaque or transparent blocks between them if there is more than one run.
+         */
+        byte[] getData() {
+            try {
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(buf);
+                for (int i = 0; i < 256; i++) {
+                    int x = i & 15;
+                    int z = i >> 4;
+                    int bottom = getBottomBlockY(x, z);
+                    int top = getTopBlockY(x, z);
+                    out.writeInt(bottom);
+                    out.writeInt(top);
+                    if (bottom == Coords.NO_HEIGHT) {
+                        out.writeShort(0);
+                        continue;
+                    }
+                    int[] starts = new int[top - bottom + 1];
+                    int count = 0;
+                    for (int y = bottom; y <= top; y++) {
+                        if (y == bottom || opaque[i][y - MIN_Y] != opaque[i][y - 1 - MIN_Y]) {
+                            starts[count++] = y;
+                        }
+                    }
+                    if (count == 1) {
+                        count = 0;
+                    }
+                    out.writeShort(count);
+                    for (int j = 0; j < count; j++) {
+                        out.writeInt(starts[j]);
+                    }
+                }
+                out.close();
+                return buf.toByteArray();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeBlockDeltas.Deltas;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Bootstrap;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Encodes block changes with {@link PacketCubeBlockDeltas}, sends them and checks that the decoded block states, light and
+ * heights are the same.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestPacketCubeBlockDeltas {
+
+    private static List<IBlockState> states;
+
+    @BeforeClass
+    public static void setupClass() {
+        Bootstrap.register();
+        // only states that have an id can be sent
+        Set<IBlockState> allStates = new LinkedHashSet<>();
+        for (IBlockState state : Block.BLOCK_STATE_IDS) {
+            allStates.add(state);
+        }
+        states = new ArrayList<>(allStates);
+    }
+
+    @Test
+    public void testPaletteSizes() throws DataFormatException {
+        // palette sizes for each amount of bits per index, and the largest palette that still fits in each
+        int[] paletteSizes = {1, 2, 3, 4, 5, 16, 17, 255, 256, 257, 600};
+        for (int paletteSize : paletteSizes) {
+            Random rand = new Random(paletteSize);
+            for (int count : new int[]{paletteSize, paletteSize + 1, paletteSize + rand.nextInt(4096 - paletteSize)}) {
+                assertRoundTrip(createDeltas(rand, randomAddresses(rand, count), paletteSize));
+            }
+        }
+    }
+
+    @Test
+    public void testAddresses() throws DataFormatException {
+        Random rand = new Random(1);
+        // the first and the last block, and the whole cube
+        assertRoundTrip(createDeltas(rand, new int[]{0}, 1));
+        assertRoundTrip(createDeltas(rand, new int[]{4095}, 1));
+        assertRoundTrip(createDeltas(rand, new int[]{0, 4095}, 2));
+        int[] all = new int[4096];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        assertRoundTrip(createDeltas(rand, all, 3));
+    }
+
+    @Test
+    public void testHeights() throws DataFormatException {
+        Random rand = new Random(2);
+        Deltas deltas = createDeltas(rand, randomAddresses(rand, 300), 2);
+        // heights far above and below the changed cube
+        deltas.topBlockY[0] = Integer.MIN_VALUE;
+        deltas.topBlockY[1] = Integer.MAX_VALUE;
+        deltas.topBlockY[2] = -1;
+        deltas.topBlockY[255] = 0;
+        assertRoundTrip(deltas);
+    }
+
+    @Test
+    public void testSmallerThanFullCube() {
+        Deltas deltas = createDeltas(new Random(3), new int[]{1, 2, 3}, 1);
+        assertTrue(new PacketCubeBlockDeltas(new CubePos(0, 0, 0), deltas, 10000).isSmallerThanFullCube());
+        assertFalse(new PacketCubeBlockDeltas(new CubePos(0, 0, 0), deltas, 1).isSmallerThanFullCube());
+    }
+
+    private static void assertRoundTrip(Deltas deltas) throws DataFormatException {
+        ByteBuf encoded = Unpooled.wrappedBuffer(PacketCubeBlockDeltas.encode(deltas));
+        assertSameDeltas(deltas, PacketCubeBlockDeltas.decode(encoded));
+        assertFalse(encoded.isReadable());
+
+        PacketCubeBlockDeltas packet = new PacketCubeBlockDeltas(new CubePos(-5, 100, 7), deltas, Integer.MAX_VALUE);
+        ByteBuf wire = Unpooled.buffer();
+        packet.toBytes(wire);
+        PacketCubeBlockDeltas received = new PacketCubeBlockDeltas();
+        received.fromBytes(wire);
+        assertFalse(wire.isReadable());
+        assertSameDeltas(deltas, received.getDeltas());
+    }
+
+    private static void assertSameDeltas(Deltas expected, Deltas actual) {
+        assertArrayEquals(expected.addresses, actual.addresses);
+        assertArrayEquals(expected.states, actual.states);
+        assertArrayEquals(expected.light, actual.light);
+        boolean[] columns = PacketCubeBlockDeltas.getChangedColumns(expected.addresses);
+        for (int xz = 0; xz < columns.length; xz++) {
+            if (columns[xz]) {
+                assertEquals("top block y at " + xz, expected.topBlockY[xz], actual.topBlockY[xz]);
+            }
+        }
+    }
+
+    private static int[] randomAddresses(Random rand, int count) {
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            all.add(i);
+        }
+        Collections.shuffle(all, rand);
+        List<Integer> chosen = all.subList(0, count);
+        Collections.sort(chosen);
+        return chosen.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static Deltas createDeltas(Random rand, int[] addresses, int paletteSize) {
+        List<IBlockState> palette = new ArrayList<>(states);
+        Collections.shuffle(palette, rand);
+        palette = palette.subList(0, paletteSize);
+
+        IBlockState[] blocks = new IBlockState[addresses.length];
+        for (int i = 0; i < blocks.length; i++) {
+            // use every palette entry at least once
+            blocks[i] = i < paletteSize ? palette.get(i) : palette.get(rand.nextInt(paletteSize));
+        }
+        byte[] light = new byte[addresses.length];
+        rand.nextBytes(light);
+        int[] topBlockY = new int[256];
+        for (int i = 0; i < topBlockY.length; i++) {
+            topBlockY[i] = rand.nextInt(2000) - 1000;
+        }
+        return new Deltas(addresses, blocks, light, topBlockY);
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.network.WorldEncoder.CubeData;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Encodes cubes with {@link WorldEncoder}, sends them through {@link PacketCubes} with and without compression, decodes
+ * them and checks that the flags, blocks, light, height maps and biomes survive unchanged.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestWorldEncoder {
+
+    private static final int NO_STORAGE = 0, EMPTY_STORAGE = 1, BLOCKS = 2;
+    private static final int HEIGHT_MAP_SIZE = 16 * 16 * Integer.BYTES;
+
+    private static List<IBlockState> states;
+
+    @BeforeClass
+    public static void setupClass() {
+        Bootstrap.register();
+        // only states that have an id can be sent
+        Set<IBlockState> allStates = new LinkedHashSet<>();
+        for (IBlockState state : Block.BLOCK_STATE_IDS) {
+            allStates.add(state);
+        }
+        states = new ArrayList<>(allStates);
+    }
+
+    @Test
+    public void testFlagCombinations() throws DataFormatException {
+        Random rand = new Random(1);
+        for (boolean hasSkyLight : new boolean[]{true, false}) {
+            List<CubeData> all = new ArrayList<>();
+            List<Integer> allFlags = new ArrayList<>();
+            for (int storageKind : new int[]{NO_STORAGE, EMPTY_STORAGE, BLOCKS}) {
+                for (boolean uniformBlockLight : new boolean[]{true, false}) {
+                    for (boolean uniformSkyLight : new boolean[]{true, false}) {
+                        for (boolean hasBiomes : new boolean[]{true, false}) {
+                            // every cube in its own column, so each non-empty one sends its height map
+                            CubeData cube = createCube(rand, new Object(), hasSkyLight, storageKind, uniformBlockLight,
+                                    uniformSkyLight, hasBiomes);
+
+                            int flags = 0;
+                            if (storageKind != BLOCKS) {
+                                flags |= WorldEncoder.FLAG_EMPTY;
+                            } else {
+                                flags |= WorldEncoder.FLAG_HAS_HEIGHTMAP;
+                            }
+                            if (storageKind != NO_STORAGE) {
+                                flags |= WorldEncoder.FLAG_HAS_STORAGE;
+                                if (uniformBlockLight) {
+                                    flags |= WorldEncoder.FLAG_UNIFORM_BLOCK_LIGHT;
+                                }
+                                if (hasSkyLight && uniformSkyLight) {
+                                    flags |= WorldEncoder.FLAG_UNIFORM_SKY_LIGHT;
+                                }
+                            }
+                            if (hasBiomes) {
+                                flags |= WorldEncoder.FLAG_HAS_BIOMES;
+                            }
+
+                            assertRoundTrip(Collections.singletonList(cube), Collections.singletonList(flags));
+                            all.add(cube);
+                            allFlags.add(flags);
+                        }
+                    }
+                }
+            }
+            // and all of them together, to check that each part of the data of one cube is found after the others
+            assertRoundTrip(all, allFlags);
+        }
+    }
+
+    @Test
+    public void testSharedHeightMap() throws DataFormatException {
+        Random rand = new Random(2);
+        Object columnA = new Object();
+        Object columnB = new Object();
+        List<CubeData> cubes = Arrays.asList(
+                createCube(rand, columnA, true, EMPTY_STORAGE, true, true, false),
+                createCube(rand, columnA, true, BLOCKS, true, true, false),
+                createCube(rand, columnA, true, BLOCKS, true, true, false),
+                createCube(rand, columnB, true, BLOCKS, true, true, false),
+                createCube(rand, columnA, true, BLOCKS, true, true, false)
+        );
+        int flags = WorldEncoder.FLAG_HAS_STORAGE | WorldEncoder.FLAG_UNIFORM_BLOCK_LIGHT | WorldEncoder.FLAG_UNIFORM_SKY_LIGHT;
+        List<CubeData> decoded = assertRoundTrip(cubes, Arrays.asList(
+                flags | WorldEncoder.FLAG_EMPTY,
+                flags | WorldEncoder.FLAG_HAS_HEIGHTMAP,
+                flags,
+                flags | WorldEncoder.FLAG_HAS_HEIGHTMAP,
+                flags));
+
+        // only the first non-empty cube of each column sends the height map
+        assertNull(decoded.get(0).heightMap);
+        assertArrayEquals(cubes.get(1).heightMap, decoded.get(1).heightMap);
+        assertNull(decoded.get(2).heightMap);
+        assertArrayEquals(cubes.get(3).heightMap, decoded.get(3).heightMap);
+        assertNull(decoded.get(4).heightMap);
+    }
+
+    @Test
+    public void testUniformLightIsOneByte() {
+        Random rand = new Random(3);
+        CubeData uniform = createCube(rand, new Object(), true, BLOCKS, true, true, false);
+        CubeData notUniform = new CubeData(uniform.cubeY, true, new Object(), copy(uniform.storage, true), uniform.heightMap, null);
+        //noinspection ConstantConditions
+        notUniform.storage.setBlockLight(1, 2, 3, 15);
+        notUniform.storage.setSkyLight(4, 5, 6, 0);
+
+        int uniformSize = WorldEncoder.getEncodedSize(Collections.singletonList(uniform));
+        int notUniformSize = WorldEncoder.getEncodedSize(Collections.singletonList(notUniform));
+        assertEquals(2 * (2048 - 1), notUniformSize - uniformSize);
+    }
+
+    @Test
+    public void testLightWithDifferentNibbles() throws DataFormatException {
+        // every byte is the same, but the two light values in it aren't, so it can't be sent as one byte
+        Random rand = new Random(4);
+        CubeData cube = createCube(rand, new Object(), true, BLOCKS, false, false, false);
+        //noinspection ConstantConditions
+        Arrays.fill(cube.storage.getBlockLight().getData(), (byte) 0x12);
+        Arrays.fill(cube.storage.getSkyLight().getData(), (byte) 0xF0);
+        assertRoundTrip(Collections.singletonList(cube),
+                Collections.singletonList(WorldEncoder.FLAG_HAS_STORAGE | WorldEncoder.FLAG_HAS_HEIGHTMAP));
+    }
+
+    private static List<CubeData> assertRoundTrip(List<CubeData> cubes, List<Integer> expectedFlags) throws DataFormatException {
+        int size = WorldEncoder.getEncodedSize(cubes);
+        byte[] encoded = new byte[size];
+        PacketBuffer out = new PacketBuffer(WorldEncoder.createByteBufForWrite(encoded));
+        WorldEncoder.encodeCubes(out, cubes);
+        assertEquals(size, out.writerIndex());
+        for (int i = 0; i < expectedFlags.size(); i++) {
+            assertEquals("flags of cube " + i, (int) expectedFlags.get(i), encoded[i]);
+        }
+
+        List<CubeData> decoded = null;
+        // compressed when the server disabled network compression
+        for (boolean compress : new boolean[]{false, true}) {
+            CubePos[] cubePos = new CubePos[cubes.size()];
+            List<List<NBTTagCompound>> tileEntityTags = new ArrayList<>();
+            for (int i = 0; i < cubes.size(); i++) {
+                cubePos[i] = new CubePos(i, cubes.get(i).cubeY, -i);
+                NBTTagCompound tag = new NBTTagCompound();
+                tag.setInteger("x", i);
+                tileEntityTags.add(i % 2 == 0 ? Collections.singletonList(tag) : Collections.emptyList());
+            }
+            PacketCubes packet = new PacketCubes(cubePos, encoded, compress, tileEntityTags);
+            ByteBuf wire = Unpooled.buffer();
+            packet.toBytes(wire);
+            PacketCubes received = new PacketCubes();
+            received.fromBytes(wire);
+            assertFalse(wire.isReadable());
+            assertArrayEquals(cubePos, received.getCubePos());
+            assertEquals(tileEntityTags, received.getTileEntityTags());
+
+            byte[] data = received.getData();
+            assertArrayEquals(encoded, data);
+
+            decoded = new ArrayList<>();
+            for (CubeData cube : cubes) {
+                decoded.add(new CubeData(cube.cubeY, cube.hasSkyLight, cube.column));
+            }
+            PacketBuffer in = new PacketBuffer(WorldEncoder.createByteBufForRead(data));
+            WorldEncoder.decodeCubes(in, decoded);
+            assertFalse(in.isReadable());
+
+            for (int i = 0; i < cubes.size(); i++) {
+                assertSameCube(cubes.get(i), decoded.get(i), encoded[i]);
+            }
+        }
+        return decoded;
+    }
+
+    private static void assertSameCube(CubeData expected, CubeData actual, int flags) {
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        assertArrayEquals(expected.biomes, actual.biomes);
+        if ((flags & WorldEncoder.FLAG_HAS_HEIGHTMAP) != 0) {
+            assertArrayEquals(expected.heightMap, actual.heightMap);
+        } else {
+            assertNull(actual.heightMap);
+        }
+
+        ExtendedBlockStorage expectedStorage = expected.storage;
+        ExtendedBlockStorage actualStorage = actual.storage;
+        if (expectedStorage == null || actualStorage == null) {
+            assertSame(expectedStorage, actualStorage);
+            return;
+        }
+        assertEquals(expectedStorage.getYLocation(), actualStorage.getYLocation());
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    assertSame(expectedStorage.get(x, y, z), actualStorage.get(x, y, z));
+                }
+            }
+        }
+        assertArrayEquals(expectedStorage.getBlockLight().getData(), actualStorage.getBlockLight().getData());
+        if (expected.hasSkyLight) {
+            assertArrayEquals(expectedStorage.getSkyLight().getData(), actualStorage.getSkyLight().getData());
+        }
+    }
+
+    private static CubeData createCube(Random rand, Object column, boolean hasSkyLight, int storageKind, boolean uniformBlockLight,
+            boolean uniformSkyLight, boolean hasBiomes) {
+        int cubeY = rand.nextInt(20) - 10;
+        ExtendedBlockStorage storage = null;
+        byte[] heightMap = null;
+        if (storageKind != NO_STORAGE) {
+            storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), hasSkyLight);
+            if (storageKind == BLOCKS) {
+                for (int x = 0; x < 16; x++) {
+                    for (int y = 0; y < 16; y++) {
+                        for (int z = 0; z < 16; z++) {
+                            storage.set(x, y, z, states.get(rand.nextInt(states.size())));
+                        }
+                    }
+                }
+                heightMap = new byte[HEIGHT_MAP_SIZE];
+                rand.nextBytes(heightMap);
+            }
+            fillLight(rand, storage.getBlockLight().getData(), uniformBlockLight);
+            if (hasSkyLight) {
+                fillLight(rand, storage.getSkyLight().getData(), uniformSkyLight);
+            }
+            storage.recalculateRefCounts();
+        }
+        byte[] biomes = null;
+        if (hasBiomes) {
+            biomes = new byte[Coords.BIOMES_PER_CUBE];
+            rand.nextBytes(biomes);
+        }
+        return new CubeData(cubeY, hasSkyLight, column, storage, heightMap, biomes);
+    }
+
+    private static void fillLight(Random rand, byte[] data, boolean uniform) {
+        if (uniform) {
+            int light = rand.nextInt(16);
+            Arrays.fill(data, (byte) (light << 4 | light));
+        } else {
+            rand.nextBytes(data);
+            // one value that is different for sure
+            data[0] = 0x01;
+        }
+    }
+
+    private static ExtendedBlockStorage copy(@Nullable ExtendedBlockStorage storage, boolean hasSkyLight) {
+        assertNotNull(storage);
+        ExtendedBlockStorage copy = new ExtendedBlockStorage(storage.getYLocation(), hasSkyLight);
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    copy.set(x, y, z, storage.get(x, y, z));
+                }
+            }
+        }
+        System.arraycopy(storage.getBlockLight().getData(), 0, copy.getBlockLight().getData(), 0, 2048);
+        System.arraycopy(storage.getSkyLight().getData(), 0, copy.getSkyLight().getData(), 0, 2048);
+        copy.recalculateRefCounts();
+        return copy;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server.chunkio;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Writes cubes in the vanilla-like NBT sections and in {@link CompactCubeFormat}, reads them back and checks that blocks,
+ * light and height maps survive unchanged. Also converts saved cubes with {@link CubeStorageConverter} both ways.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestCubeStorageFormats {
+
+    private static final int CUBE_Y = -3;
+    private static List<IBlockState> states;
+
+    @BeforeClass
+    public static void setupClass() {
+        Bootstrap.register();
+        // only states that have an id can be saved, getValidStates also has states that only exist as actual states
+        Set<IBlockState> allStates = new LinkedHashSet<>();
+        for (IBlockState state : Block.BLOCK_STATE_IDS) {
+            allStates.add(state);
+        }
+        states = new ArrayList<>(allStates);
+    }
+
+    @Test
+    public void testPaletteSizes() throws IOException {
+        // palette sizes for each amount of bits per entry, and the largest palette that still fits in each
+        int[] paletteSizes = {1, 2, 3, 4, 5, 16, 17, 256, 257, 1000};
+        for (int paletteSize : paletteSizes) {
+            Random rand = new Random(paletteSize);
+            // non-uniform light, so that even a single block state isn't stored as a uniform record
+            ExtendedBlockStorage ebs = createStorage(rand, paletteSize, true);
+            assertRoundTrip(ebs, true, "CompactBlocks");
+            assertRoundTrip(ebs, false, "CompactBlocks");
+            ExtendedBlockStorage noSky = createStorage(rand, paletteSize, false);
+            assertRoundTrip(noSky, false, "CompactBlocks");
+        }
+    }
+
+    @Test
+    public void testUniformCubes() throws IOException {
+        // open sky, deep underground and a single block state with uniform light that isn't 0 or 15
+        assertRoundTrip(createUniformStorage(Blocks.AIR.getDefaultState(), 0, 15), true, "UniformBlocks");
+        assertRoundTrip(createUniformStorage(Blocks.STONE.getDefaultState(), 0, 0), true, "UniformBlocks");
+        assertRoundTrip(createUniformStorage(Blocks.STONE.getDefaultState(), 7, 3), true, "UniformBlocks");
+        assertRoundTrip(createUniformStorage(Blocks.STONE.getDefaultState(), 0, -1), false, "UniformBlocks");
+        assertRoundTrip(createUniformStorage(Blocks.WATER.getDefaultState(), 15, 12), true, "UniformBlocks");
+
+        // a single block with different light must not lose its light
+        ExtendedBlockStorage ebs = createUniformStorage(Blocks.STONE.getDefaultState(), 0, 15);
+        ebs.setSkyLight(3, 4, 5, 14);
+        assertRoundTrip(ebs, true, "CompactBlocks");
+    }
+
+    @Test
+    public void testLastHeightMap() throws IOException {
+        Random rand = new Random(2);
+        int[] heights = new int[256];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = rand.nextInt(200) - 100;
+        }
+        // no height next to very high and very low values, deltas between them overflow
+        heights[0] = Coords.NO_HEIGHT;
+        heights[1] = Integer.MAX_VALUE;
+        heights[2] = Integer.MIN_VALUE;
+        heights[3] = Coords.NO_HEIGHT;
+        heights[255] = Integer.MAX_VALUE >> 1;
+
+        for (boolean compact : new boolean[]{false, true}) {
+            NBTTagCompound cubeNbt = new NBTTagCompound();
+            NBTTagCompound level = new NBTTagCompound();
+            cubeNbt.setTag("Level", level);
+            NBTTagCompound lightingInfo = new NBTTagCompound();
+            level.setTag("LightingInfo", lightingInfo);
+            IONbtWriter.writeLastHeightMap(heights, compact, lightingInfo);
+            assertTrue(lightingInfo.hasKey(compact ? "LastHeightMapDeltas" : "LastHeightMap"));
+
+            NBTTagCompound read = IONbtReader.readNbtBytes(ByteBuffer.wrap(IONbtWriter.writeNbtBytes(cubeNbt)));
+            assertArrayEquals(heights, IONbtReader.readLastHeightMap(read.getCompoundTag("Level").getCompoundTag("LightingInfo"), 256));
+
+            assertTrue(CubeStorageConverter.convertCube(cubeNbt, !compact));
+            assertArrayEquals(heights, IONbtReader.readLastHeightMap(lightingInfo, 256));
+            assertTrue(CubeStorageConverter.convertCube(cubeNbt, compact));
+            assertArrayEquals(heights, IONbtReader.readLastHeightMap(lightingInfo, 256));
+        }
+    }
+
+    @Test
+    public void testConverter() throws IOException {
+        Random rand = new Random(1);
+        for (ExtendedBlockStorage ebs : new ExtendedBlockStorage[]{createStorage(rand, 1, true), createStorage(rand, 20, true),
+                createStorage(rand, 300, true), createUniformStorage(Blocks.STONE.getDefaultState(), 4, 9)}) {
+            NBTTagCompound cubeNbt = new NBTTagCompound();
+            NBTTagCompound level = new NBTTagCompound();
+            cubeNbt.setTag("Level", level);
+            IONbtWriter.writeBlocks(ebs, true, false, level);
+
+            assertTrue(CubeStorageConverter.convertCube(cubeNbt, true));
+            assertFalse(level.hasKey("Sections"));
+            assertSameBlocks(ebs, readBack(cubeNbt, true), true);
+            assertFalse(CubeStorageConverter.convertCube(cubeNbt, true));
+
+            assertTrue(CubeStorageConverter.convertCube(cubeNbt, false));
+            assertTrue(level.hasKey("Sections"));
+            assertSameBlocks(ebs, readBack(cubeNbt, true), true);
+            assertFalse(CubeStorageConverter.convertCube(cubeNbt, false));
+        }
+    }
+
+    private static void assertRoundTrip(ExtendedBlockStorage ebs, boolean hasSkyLight, String compactTag) throws IOException {
+        for (boolean compact : new boolean[]{false, true}) {
+            NBTTagCompound cubeNbt = new NBTTagCompound();
+            NBTTagCompound level = new NBTTagCompound();
+            cubeNbt.setTag("Level", level);
+            IONbtWriter.writeBlocks(ebs, hasSkyLight, compact, level);
+            assertTrue(level.hasKey(compact ? compactTag : "Sections"));
+
+            assertSameBlocks(ebs, readBack(cubeNbt, hasSkyLight), hasSkyLight);
+        }
+    }
+
+    // goes through the same compressed bytes that are saved to disk
+    private static ExtendedBlockStorage readBack(NBTTagCompound cubeNbt, boolean hasSkyLight) throws IOException {
+        NBTTagCompound read = IONbtReader.readNbtBytes(ByteBuffer.wrap(IONbtWriter.writeNbtBytes(cubeNbt)));
+        ExtendedBlockStorage ebs = IONbtReader.readBlocks(read.getCompoundTag("Level"), CUBE_Y, hasSkyLight);
+        assertNotNull(ebs);
+        return ebs;
+    }
+
+    private static ExtendedBlockStorage createStorage(Random rand, int paletteSize, boolean hasSkyLight) {
+        IBlockState[] palette = new IBlockState[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            palette[i] = states.get(i * states.size() / paletteSize);
+        }
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(CUBE_Y * 16, hasSkyLight);
+        for (int i = 0; i < 4096; i++) {
+            // every palette entry is used at least once
+            IBlockState state = i < paletteSize ? palette[i] : palette[rand.nextInt(paletteSize)];
+            ebs.set(i & 15, i >> 8 & 15, i >> 4 & 15, state);
+            ebs.setBlockLight(i & 15, i >> 8 & 15, i >> 4 & 15, rand.nextInt(16));
+            if (hasSkyLight) {
+                ebs.setSkyLight(i & 15, i >> 8 & 15, i >> 4 & 15, rand.nextInt(16));
+            }
+        }
+        return ebs;
+    }
+
+    // a sky light value of -1 creates a storage without sky light
+    private static ExtendedBlockStorage createUniformStorage(IBlockState state, int blockLight, int skyLight) {
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(CUBE_Y * 16, skyLight >= 0);
+        for (int i = 0; i < 4096; i++) {
+            ebs.set(i & 15, i >> 8 & 15, i >> 4 & 15, state);
+            ebs.setBlockLight(i & 15, i >> 8 & 15, i >> 4 & 15, blockLight);
+            if (skyLight >= 0) {
+                ebs.setSkyLight(i & 15, i >> 8 & 15, i >> 4 & 15, skyLight);
+            }
+        }
+        return ebs;
+    }
+
+    private static void assertSameBlocks(ExtendedBlockStorage expected, ExtendedBlockStorage actual, boolean hasSkyLight) {
+        for (int i = 0; i < 4096; i++) {
+            assertSame("block " + i, expected.get(i & 15, i >> 8 & 15, i >> 4 & 15), actual.get(i & 15, i >> 8 & 15, i >> 4 & 15));
+        }
+        assertArrayEquals(expected.getBlockLight().getData(), actual.getBlockLight().getData());
+        if (hasSkyLight) {
+            assertArrayEquals(expected.getSkyLight().getData(), actual.getSkyLight().getData());
+        } else {
+            assertNull(actual.getSkyLight());
+        }
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+    }
+}